@@ -18,9 +18,9 @@
 package net.librec.data;
 
 import java.io.IOException;
-import java.util.Map;
 
-import com.google.common.collect.Table;
+import net.librec.math.structure.ActionMatrix;
+import net.librec.math.structure.MappedSparseMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseTensor;
 
@@ -52,6 +52,15 @@ public interface DataConvertor {
      */
     SparseMatrix getPreferenceMatrix();
 
+    /**
+     * Returns a memory-mapped {@code MappedSparseMatrix} object which stores
+     * rate data, when the rate data was loaded from a mapped snapshot.
+     *
+     * @return a {@code MappedSparseMatrix} object which stores rate data, or
+     *         {@code null} if the rate data is kept in the heap.
+     */
+    MappedSparseMatrix getMappedPreferenceMatrix();
+
     /**
      * Returns a {@code SparseMatrix} object which stores time data.
      *
@@ -66,6 +75,12 @@ public interface DataConvertor {
      */
     SparseTensor getSparseTensor();
 
-    Table<Integer, Integer, Integer> getAction(int action);
-    Map<Integer, Integer> getCount(int action);
+    /**
+     * Returns an {@code ActionMatrix} object which stores the action counts of
+     * every {user, item} entry of the preference matrix, one slot per action level.
+     *
+     * @return an {@code ActionMatrix} object which stores action counts, or
+     *         {@code null} if the data carries no actions.
+     */
+    ActionMatrix getActionMatrix();
 }
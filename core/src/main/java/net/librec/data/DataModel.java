@@ -18,12 +18,10 @@
 package net.librec.data;
 
 import com.google.common.collect.BiMap;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.DataSet;
 
-import java.util.Map;
-
 /**
  * A <tt>DataModel</tt> represents a data access interface
  * to the input file.
@@ -123,6 +121,10 @@ public interface DataModel {
 
     double[][] getUserAction();
 
-    Table<Integer, Integer, Integer> getActionTable(int level);
-    Map<Integer, Integer> getItemCount(int action);
+    /**
+     * Get the per-(user, item) action counts.
+     *
+     * @return  the action counts of data model, one slot per configured action level.
+     */
+    ActionMatrix getActionMatrix();
 }
@@ -17,12 +17,10 @@
  */
 package net.librec.data;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.SparseMatrix;
 
-import java.util.Map;
-
 /**
  * A <tt>DataSplitter</tt> is an interface to split
  * input data.
@@ -75,8 +73,15 @@ public interface DataSplitter {
      */
     SparseMatrix getValidData();
 
-    Table<Integer, Integer, Integer> getAction9Table();
-
-    Map<Integer, Integer> getAction9Count();
+    /**
+     * Get the purchase (level 9) counts of the split, which do not include the
+     * test set. They are built by the split, the action counts of the
+     * convertor are not modified.
+     *
+     * @return  an {@code ActionMatrix} object with the purchase counts of the
+     *          training set in its only slot, over the structure of the
+     *          preference matrix, or {@code null} if the splitter does not track them.
+     */
+    ActionMatrix getActionMatrix();
 
 }
@@ -17,14 +17,13 @@
  */
 package net.librec.data.convertor;
 
-import com.google.common.collect.Table;
 import net.librec.data.DataConvertor;
 import net.librec.job.progress.ProgressReporter;
+import net.librec.math.structure.ActionMatrix;
+import net.librec.math.structure.MappedSparseMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseTensor;
 
-import java.util.Map;
-
 /**
  * A <tt>AbstractDataConvertor</tt> is a class to convert
  * a data file from one source format to a target format.
@@ -36,40 +35,45 @@ public abstract class AbstractDataConvertor extends ProgressReporter implements
     /** store rate data as {user, item, rate} matrix */
     protected SparseMatrix preferenceMatrix;
 
+    /** store rate data memory-mapped, loaded into {@link #preferenceMatrix} on first use */
+    protected MappedSparseMatrix mappedPreferenceMatrix;
+
     /** store time data as {user, item, rate} matrix */
     protected SparseMatrix datetimeMatrix;
 
     /** store rate data as a sparse tensor */
     protected SparseTensor sparseTensor;
 
-    protected Table<Integer, Integer, Integer> a1ActionTable;
-    protected Table<Integer, Integer, Integer> a2ActionTable;
-    protected Table<Integer, Integer, Integer> a3ActionTable;
-    protected Table<Integer, Integer, Integer> a4ActionTable;
-    protected Table<Integer, Integer, Integer> a5ActionTable;
-    protected Table<Integer, Integer, Integer> a6ActionTable;
-    protected Table<Integer, Integer, Integer> a7ActionTable;
-    protected Table<Integer, Integer, Integer> a8ActionTable;
-    protected Table<Integer, Integer, Integer> a9ActionTable;
+    /**
+     * the number of action levels read by {@link #processDatas()}, the counts
+     * of level l are kept in slot l - 1 of {@link #actionMatrix}
+     */
+    public static final int NUM_ACTION_LEVELS = 9;
+
+    /** store action counts over the structure of {@link #preferenceMatrix} */
+    protected ActionMatrix actionMatrix;
 
-    protected Map<Integer, Integer> action1ItemCount;
-    protected Map<Integer, Integer> action2ItemCount;
-    protected Map<Integer, Integer> action3ItemCount;
-    protected Map<Integer, Integer> action4ItemCount;
-    protected Map<Integer, Integer> action5ItemCount;
-    protected Map<Integer, Integer> action6ItemCount;
-    protected Map<Integer, Integer> action7ItemCount;
-    protected Map<Integer, Integer> action8ItemCount;
-    protected Map<Integer, Integer> action9ItemCount;
     /**
-     * Return the rate matrix.
+     * Return the rate matrix, loading a memory-mapped one into the heap.
      *
      * @return  {@link #preferenceMatrix}
      */
     public SparseMatrix getPreferenceMatrix() {
+        if (preferenceMatrix == null && mappedPreferenceMatrix != null) {
+            preferenceMatrix = mappedPreferenceMatrix.toSparseMatrix();
+        }
         return preferenceMatrix;
     }
 
+    /**
+     * Return the memory-mapped rate matrix.
+     *
+     * @return  {@link #mappedPreferenceMatrix}
+     */
+    public MappedSparseMatrix getMappedPreferenceMatrix() {
+        return mappedPreferenceMatrix;
+    }
+
     /**
      * Return the date matrix.
      *
@@ -88,27 +92,12 @@ public abstract class AbstractDataConvertor extends ProgressReporter implements
         return sparseTensor;
     }
 
-    public Table<Integer, Integer, Integer> getAction(int action){
-        switch (action){
-            case 1:
-                return a1ActionTable;
-            case 2:
-                return a2ActionTable;
-            case 3:
-                return a3ActionTable;
-            case 4:
-                return a4ActionTable;
-            case 5:
-                return a5ActionTable;
-            case 6:
-                return a6ActionTable;
-            case 7:
-                return a7ActionTable;
-            case 8:
-                return a8ActionTable;
-            case 9:
-                return a9ActionTable;
-        }
-        return null;
+    /**
+     * Return the action counts.
+     *
+     * @return  {@link #actionMatrix}
+     */
+    public ActionMatrix getActionMatrix() {
+        return actionMatrix;
     }
 }
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import net.librec.math.structure.ActionMatrix;
+import net.librec.math.structure.SparseMatrix;
+
+import java.util.Arrays;
+
+/**
+ * A primitive builder of {user, item, action[, timestamp]} records in reading
+ * order. {@link #build} groups the records by (user, item) and turns them into
+ * the preference matrix, the datetime matrix and the action counts.
+ */
+class ActionRecords {
+
+    /** marks a record without timestamp */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private int[] rows, columns, actions;
+    private long[] times;
+    private int size;
+
+    /** built matrices */
+    private SparseMatrix preferenceMatrix, datetimeMatrix;
+    private ActionMatrix actionMatrix;
+
+    ActionRecords() {
+        rows = new int[1 << 12];
+        columns = new int[1 << 12];
+        actions = new int[1 << 12];
+    }
+
+    /**
+     * @return the number of records
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Append a record without timestamp.
+     */
+    void add(int row, int column, int action) {
+        ensureCapacity();
+        rows[size] = row;
+        columns[size] = column;
+        actions[size] = action;
+        if (times != null) {
+            times[size] = NO_TIME;
+        }
+        size++;
+    }
+
+    /**
+     * Append a record with a timestamp in milliseconds.
+     */
+    void add(int row, int column, int action, long time) {
+        if (times == null) {
+            times = new long[rows.length];
+            Arrays.fill(times, 0, size, NO_TIME);
+        }
+        add(row, column, action);
+        times[size - 1] = time;
+    }
+
+    /**
+     * Append the records of another builder in their reading order.
+     *
+     * @param other     the records to append
+     * @param rowMap    the row of this builder of every row of the other
+     * @param columnMap the column of this builder of every column of the other
+     */
+    void addAll(ActionRecords other, int[] rowMap, int[] columnMap) {
+        ensureCapacity(size + other.size);
+        if (other.times != null && times == null) {
+            times = new long[rows.length];
+            Arrays.fill(times, 0, size, NO_TIME);
+        }
+        for (int record = 0; record < other.size; record++, size++) {
+            rows[size] = rowMap[other.rows[record]];
+            columns[size] = columnMap[other.columns[record]];
+            actions[size] = other.actions[record];
+            if (times != null) {
+                times[size] = other.times != null ? other.times[record] : NO_TIME;
+            }
+        }
+    }
+
+    private void ensureCapacity() {
+        ensureCapacity(size + 1);
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > rows.length) {
+            int capacity = Math.max(rows.length + (rows.length >> 1), minCapacity);
+            rows = Arrays.copyOf(rows, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            if (times != null) {
+                times = Arrays.copyOf(times, capacity);
+            }
+        }
+    }
+
+    /**
+     * Build the matrices. Each (user, item) pair becomes one entry:
+     * <ul>
+     * <li>its preference is the binarized action of its first record, replaced by
+     * the one of each later record as long as it is not 1;</li>
+     * <li>its timestamp is the one of its last record with a timestamp;</li>
+     * <li>its action counts, and the per-item totals, count the records of
+     * each level 1..{@value AbstractDataConvertor#NUM_ACTION_LEVELS} in slot
+     * level - 1.</li>
+     * </ul>
+     *
+     * @param numRows    number of users
+     * @param numColumns number of items
+     * @param binThold   the threshold to binarize an action, negative to keep it
+     */
+    void build(int numRows, int numColumns, double binThold) {
+        // stable sort of the records by (row, column), keeping reading order within a pair
+        int[] order = countingSort(countingSort(null, columns, numColumns), rows, numRows);
+
+        int nnz = 0;
+        for (int idx = 0; idx < size; idx++) {
+            if (idx == 0 || !samePair(order[idx - 1], order[idx])) {
+                nnz++;
+            }
+        }
+
+        int numLevels = AbstractDataConvertor.NUM_ACTION_LEVELS;
+        int[] rowPtr = new int[numRows + 1];
+        int[] colInd = new int[nnz];
+        double[] rowData = new double[nnz];
+        double[] timeData = times != null ? new double[nnz] : null;
+        int[] actionData = new int[nnz * numLevels];
+        int[] columnData = new int[numColumns * numLevels];
+
+        int index = -1;
+        for (int idx = 0; idx < size; idx++) {
+            int record = order[idx];
+            int row = rows[record], column = columns[record], action = actions[record];
+            double value = binThold >= 0 ? (action > binThold ? 1 : 0) : action;
+            if (idx == 0 || !samePair(order[idx - 1], record)) {
+                index++;
+                rowPtr[row + 1]++;
+                colInd[index] = column;
+                rowData[index] = value;
+            } else if (rowData[index] != 1.0) {
+                rowData[index] = value;
+            }
+            if (timeData != null && times[record] != NO_TIME) {
+                timeData[index] = times[record];
+            }
+            if (action >= 1 && action <= numLevels) {
+                actionData[index * numLevels + action - 1]++;
+                columnData[column * numLevels + action - 1]++;
+            }
+        }
+        for (int row = 0; row < numRows; row++) {
+            rowPtr[row + 1] += rowPtr[row];
+        }
+
+        preferenceMatrix = new SparseMatrix(numRows, numColumns, rowPtr, colInd, rowData);
+        if (timeData != null) {
+            datetimeMatrix = new SparseMatrix(numRows, numColumns, rowPtr.clone(), colInd.clone(), timeData);
+        }
+        actionMatrix = new ActionMatrix(preferenceMatrix, numLevels, actionData, columnData);
+    }
+
+    private boolean samePair(int record1, int record2) {
+        return rows[record1] == rows[record2] && columns[record1] == columns[record2];
+    }
+
+    /**
+     * Stable counting sort of record positions by a key.
+     *
+     * @param order   record positions to sort, null for reading order
+     * @param keys    key of each record
+     * @param numKeys number of distinct keys
+     * @return sorted record positions
+     */
+    private int[] countingSort(int[] order, int[] keys, int numKeys) {
+        int[] starts = new int[numKeys + 1];
+        for (int record = 0; record < size; record++) {
+            starts[keys[record] + 1]++;
+        }
+        for (int key = 0; key < numKeys; key++) {
+            starts[key + 1] += starts[key];
+        }
+        int[] sorted = new int[size];
+        for (int idx = 0; idx < size; idx++) {
+            int record = order == null ? idx : order[idx];
+            sorted[starts[keys[record]]++] = record;
+        }
+        return sorted;
+    }
+
+    SparseMatrix getPreferenceMatrix() {
+        return preferenceMatrix;
+    }
+
+    SparseMatrix getDatetimeMatrix() {
+        return datetimeMatrix;
+    }
+
+    ActionMatrix getActionMatrix() {
+        return actionMatrix;
+    }
+}
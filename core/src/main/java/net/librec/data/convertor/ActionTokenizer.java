@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A byte-level tokenizer of UIR/UIRT lines. Lines are separated by '\r' or
+ * '\n' and fields by spaces, tabs or commas. The user and item fields are
+ * resolved through {@link ByteIdDictionary}s and the action and timestamp
+ * fields are parsed from the bytes, and each line is appended to an
+ * {@link ActionRecords}.
+ * <p>
+ * A line may span several buffers fed in a row, {@link #finish()} must be
+ * called at the end of every file.
+ */
+class ActionTokenizer {
+
+    /** the number of leading fields used */
+    private static final int NUM_FIELDS = 4;
+
+    private final ByteIdDictionary userIds, itemIds;
+    private final ActionRecords records;
+
+    /** whether the third field is an action and the fourth a timestamp */
+    private final boolean readAction, readTime;
+
+    private final TimeUnit timeUnit;
+
+    /** the current line */
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    /** field bounds of the current line */
+    private final int[] fieldStarts = new int[NUM_FIELDS];
+    private final int[] fieldEnds = new int[NUM_FIELDS];
+
+    /**
+     * @param userIds    dictionary of user ids
+     * @param itemIds    dictionary of item ids
+     * @param records    records to append to
+     * @param readAction whether the third field is an action, otherwise every action is 1
+     * @param readTime   whether the fourth field is a timestamp
+     * @param timeUnit   the time unit of timestamps
+     */
+    ActionTokenizer(ByteIdDictionary userIds, ByteIdDictionary itemIds, ActionRecords records,
+                    boolean readAction, boolean readTime, TimeUnit timeUnit) {
+        this.userIds = userIds;
+        this.itemIds = itemIds;
+        this.records = records;
+        this.readAction = readAction;
+        this.readTime = readTime;
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Tokenize the remaining bytes of a buffer.
+     *
+     * @param buffer the buffer to read
+     * @throws IOException if a line is not valid
+     */
+    void feed(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n' || b == '\r') {
+                endLine();
+            } else {
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * Tokenize the last line of a file, which may not be terminated.
+     *
+     * @throws IOException if the line is not valid
+     */
+    void finish() throws IOException {
+        endLine();
+    }
+
+    private void endLine() throws IOException {
+        if (lineLength > 0) {
+            parseLine();
+            lineLength = 0;
+        }
+    }
+
+    private void parseLine() throws IOException {
+        int numFields = 0;
+        for (int pos = 0; pos < lineLength; ) {
+            while (pos < lineLength && isDelimiter(line[pos])) {
+                pos++;
+            }
+            if (pos == lineLength) {
+                break;
+            }
+            int start = pos;
+            while (pos < lineLength && !isDelimiter(line[pos])) {
+                pos++;
+            }
+            if (numFields < NUM_FIELDS) {
+                fieldStarts[numFields] = start;
+                fieldEnds[numFields] = pos;
+            }
+            numFields++;
+        }
+        if (numFields == 0) {
+            return;
+        }
+        if (numFields < 2) {
+            throw new IOException("Invalid data line: " + new String(line, 0, lineLength));
+        }
+
+        // inner id starting from 0
+        int row = userIds.getOrAdd(line, fieldStarts[0], fieldEnds[0] - fieldStarts[0]);
+        int col = itemIds.getOrAdd(line, fieldStarts[1], fieldEnds[1] - fieldStarts[1]);
+        int action = readAction && numFields >= 3 ? parseInt(2) : 1;
+
+        if (readTime && numFields >= 4) {
+            records.add(row, col, action, timeUnit.toMillis(parseLong(3)));
+        } else {
+            records.add(row, col, action);
+        }
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ',' || (b >= 0 && b <= ' ');
+    }
+
+    private int parseInt(int field) {
+        int pos = fieldStarts[field], end = fieldEnds[field];
+        boolean negative = line[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end || end - pos > 9) {
+            return Integer.parseInt(fieldString(field));
+        }
+        int value = 0;
+        for (; pos < end; pos++) {
+            int digit = line[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(fieldString(field));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private long parseLong(int field) {
+        int pos = fieldStarts[field], end = fieldEnds[field];
+        boolean negative = line[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end || end - pos > 18) {
+            return parseLong(fieldString(field));
+        }
+        long value = 0L;
+        for (; pos < end; pos++) {
+            int digit = line[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                // e.g. 9.7323480e+008
+                return parseLong(fieldString(field));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(value);
+        }
+    }
+
+    private String fieldString(int field) {
+        return new String(line, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+}
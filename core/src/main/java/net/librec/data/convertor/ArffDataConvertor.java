@@ -30,7 +30,6 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A <tt>ArffDataConvertor</tt> is a class to convert
@@ -320,11 +319,6 @@ public class ArffDataConvertor extends AbstractDataConvertor {
 
     }
 
-    @Override
-    public Map<Integer, Integer> getCount(int action) {
-        return null;
-    }
-
     @Override
     public void progress() {
         // TODO Auto-generated method stub
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import com.google.common.collect.BiMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A {raw id, inner id} dictionary keyed by the raw bytes of the id, so that a
+ * tokenizer can look up ids without creating a {@code String} per token.
+ * Inner ids are assigned in order of first appearance, starting from the size
+ * of the {@code BiMap} the dictionary is bound to, and every new id is also
+ * put into that map. An unbound dictionary only keeps the bytes, and its ids
+ * can later be translated into a bound one with {@link #addAll}.
+ */
+class ByteIdDictionary {
+
+    /** the bound {raw id, inner id} map, null if unbound */
+    private final BiMap<String, Integer> ids;
+
+    /** open-addressing table of inner id + 1, 0 marks an empty slot */
+    private int[] slots = new int[16];
+
+    /** raw id bytes, the bytes of inner id i are keys[keyOffsets[i], keyOffsets[i + 1]) */
+    private byte[] keys = new byte[1 << 12];
+    private int[] keyOffsets = new int[1 << 8];
+    private int[] keyHashes = new int[1 << 8];
+
+    /** the number of ids */
+    private int size;
+
+    /**
+     * Initializes an empty unbound dictionary.
+     */
+    ByteIdDictionary() {
+        this.ids = null;
+    }
+
+    /**
+     * Initializes a dictionary bound to a {raw id, inner id} map, the ids
+     * already in the map, numbered from 0, are kept.
+     *
+     * @param ids the map to bind
+     */
+    ByteIdDictionary(BiMap<String, Integer> ids) {
+        this.ids = ids;
+        String[] rawIds = new String[ids.size()];
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            rawIds[entry.getValue()] = entry.getKey();
+        }
+        for (String rawId : rawIds) {
+            byte[] bytes = rawId.getBytes();
+            insert(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+        }
+    }
+
+    /**
+     * @return the number of ids
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return the inner id of a raw id, assigning the next inner id if it is new.
+     *
+     * @param bytes  buffer holding the raw id
+     * @param offset offset of the raw id in the buffer
+     * @param length length of the raw id
+     * @return the inner id
+     */
+    int getOrAdd(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                break;
+            }
+            if (keyHashes[id] == hash && matches(id, bytes, offset, length)) {
+                return id;
+            }
+        }
+        int id = insert(bytes, offset, length, hash);
+        if (ids != null) {
+            ids.put(new String(bytes, offset, length), id);
+        }
+        return id;
+    }
+
+    /**
+     * Add the ids of another dictionary in their inner id order, so that the
+     * ids new to this dictionary are assigned as if the raw ids of the other
+     * one were read here.
+     *
+     * @param other the dictionary to add
+     * @return the inner id in this dictionary of every inner id of the other
+     */
+    int[] addAll(ByteIdDictionary other) {
+        int[] idMap = new int[other.size];
+        for (int id = 0; id < other.size; id++) {
+            int start = other.keyOffsets[id];
+            idMap[id] = getOrAdd(other.keys, start, other.keyOffsets[id + 1] - start);
+        }
+        return idMap;
+    }
+
+    private int insert(byte[] bytes, int offset, int length, int hash) {
+        int id = size++;
+        if (id + 1 >= keyOffsets.length) {
+            keyOffsets = Arrays.copyOf(keyOffsets, keyOffsets.length * 2);
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        int start = keyOffsets[id];
+        if (start + length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, start + length));
+        }
+        System.arraycopy(bytes, offset, keys, start, length);
+        keyOffsets[id + 1] = start + length;
+        keyHashes[id] = hash;
+
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int other = 0; other < size; other++) {
+                place(other);
+            }
+        } else {
+            place(id);
+        }
+        return id;
+    }
+
+    private void place(int id) {
+        int mask = slots.length - 1;
+        int slot = keyHashes[id] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private boolean matches(int id, byte[] bytes, int offset, int length) {
+        int start = keyOffsets[id];
+        if (keyOffsets[id + 1] - start != length) {
+            return false;
+        }
+        for (int idx = 0; idx < length; idx++) {
+            if (keys[start + idx] != bytes[offset + idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int idx = offset, end = offset + length; idx < end; idx++) {
+            hash = (hash ^ bytes[idx]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.math.structure.ActionMatrix;
+import net.librec.math.structure.MappedSparseMatrix;
+import net.librec.math.structure.SparseMatrix;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of converted data, so that a data set can be loaded
+ * without parsing it again.
+ * <p>
+ * A snapshot starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * sections written by the convertor. Scalars and arrays are big-endian, and
+ * an array or a string is preceded by its length. Arrays are written in
+ * bulk and read back from memory-mapped regions of the file.
+ */
+class DataSnapshot {
+
+    /** the first bytes of a snapshot, "LRDS" */
+    static final int MAGIC = 0x4C524453;
+
+    /** the version of the snapshot format, bumped whenever the layout changes */
+    static final int VERSION = 3;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** the size of the write buffer and of a memory-mapped region */
+    private static final int BSIZE = 1024 * 1024;
+    private static final long MSIZE = 64L * 1024 * 1024;
+
+    /**
+     * Writes a snapshot through a buffer.
+     */
+    static class Writer implements Closeable {
+
+        private final FileOutputStream fos;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BSIZE);
+
+        /**
+         * Create a snapshot file and write its magic and version.
+         *
+         * @param file the file to create
+         * @throws IOException if the file can not be created
+         */
+        Writer(File file) throws IOException {
+            fos = new FileOutputStream(file);
+            channel = fos.getChannel();
+            writeInt(MAGIC);
+            writeInt(VERSION);
+        }
+
+        void writeInt(int value) throws IOException {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensureRemaining(8);
+            buffer.putLong(value);
+        }
+
+        void writeDouble(double value) throws IOException {
+            ensureRemaining(8);
+            buffer.putDouble(value);
+        }
+
+        void writeBoolean(boolean value) throws IOException {
+            writeInt(value ? 1 : 0);
+        }
+
+        void writeString(String value) throws IOException {
+            writeBytes(value.getBytes(UTF8));
+        }
+
+        void writeBytes(byte[] values) throws IOException {
+            writeInt(values.length);
+            for (int offset = 0; offset < values.length; ) {
+                ensureRemaining(1);
+                int len = Math.min(values.length - offset, buffer.remaining());
+                buffer.put(values, offset, len);
+                offset += len;
+            }
+        }
+
+        void writeInts(int[] values) throws IOException {
+            writeInt(values.length);
+            for (int offset = 0; offset < values.length; ) {
+                ensureRemaining(4);
+                int len = Math.min(values.length - offset, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, offset, len);
+                buffer.position(buffer.position() + len * 4);
+                offset += len;
+            }
+        }
+
+        void writeDoubles(double[] values) throws IOException {
+            writeInt(values.length);
+            for (int offset = 0; offset < values.length; ) {
+                ensureRemaining(8);
+                int len = Math.min(values.length - offset, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(values, offset, len);
+                buffer.position(buffer.position() + len * 8);
+                offset += len;
+            }
+        }
+
+        private void ensureRemaining(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot from memory-mapped regions.
+     */
+    static class Reader implements Closeable {
+
+        private final FileInputStream fis;
+        private final FileChannel channel;
+        private final int version;
+        private long position;
+
+        /**
+         * Open a snapshot file and check its magic. The sections of a snapshot
+         * of another version than {@link #VERSION} can not be read.
+         *
+         * @param file the file to open
+         * @throws IOException if the file can not be read or is not a snapshot
+         */
+        Reader(File file) throws IOException {
+            fis = new FileInputStream(file);
+            channel = fis.getChannel();
+            try {
+                if (channel.size() < 8 || readInt() != MAGIC) {
+                    throw new IOException(file + " is not a data snapshot");
+                }
+                version = readInt();
+            } catch (IOException e) {
+                fis.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the version of the snapshot format the file was written with
+         */
+        int getVersion() {
+            return version;
+        }
+
+        int readInt() throws IOException {
+            return map(4).getInt();
+        }
+
+        long readLong() throws IOException {
+            return map(8).getLong();
+        }
+
+        double readDouble() throws IOException {
+            return map(8).getDouble();
+        }
+
+        boolean readBoolean() throws IOException {
+            return readInt() != 0;
+        }
+
+        String readString() throws IOException {
+            return new String(readBytes(), UTF8);
+        }
+
+        byte[] readBytes() throws IOException {
+            byte[] values = new byte[readLength()];
+            for (int offset = 0; offset < values.length; ) {
+                int len = (int) Math.min(values.length - offset, MSIZE);
+                map(len).get(values, offset, len);
+                offset += len;
+            }
+            return values;
+        }
+
+        int[] readInts() throws IOException {
+            int[] values = new int[readLength()];
+            for (int offset = 0; offset < values.length; ) {
+                int len = (int) Math.min(values.length - offset, MSIZE / 4);
+                map(len * 4L).asIntBuffer().get(values, offset, len);
+                offset += len;
+            }
+            return values;
+        }
+
+        double[] readDoubles() throws IOException {
+            double[] values = new double[readLength()];
+            for (int offset = 0; offset < values.length; ) {
+                int len = (int) Math.min(values.length - offset, MSIZE / 8);
+                map(len * 8L).asDoubleBuffer().get(values, offset, len);
+                offset += len;
+            }
+            return values;
+        }
+
+        private int readLength() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                throw new IOException("Corrupted data snapshot at position " + (position - 4));
+            }
+            return length;
+        }
+
+        /**
+         * Map the next bytes of the file and move past them.
+         */
+        private ByteBuffer map(long bytes) throws IOException {
+            if (position + bytes > channel.size()) {
+                throw new EOFException("Truncated data snapshot");
+            }
+            ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+            position += bytes;
+            return region;
+        }
+
+        @Override
+        public void close() throws IOException {
+            fis.close();
+        }
+    }
+
+    /**
+     * Write a {raw id, inner id} map as its raw ids in inner id order.
+     *
+     * @param writer the snapshot writer
+     * @param ids    the map to write, inner ids numbered from 0
+     * @throws IOException if the snapshot can not be written
+     */
+    static void writeIds(Writer writer, BiMap<String, Integer> ids) throws IOException {
+        BiMap<Integer, String> rawIds = ids.inverse();
+        int[] offsets = new int[ids.size() + 1];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int id = 0; id < ids.size(); id++) {
+            byte[] rawId = rawIds.get(id).getBytes(UTF8);
+            bytes.write(rawId, 0, rawId.length);
+            offsets[id + 1] = bytes.size();
+        }
+        writer.writeInts(offsets);
+        writer.writeBytes(bytes.toByteArray());
+    }
+
+    /**
+     * Read a {raw id, inner id} map written by {@link #writeIds}.
+     *
+     * @param reader the snapshot reader
+     * @return the map
+     * @throws IOException if the snapshot can not be read
+     */
+    static BiMap<String, Integer> readIds(Reader reader) throws IOException {
+        int[] offsets = reader.readInts();
+        byte[] bytes = reader.readBytes();
+        if (offsets.length == 0 || offsets[offsets.length - 1] != bytes.length) {
+            throw new IOException("Corrupted id dictionary in data snapshot");
+        }
+        BiMap<String, Integer> ids = HashBiMap.create(offsets.length - 1);
+        for (int id = 0; id < offsets.length - 1; id++) {
+            ids.put(new String(bytes, offsets[id], offsets[id + 1] - offsets[id], UTF8), id);
+        }
+        return ids;
+    }
+
+    /**
+     * Write a sparse matrix as its dimensions and CRS arrays, null is written
+     * as a missing matrix.
+     *
+     * @param writer the snapshot writer
+     * @param matrix the matrix to write, or null
+     * @throws IOException if the snapshot can not be written
+     */
+    static void writeMatrix(Writer writer, SparseMatrix matrix) throws IOException {
+        writer.writeBoolean(matrix != null);
+        if (matrix != null) {
+            writer.writeInt(matrix.numRows);
+            writer.writeInt(matrix.numColumns);
+            writer.writeInts(matrix.rowPtr);
+            // the arrays may be longer than the number of non-zero entries
+            int size = matrix.rowPtr[matrix.numRows];
+            writer.writeInts(matrix.colInd.length == size ? matrix.colInd : Arrays.copyOf(matrix.colInd, size));
+            writer.writeDoubles(matrix.rowData.length == size ? matrix.rowData : Arrays.copyOf(matrix.rowData, size));
+        }
+    }
+
+    /**
+     * Read a sparse matrix written by {@link #writeMatrix}.
+     *
+     * @param reader the snapshot reader
+     * @return the matrix, or null if it was missing
+     * @throws IOException if the snapshot can not be read
+     */
+    static SparseMatrix readMatrix(Reader reader) throws IOException {
+        if (!reader.readBoolean()) {
+            return null;
+        }
+        int numRows = reader.readInt();
+        int numColumns = reader.readInt();
+        int[] rowPtr = reader.readInts();
+        int[] colInd = reader.readInts();
+        double[] rowData = reader.readDoubles();
+        if (rowPtr.length != numRows + 1 || colInd.length != rowPtr[numRows] || rowData.length != colInd.length) {
+            throw new IOException("Corrupted matrix in data snapshot");
+        }
+        return new SparseMatrix(numRows, numColumns, rowPtr, colInd, rowData);
+    }
+
+    /**
+     * Write the action counts of an action matrix, whose structure is the one
+     * of the preceding preference matrix; null is written as missing counts.
+     *
+     * @param writer the snapshot writer
+     * @param matrix the action matrix to write, or null
+     * @throws IOException if the snapshot can not be written
+     */
+    static void writeActions(Writer writer, ActionMatrix matrix) throws IOException {
+        writer.writeBoolean(matrix != null);
+        if (matrix != null) {
+            writer.writeInt(matrix.numActions);
+            writer.writeInts(matrix.actionData);
+            writer.writeInts(matrix.columnData);
+        }
+    }
+
+    /**
+     * Read the action counts written by {@link #writeActions}.
+     *
+     * @param reader    the snapshot reader
+     * @param structure the preference matrix the counts are stored on
+     * @return the action matrix, or null if it was missing
+     * @throws IOException if the snapshot can not be read
+     */
+    static ActionMatrix readActions(Reader reader, SparseMatrix structure) throws IOException {
+        if (!reader.readBoolean()) {
+            return null;
+        }
+        int numActions = reader.readInt();
+        int[] actionData = reader.readInts();
+        int[] columnData = reader.readInts();
+        if (structure == null || actionData.length != (long) structure.rowPtr[structure.numRows] * numActions
+                || columnData.length != (long) structure.numColumns * numActions) {
+            throw new IOException("Corrupted action counts in data snapshot");
+        }
+        return new ActionMatrix(structure, numActions, actionData, columnData);
+    }
+
+    /**
+     * Read action counts over the structure of a memory-mapped matrix, whose
+     * row pointers and column indices are copied into the heap.
+     */
+    static ActionMatrix readActions(Reader reader, MappedSparseMatrix structure) throws IOException {
+        if (!reader.readBoolean()) {
+            return null;
+        }
+        int numActions = reader.readInt();
+        int[] actionData = reader.readInts();
+        int[] columnData = reader.readInts();
+        if (actionData.length != (long) structure.size() * numActions
+                || columnData.length != (long) structure.numColumns() * numActions) {
+            throw new IOException("Corrupted action counts in data snapshot");
+        }
+        return new ActionMatrix(structure.numRows(), structure.numColumns(), structure.getRowPointers(),
+                structure.getColumnIndices(), numActions, actionData, columnData);
+    }
+}
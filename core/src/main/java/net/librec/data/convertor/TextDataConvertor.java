@@ -18,6 +18,7 @@
 package net.librec.data.convertor;
 
 import com.google.common.collect.*;
+import net.librec.math.structure.MappedSparseMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.util.StringUtil;
 import org.apache.commons.lang.StringUtils;
@@ -27,15 +28,16 @@ import org.apache.commons.logging.LogFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 /**
  * A <tt>TextDataConvertor</tt> is a class to convert a data file from CSV
@@ -55,11 +57,21 @@ public class TextDataConvertor extends AbstractDataConvertor {
      */
     private static final int BSIZE = 1024 * 1024;
 
+    /**
+     * The size of a memory-mapped region
+     */
+    private static final long MSIZE = 64L * 1024 * 1024;
+
     /**
      * The default format of input data file
      */
     private static final String DATA_COLUMN_DEFAULT_FORMAT = "UIR";
 
+    /**
+     * The minimum size of a byte range read by one thread
+     */
+    private static final long MIN_SPLIT_SIZE = 16L * 1024 * 1024;
+
     /**
      * The format of input data file
      */
@@ -86,6 +98,21 @@ public class TextDataConvertor extends AbstractDataConvertor {
      */
     private TimeUnit timeUnit = TimeUnit.SECONDS;
 
+    /**
+     * the number of threads reading the data files, 1 reads them one after another
+     */
+    private int numThreads = 1;
+
+    /**
+     * the action levels the converted data is read for, recorded in the snapshot
+     */
+    private int[] actionLevels = new int[0];
+
+    /**
+     * keep the preference matrix of a snapshot in a memory-mapped file next to it
+     */
+    private boolean mapped;
+
     /**
      * already loaded files/total files in dataDirectory
      */
@@ -174,63 +201,186 @@ public class TextDataConvertor extends AbstractDataConvertor {
         readDatas(dataColumnFormat, inputDataPath, binThold);
     }
 
-    @Override
-    public Map<Integer, Integer> getCount(int action) {
-        switch (action){
-            case 1:
-                return action1ItemCount;
-            case 2:
-                return action2ItemCount;
-            case 3:
-                return action3ItemCount;
-            case 4:
-                return action4ItemCount;
-            case 5:
-                return action5ItemCount;
-            case 6:
-                return action6ItemCount;
-            case 7:
-                return action7ItemCount;
-            case 8:
-                return action8ItemCount;
-            case 9:
-                return action9ItemCount;
+    /**
+     * Write the converted data to a binary snapshot: the user and item ids,
+     * the preference and datetime matrices and the action counts, preceded by
+     * the format, path, threshold, time unit and action levels they were
+     * converted with and by the path, size and modification time of every
+     * input file. A mapped snapshot keeps the preference matrix in a file
+     * next to it, see {@link #getMappedFile}.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the snapshot can not be written
+     */
+    public void writeSnapshot(File file) throws IOException {
+        List<File> files = listDataFiles();
+        SparseMatrix preferenceMatrix = getPreferenceMatrix();
+        // write aside and move, so that an interrupted job leaves no partial snapshot
+        if (mapped) {
+            File mappedFile = getMappedFile(file);
+            File tempMappedFile = new File(mappedFile.getPath() + ".tmp");
+            MappedSparseMatrix.write(preferenceMatrix, tempMappedFile);
+            Files.move(tempMappedFile.toPath(), mappedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
-        return null;
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataSnapshot.Writer writer = new DataSnapshot.Writer(tempFile)) {
+            writer.writeString(dataColumnFormat);
+            writer.writeString(inputDataPath);
+            writer.writeDouble(binThold);
+            writer.writeString(timeUnit.name());
+            writer.writeInts(actionLevels);
+            writer.writeBoolean(mapped);
+            writer.writeInt(files.size());
+            for (File dataFile : files) {
+                writer.writeString(dataFile.getPath());
+                writer.writeLong(dataFile.length());
+                writer.writeLong(dataFile.lastModified());
+            }
+            DataSnapshot.writeIds(writer, userIds);
+            DataSnapshot.writeIds(writer, itemIds);
+            if (mapped) {
+                // only the shape, to recognize the mapped file of this snapshot
+                writer.writeInt(preferenceMatrix.numRows);
+                writer.writeInt(preferenceMatrix.numColumns);
+                writer.writeInt(preferenceMatrix.rowPtr[preferenceMatrix.numRows]);
+            } else {
+                DataSnapshot.writeMatrix(writer, preferenceMatrix);
+            }
+            DataSnapshot.writeMatrix(writer, datetimeMatrix);
+            DataSnapshot.writeActions(writer, actionMatrix);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
-    private void readDatas(String dataColumnFormat, String inputDataPath, double binThold) throws IOException {
+    /**
+     * Read the converted data from a binary snapshot written by
+     * {@link #writeSnapshot}, instead of processing the input data.
+     *
+     * @param file the snapshot file
+     * @return true if the snapshot is read, false if it is of an older version,
+     * was converted with another format, path, threshold, time unit or action
+     * levels, is mapped or not unlike this convertor, misses its mapped file,
+     * or if an input file has been added, removed or modified since
+     * @throws IOException if the snapshot can not be read
+     */
+    public boolean readSnapshot(File file) throws IOException {
+        try (DataSnapshot.Reader reader = new DataSnapshot.Reader(file)) {
+            if (reader.getVersion() != DataSnapshot.VERSION
+                    || !StringUtils.equals(reader.readString(), dataColumnFormat)
+                    || !StringUtils.equals(reader.readString(), inputDataPath)
+                    || Double.compare(reader.readDouble(), binThold) != 0
+                    || !StringUtils.equals(reader.readString(), timeUnit.name())
+                    || !Arrays.equals(reader.readInts(), actionLevels)
+                    || reader.readBoolean() != mapped
+                    || !isDataFilesUnchanged(reader)) {
+                return false;
+            }
+            userIds = DataSnapshot.readIds(reader);
+            itemIds = DataSnapshot.readIds(reader);
+            if (mapped) {
+                int numRows = reader.readInt();
+                int numColumns = reader.readInt();
+                int size = reader.readInt();
+                File mappedFile = getMappedFile(file);
+                if (!mappedFile.isFile()) {
+                    return false;
+                }
+                MappedSparseMatrix matrix = MappedSparseMatrix.open(mappedFile);
+                if (matrix.numRows() != numRows || matrix.numColumns() != numColumns || matrix.size() != size) {
+                    LOG.warn("Mapped preference matrix " + mappedFile + " does not belong to the data snapshot");
+                    return false;
+                }
+                mappedPreferenceMatrix = matrix;
+                preferenceMatrix = null;
+                datetimeMatrix = DataSnapshot.readMatrix(reader);
+                actionMatrix = DataSnapshot.readActions(reader, matrix);
+            } else {
+                preferenceMatrix = DataSnapshot.readMatrix(reader);
+                datetimeMatrix = DataSnapshot.readMatrix(reader);
+                actionMatrix = DataSnapshot.readActions(reader, preferenceMatrix);
+            }
+        }
+        loadFilePathRate = loadDataFileRate = loadAllFileRate = 1.0f;
+        return true;
+    }
 
-        // Table {row-id, col-id, rate}
-        Table<Integer, Integer, Integer> dataTable = HashBasedTable.create();
-        // Table {row-id, col-id, timestamp}
-        Table<Integer, Integer, Long> timeTable = null;
-        // Map {col-id, multiple row-id}: used to fast build a rating matrix
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+    /**
+     * Compare the input files recorded in a snapshot with the current ones.
+     *
+     * @param reader the snapshot reader, positioned at the input files
+     * @return true if the same files are found, of the same size and modification time
+     * @throws IOException if the snapshot can not be read
+     */
+    /**
+     * Return the file a mapped snapshot keeps its preference matrix in.
+     *
+     * @param file the snapshot file
+     * @return the mapped file next to the snapshot
+     */
+    public static File getMappedFile(File file) {
+        return new File(file.getPath() + ".matrix");
+    }
 
-        a1ActionTable = HashBasedTable.create();
-        a2ActionTable = HashBasedTable.create();
-        a3ActionTable = HashBasedTable.create();
-        a4ActionTable = HashBasedTable.create();
-        a5ActionTable = HashBasedTable.create();
-        a6ActionTable = HashBasedTable.create();
-        a7ActionTable = HashBasedTable.create();
-        a8ActionTable = HashBasedTable.create();
-        a9ActionTable = HashBasedTable.create();
-
-        action1ItemCount = new HashMap<>();
-        action2ItemCount = new HashMap<>();
-        action3ItemCount = new HashMap<>();
-        action4ItemCount = new HashMap<>();
-        action5ItemCount = new HashMap<>();
-        action6ItemCount = new HashMap<>();
-        action7ItemCount = new HashMap<>();
-        action8ItemCount = new HashMap<>();
-        action9ItemCount = new HashMap<>();
-//        int max = -1;
-//        int min = 9999;
-//        int[] coun = new int[]{0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
+    private boolean isDataFilesUnchanged(DataSnapshot.Reader reader) throws IOException {
+        List<File> files;
+        try {
+            files = listDataFiles();
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (reader.readInt() != files.size()) {
+            return false;
+        }
+        for (File dataFile : files) {
+            if (!StringUtils.equals(reader.readString(), dataFile.getPath())
+                    || reader.readLong() != dataFile.length()
+                    || reader.readLong() != dataFile.lastModified()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    /**
+     * List the files under the input data paths, sorted by path.
+     *
+     * @return the input files
+     * @throws IOException if a path can not be walked
+     */
+    private List<File> listDataFiles() throws IOException {
+        final List<File> files = new ArrayList<>();
+        SimpleFileVisitor<Path> finder = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                files.add(file.toFile());
+                return super.visitFile(file, attrs);
+            }
+        };
+        for (String path : inputDataPath.trim().split(" ")) {
+            Files.walkFileTree(Paths.get(path), finder);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Read {user, item, action[, timestamp]} records from the data files. The
+     * actions of every level are counted into {@link #actionMatrix} and the
+     * binarized actions make up the preference matrix.
+     * <p>
+     * The files are memory-mapped region by region and tokenized at byte level,
+     * ids are resolved without creating a {@code String} per line and the
+     * records are kept in primitive arrays until the matrices are built.
+     *
+     * @param dataColumnFormat the format of input data file
+     * @param inputDataPath    the path of input data file
+     * @param binThold         the threshold to binarize an action. If an action is greater
+     *                         than the threshold, the value will be 1; otherwise 0. To
+     *                         disable this appender, i.e., keep the original action value,
+     *                         set the threshold a negative value
+     * @throws IOException if the <code>inputDataPath</code> is not valid.
+     */
+    private void readDatas(String dataColumnFormat, String inputDataPath, double binThold) throws IOException {
 
         if (this.userIds == null) {
             this.userIds = HashBiMap.create();
@@ -258,241 +408,213 @@ public class TextDataConvertor extends AbstractDataConvertor {
             allFileSize = allFileSize + everyFileSize;
         }
         LOG.info("All dataset files size " + Long.toString(allFileSize));
-        int readingFileCount = 0;
-        long loadAllFileByte = 0;
-        // loop every dataFile collecting from walkFileTree
-
-        for (File dataFile : files) {
-            LOG.info("Now loading dataset file " + dataFile.toString().substring(dataFile.toString().lastIndexOf(File.separator) + 1, dataFile.toString().lastIndexOf(".")));
-
-            readingFileCount += 1;
-            loadFilePathRate = readingFileCount / (float) files.size();
-            long readingOneFileByte = 0;
-            FileInputStream fis = new FileInputStream(dataFile);
-            FileChannel fileRead = fis.getChannel();
-            ByteBuffer buffer = ByteBuffer.allocate(BSIZE);
-            int len;
-            String bufferLine = "";
-            byte[] bytes = new byte[BSIZE];
-
-            while ((len = fileRead.read(buffer)) != -1) {
-                readingOneFileByte += len;
-                loadDataFileRate = readingOneFileByte / (float) fileRead.size();
-                loadAllFileByte += len;
-                loadAllFileRate = loadAllFileByte / (float) allFileSize;
-                buffer.flip();
-                buffer.get(bytes, 0, len);
-                bufferLine = bufferLine.concat(new String(bytes, 0, len));
-                bufferLine = bufferLine.replaceAll("\r", "\n");
-                String[] bufferData = bufferLine.split("(\n)+");
-                boolean isComplete = bufferLine.endsWith("\n");
-                int loopLength = isComplete ? bufferData.length : bufferData.length - 1;
-                for (int i = 0; i < loopLength; i++) {
-                    String line = bufferData[i];
-                    String[] data = line.trim().split("[ \t,]+");
-                    String user = data[0];
-                    String item = data[1];
-                    int action = ((dataColumnFormat.equals("UIR") || dataColumnFormat.equals("UIRT")) && data.length >= 3) ? Integer.parseInt(data[2]) : 1;
-
-                    // inner id starting from 0
-                    int row = userIds.containsKey(user) ? userIds.get(user) : userIds.size();
-                    userIds.put(user, row);
+        boolean readAction = dataColumnFormat.equals("UIR") || dataColumnFormat.equals("UIRT");
+        boolean readTime = StringUtils.equals(dataColumnFormat, "UIRT");
+        ActionRecords records = new ActionRecords();
+        ByteIdDictionary userDict = new ByteIdDictionary(userIds);
+        ByteIdDictionary itemDict = new ByteIdDictionary(itemIds);
+
+        if (numThreads > 1) {
+            readRanges(splitFiles(files, allFileSize), allFileSize, userDict, itemDict, records, readAction, readTime);
+        } else {
+            int readingFileCount = 0;
+            long loadAllFileByte = 0;
+            ActionTokenizer tokenizer = new ActionTokenizer(userDict, itemDict, records, readAction, readTime, timeUnit);
+
+            // loop every dataFile collecting from walkFileTree
+            for (File dataFile : files) {
+                LOG.info("Now loading dataset file " + dataFile.toString().substring(dataFile.toString().lastIndexOf(File.separator) + 1, dataFile.toString().lastIndexOf(".")));
+
+                readingFileCount += 1;
+                loadFilePathRate = readingFileCount / (float) files.size();
+                try (FileInputStream fis = new FileInputStream(dataFile);
+                     FileChannel fileRead = fis.getChannel()) {
+                    long fileSize = fileRead.size();
+                    for (long position = 0; position < fileSize; position += MSIZE) {
+                        long len = Math.min(MSIZE, fileSize - position);
+                        tokenizer.feed(fileRead.map(FileChannel.MapMode.READ_ONLY, position, len));
+                        loadDataFileRate = (position + len) / (float) fileSize;
+                        loadAllFileByte += len;
+                        loadAllFileRate = loadAllFileByte / (float) allFileSize;
+                    }
+                    tokenizer.finish();
+                }
+            }
+        }
 
-                    int col = itemIds.containsKey(item) ? itemIds.get(item) : itemIds.size();
-                    itemIds.put(item, col);
+        // build rating matrix and action counts
+        records.build(numUsers(), numItems(), binThold);
+        preferenceMatrix = records.getPreferenceMatrix();
+        datetimeMatrix = records.getDatetimeMatrix();
+        actionMatrix = records.getActionMatrix();
+    }
 
-                    //initialize uiActions
-                    switch (action){
-                        case 1:
-                            if (a1ActionTable.contains(row, col)){
-                                int c = a1ActionTable.get(row,col);
-                                c += 1;
-                                a1ActionTable.put(row, col, c);
-                            }else {
-                                a1ActionTable.put(row, col, 1);
-                            }
-                            if (action1ItemCount.containsKey(col)) {
-                                int count = action1ItemCount.get(col);
-                                count += 1;
-                                action1ItemCount.put(col, count);
-                            }else
-                                action1ItemCount.put(col, 1);
-                            break;
-                        case 2:
-                            if (a2ActionTable.contains(row, col)){
-                                int c = a2ActionTable.get(row,col);
-                                c += 1;
-                                a2ActionTable.put(row, col, c);
-                            }else {
-                                a2ActionTable.put(row, col, 1);
-                            }
-                            if (action2ItemCount.containsKey(col)) {
-                                int count = action2ItemCount.get(col);
-                                count += 1;
-                                action2ItemCount.put(col, count);
-                            }else
-                                action2ItemCount.put(col, 1);
-                            break;
-                        case 3:
-                            if (a3ActionTable.contains(row, col)){
-                                int c = a3ActionTable.get(row,col);
-                                c += 1;
-                                a3ActionTable.put(row, col, c);
-                            }else {
-                                a3ActionTable.put(row, col, 1);
-                            }
-
-                            if (action3ItemCount.containsKey(col)) {
-                                int count = action3ItemCount.get(col);
-                                count += 1;
-                                action3ItemCount.put(col, count);
-                            }else
-                                action3ItemCount.put(col, 1);
-                            break;
-                        case 4:
-                            if (a4ActionTable.contains(row, col)){
-                                int c = a4ActionTable.get(row,col);
-                                c += 1;
-                                a4ActionTable.put(row, col, c);
-                            }else {
-                                a4ActionTable.put(row, col, 1);
-                            }
-                            if (action4ItemCount.containsKey(col)) {
-                                int count = action4ItemCount.get(col);
-                                count += 1;
-                                action4ItemCount.put(col, count);
-                            }else
-                                action4ItemCount.put(col, 1);
-                            break;
-                        case 5:
-                            if (a5ActionTable.contains(row, col)){
-                                int c = a5ActionTable.get(row,col);
-                                c += 1;
-                                a5ActionTable.put(row, col, c);
-                            }else {
-                                a5ActionTable.put(row, col, 1);
-                            }
-                            if (action5ItemCount.containsKey(col)) {
-                                int count = action5ItemCount.get(col);
-                                count += 1;
-                                action5ItemCount.put(col, count);
-                            }else
-                                action5ItemCount.put(col, 1);
-                            break;
-                        case 6:
-                            if (a6ActionTable.contains(row, col)){
-                                int c = a6ActionTable.get(row,col);
-                                c += 1;
-                                a6ActionTable.put(row, col, c);
-                            }else {
-                                a6ActionTable.put(row, col, 1);
-                            }
-                            if (action6ItemCount.containsKey(col)) {
-                                int count = action6ItemCount.get(col);
-                                count += 1;
-                                action6ItemCount.put(col, count);
-                            }else
-                                action6ItemCount.put(col, 1);
-                            break;
-                        case 7:
-                            if (a7ActionTable.contains(row, col)){
-                                int c = a7ActionTable.get(row,col);
-                                c += 1;
-                                a7ActionTable.put(row, col, c);
-                            }else {
-                                a7ActionTable.put(row, col, 1);
-                            }
-                            if (action7ItemCount.containsKey(col)) {
-                                int count = action7ItemCount.get(col);
-                                count += 1;
-                                action7ItemCount.put(col, count);
-                            }else
-                                action7ItemCount.put(col, 1);
-                            break;
-                        case 8:
-                            if (a8ActionTable.contains(row, col)){
-                                int c = a8ActionTable.get(row,col);
-                                c += 1;
-                                a8ActionTable.put(row, col, c);
-                            }else {
-                                a8ActionTable.put(row, col, 1);
-                            }
-                            if (action8ItemCount.containsKey(col)) {
-                                int count = action8ItemCount.get(col);
-                                count += 1;
-                                action8ItemCount.put(col, count);
-                            }else
-                                action8ItemCount.put(col, 1);
-                            break;
-                        case 9:
-                            if (a9ActionTable.contains(row, col)){
-                                int c = a9ActionTable.get(row,col);
-                                c += 1;
-                                a9ActionTable.put(row, col, c);
-                            }else {
-                                a9ActionTable.put(row, col, 1);
-                            }
-                            if (action9ItemCount.containsKey(col)) {
-                                int count = action9ItemCount.get(col);
-                                count += 1;
-                                action9ItemCount.put(col, count);
-                            }else
-                                action9ItemCount.put(col, 1);
-                            break;
-                    }
+    /**
+     * Split the data files into byte ranges of whole lines, in reading order.
+     * A file is cut about every {@code allFileSize / numThreads} bytes, but
+     * not into ranges smaller than {@link #MIN_SPLIT_SIZE}.
+     *
+     * @param files       the data files
+     * @param allFileSize the size of all data files
+     * @return the byte ranges
+     * @throws IOException if a file can not be read
+     */
+    private List<FileRange> splitFiles(List<File> files, long allFileSize) throws IOException {
+        long splitSize = Math.max(MIN_SPLIT_SIZE, (allFileSize + numThreads - 1) / numThreads);
+        List<FileRange> ranges = new ArrayList<>();
+        for (File dataFile : files) {
+            try (FileInputStream fis = new FileInputStream(dataFile);
+                 FileChannel fileRead = fis.getChannel()) {
+                long fileSize = fileRead.size();
+                for (long start = 0, end; start < fileSize; start = end) {
+                    end = start + splitSize < fileSize ? nextLineStart(fileRead, start + splitSize) : fileSize;
+                    ranges.add(new FileRange(dataFile, start, end));
+                }
+            }
+        }
+        return ranges;
+    }
 
-                    // binarize the rating for item recommendation task
-                    if (binThold >= 0) {
-                        action = action > binThold ? 1 : 0;
-                    }
+    /**
+     * Find the start of the first line beginning at or after a position, i.e.
+     * the position following the first line separator at or after
+     * {@code position - 1}.
+     *
+     * @param fileRead the channel of the file
+     * @param position a position greater than 0
+     * @return the start of the line, or the file size if there is none
+     * @throws IOException if the file can not be read
+     */
+    private static long nextLineStart(FileChannel fileRead, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long fileSize = fileRead.size();
+        for (long offset = position - 1; offset < fileSize; ) {
+            buffer.clear();
+            int len = fileRead.read(buffer, offset);
+            if (len <= 0) {
+                break;
+            }
+            for (int idx = 0; idx < len; idx++) {
+                byte b = buffer.get(idx);
+                if (b == '\n' || b == '\r') {
+                    return offset + idx + 1;
+                }
+            }
+            offset += len;
+        }
+        return fileSize;
+    }
 
-                    //initialize preferenceMatrix
-                    if (dataTable.contains(row, col)){
-                        double tempAction = dataTable.get(row, col);
-                        if (tempAction != 1.0){
-                            dataTable.put(row, col, action);
-                            colMap.put(col, row);
-                        }
-                    }else {
-                        dataTable.put(row, col, action);
-                        colMap.put(col, row);
-                    }
+    /**
+     * Tokenize byte ranges concurrently, each into its own dictionaries and
+     * records, and merge the partial results in the order of the ranges. As
+     * the ids new to the global dictionaries are assigned in the order the
+     * local ones first appeared, the ids and records are the same as if the
+     * ranges were read one after another.
+     *
+     * @param ranges      the byte ranges in reading order
+     * @param allFileSize the size of all data files
+     * @param userDict    the global user dictionary
+     * @param itemDict    the global item dictionary
+     * @param records     the records to append to
+     * @param readAction  whether the third field is an action
+     * @param readTime    whether the fourth field is a timestamp
+     * @throws IOException if a file can not be read or a line is not valid
+     */
+    private void readRanges(List<FileRange> ranges, long allFileSize, ByteIdDictionary userDict,
+                            ByteIdDictionary itemDict, ActionRecords records, boolean readAction,
+                            boolean readTime) throws IOException {
+        LOG.info("Reading " + ranges.size() + " file ranges with " + numThreads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<ReadTask> tasks = new ArrayList<>();
+            List<Future<Void>> futures = new ArrayList<>();
+            for (FileRange range : ranges) {
+                ReadTask task = new ReadTask(range, readAction, readTime, timeUnit);
+                tasks.add(task);
+                futures.add(executor.submit(task));
+            }
 
-                    // record rating's issuing time
-                    if (StringUtils.equals(dataColumnFormat, "UIRT") && data.length >= 4) {
-                        if (timeTable == null) {
-                            timeTable = HashBasedTable.create();
-                        }
-                        // convert to million-seconds
-                        long mms = 0L;
-                        try {
-                            mms = Long.parseLong(data[3]); // cannot format
-                            // 9.7323480e+008
-                        } catch (NumberFormatException e) {
-                            mms = (long) Double.parseDouble(data[3]);
-                        }
-                        long timestamp = timeUnit.toMillis(mms);
-                        timeTable.put(row, col, timestamp);
-                    }
+            int numFiles = 0, readingFileCount = 0;
+            for (FileRange range : ranges) {
+                if (range.start == 0) {
+                    numFiles++;
                 }
-                if (!isComplete) {
-                    bufferLine = bufferData[bufferData.length - 1];
+            }
+            long loadAllFileByte = 0;
+            for (int idx = 0; idx < tasks.size(); idx++) {
+                futures.get(idx).get();
+                ReadTask task = tasks.get(idx);
+                int[] rowMap = userDict.addAll(task.userDict);
+                int[] columnMap = itemDict.addAll(task.itemDict);
+                records.addAll(task.records, rowMap, columnMap);
+                // release the partial result
+                tasks.set(idx, null);
+
+                FileRange range = task.range;
+                if (range.start == 0) {
+                    readingFileCount += 1;
+                    loadFilePathRate = readingFileCount / (float) numFiles;
                 }
-                buffer.clear();
+                loadDataFileRate = range.end / (float) range.file.length();
+                loadAllFileByte += range.end - range.start;
+                loadAllFileRate = loadAllFileByte / (float) allFileSize;
             }
-            fileRead.close();
-            fis.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the data files");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        int numRows = numUsers(), numCols = numItems();
+    /**
+     * A byte range of whole lines in a data file.
+     */
+    private static class FileRange {
+        private final File file;
+        private final long start, end;
+
+        private FileRange(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
 
-        // build rating matrix
-        preferenceMatrix = new SparseMatrix(numRows, numCols, dataTable, colMap);
-        if (timeTable != null)
-            datetimeMatrix = new SparseMatrix(numRows, numCols, timeTable, colMap);
-        // release memory of data table
-        dataTable = null;
-        timeTable = null;
+    /**
+     * Tokenize a byte range into local dictionaries and records.
+     */
+    private static class ReadTask implements Callable<Void> {
+        private final FileRange range;
+        private final ByteIdDictionary userDict = new ByteIdDictionary();
+        private final ByteIdDictionary itemDict = new ByteIdDictionary();
+        private final ActionRecords records = new ActionRecords();
+        private final ActionTokenizer tokenizer;
+
+        private ReadTask(FileRange range, boolean readAction, boolean readTime, TimeUnit timeUnit) {
+            this.range = range;
+            this.tokenizer = new ActionTokenizer(userDict, itemDict, records, readAction, readTime, timeUnit);
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try (FileInputStream fis = new FileInputStream(range.file);
+                 FileChannel fileRead = fis.getChannel()) {
+                for (long position = range.start; position < range.end; position += MSIZE) {
+                    long len = Math.min(MSIZE, range.end - position);
+                    tokenizer.feed(fileRead.map(FileChannel.MapMode.READ_ONLY, position, len));
+                }
+                tokenizer.finish();
+            }
+            return null;
+        }
     }
 
     /**
@@ -728,4 +850,35 @@ public class TextDataConvertor extends AbstractDataConvertor {
         this.timeUnit = timeUnit;
     }
 
+    /**
+     * Set the number of threads reading the data files. With more than one
+     * thread, the files, and byte ranges of large files, are read concurrently
+     * and the inner ids are the same as when reading with one thread.
+     *
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Set the action levels the converted data is read for, so that a
+     * snapshot taken for other levels is not loaded.
+     *
+     * @param actionLevels the action levels
+     */
+    public void setActionLevels(int[] actionLevels) {
+        this.actionLevels = actionLevels;
+    }
+
+    /**
+     * Set whether a snapshot keeps the preference matrix in a memory-mapped
+     * file, which is read without loading the matrix into the heap.
+     *
+     * @param mapped true to map the preference matrix of a snapshot
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
 }
@@ -17,11 +17,12 @@
  */
 package net.librec.data.model;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
 import net.librec.conf.Configured;
 import net.librec.data.*;
 import net.librec.data.splitter.KCVDataSplitter;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.util.DriverClassUtil;
@@ -30,6 +31,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -75,6 +77,21 @@ public abstract class AbstractDataModel extends Configured implements DataModel
 
     double[][] userAction;
     protected SparseMatrix trainMatrix;
+
+    /**
+     * the action level of purchases
+     */
+    protected static final int PURCHASE_LEVEL = 9;
+
+    /**
+     * default action levels, each of which is stored in one slot of {@link #actionMatrix}
+     */
+    protected static final int[] DEFAULT_ACTION_LEVELS = {1, 2, 3, 4, 7, 8, 9};
+
+    /**
+     * per-(user, item) action counts {@link net.librec.math.structure.ActionMatrix}
+     */
+    protected ActionMatrix actionMatrix;
     /**
      * Build Convert.
      *
@@ -109,6 +126,7 @@ public abstract class AbstractDataModel extends Configured implements DataModel
                 dataSplitter.splitData();
                 trainDataSet = dataSplitter.getTrainData();
                 testDataSet = dataSplitter.getTestData();
+                validDataSet = dataSplitter.getValidData();
             }
         } catch (ClassNotFoundException e) {
             throw new LibrecException(e);
@@ -133,6 +151,7 @@ public abstract class AbstractDataModel extends Configured implements DataModel
                 dataSplitter.splitData();
                 trainDataSet = dataSplitter.getTrainData();
                 testDataSet = dataSplitter.getTestData();
+                validDataSet = dataSplitter.getValidData();
 //                trainMatrix = (SparseMatrix)trainDataSet;
 
 //                int numUser = trainMatrix.numRows;
@@ -146,6 +165,53 @@ public abstract class AbstractDataModel extends Configured implements DataModel
         }
     }
 
+    /**
+     * Build the action counts of the configured action levels over the
+     * structure of the preference matrix, together with the per-item action
+     * totals. The counts of level 9 are taken from the splitter, so that test
+     * purchases are excluded.
+     */
+    protected void buildActionMatrix() {
+        int[] actionLevels = getActionLevels(conf);
+        ActionMatrix levelMatrix = dataConvertor.getActionMatrix();
+        if (levelMatrix != null) {
+            // the same structure, without loading a memory-mapped preference matrix
+            int numActions = actionLevels.length;
+            actionMatrix = new ActionMatrix(levelMatrix.numRows, levelMatrix.numColumns, levelMatrix.rowPtr,
+                    levelMatrix.colInd, numActions, new int[levelMatrix.colInd.length * numActions],
+                    new int[levelMatrix.numColumns * numActions]);
+        } else {
+            actionMatrix = new ActionMatrix(dataConvertor.getPreferenceMatrix(), actionLevels.length);
+        }
+        ActionMatrix purchaseMatrix = dataSplitter != null ? dataSplitter.getActionMatrix() : null;
+        for (int slot = 0; slot < actionLevels.length; slot++) {
+            int level = actionLevels[slot];
+            // the purchases of the split are in the only slot of its counts
+            ActionMatrix source = level == PURCHASE_LEVEL ? purchaseMatrix : levelMatrix;
+            int sourceSlot = level == PURCHASE_LEVEL ? 0 : level - 1;
+            if (source == null || level < 1 || sourceSlot >= source.numActions()) {
+                continue;
+            }
+            for (int index = 0, size = actionMatrix.size(); index < size; index++) {
+                actionMatrix.actionData[index * actionMatrix.numActions + slot] = source.actionData[index * source.numActions + sourceSlot];
+            }
+            for (int column = 0; column < actionMatrix.numColumns; column++) {
+                actionMatrix.setColumnCount(column, slot, source.getColumnCount(column, sourceSlot));
+            }
+        }
+    }
+
+    /**
+     * Get the action levels stored in the action counts of a data model, one per slot.
+     *
+     * @param conf the configuration of the data model
+     * @return the levels of {@code data.action.levels}, or the default levels if it is not set
+     */
+    public static int[] getActionLevels(Configuration conf) {
+        int[] actionLevels = conf.getInts("data.action.levels");
+        return actionLevels.length > 0 ? actionLevels : DEFAULT_ACTION_LEVELS;
+    }
+
     /**
      * Build appender data.
      * 
@@ -178,19 +244,39 @@ public abstract class AbstractDataModel extends Configured implements DataModel
     public void buildDataModel() throws LibrecException {
         context = new DataContext(conf);
         if (!conf.getBoolean("data.convert.read.ready")) {
-            if (conf.getBoolean("rec.recommender.isOriginal",true)){
-                buildConvert();
-            }else {
-                buildConverts();
+            File snapshotFile = getSnapshotFile();
+            if (snapshotFile != null && snapshotFile.exists() && loadSnapshot(snapshotFile)) {
+                LOG.info("Load data snapshot " + snapshotFile + " successfully!");
+            } else {
+                if (conf.getBoolean("rec.recommender.isOriginal",true)){
+                    buildConvert();
+                }else {
+                    buildConverts();
+                }
+                LOG.info("Transform data to Convertor successfully!");
+                if (snapshotFile != null) {
+                    saveSnapshot(snapshotFile);
+                    LOG.info("Save data snapshot " + snapshotFile + " successfully!");
+                }
             }
-            LOG.info("Transform data to Convertor successfully!");
 //            conf.setBoolean("data.convert.read.ready", true);
         }
+        buildDataSets();
+    }
 
+    /**
+     * Split the converted data into train and test set, and build the
+     * action counts and the appender data.
+     *
+     * @throws LibrecException
+     *             if error occurs when splitting.
+     */
+    protected void buildDataSets() throws LibrecException {
         if (conf.getBoolean("rec.recommender.isOriginal",true)) {
             buildSplitter();
         }else {
             buildSplitters();
+            buildActionMatrix();
         }
 
         LOG.info("Split data to train Set and test Set successfully!");
@@ -206,27 +292,72 @@ public abstract class AbstractDataModel extends Configured implements DataModel
     }
 
     /**
-     * Load data model.
+     * Load data model from the snapshot at {@code data.model.snapshot.path}
+     * instead of converting the input data, and split it.
      *
      * @throws LibrecException
      *             if error occurs during loading
      */
     @Override
     public void loadDataModel() throws LibrecException {
-        // TODO Auto-generated method stub
-
+        File snapshotFile = getSnapshotFile();
+        if (snapshotFile == null || !snapshotFile.exists()) {
+            throw new LibrecException("No data snapshot found at " + snapshotFile);
+        }
+        if (!loadSnapshot(snapshotFile)) {
+            throw new LibrecException("Data snapshot " + snapshotFile + " does not match the input data");
+        }
+        LOG.info("Load data snapshot " + snapshotFile + " successfully!");
+        context = new DataContext(conf);
+        buildDataSets();
     }
 
     /**
-     * Save data model.
+     * Save data model to the snapshot at {@code data.model.snapshot.path}.
      *
      * @throws LibrecException
      *             if error occurs during saving
      */
     @Override
     public void saveDataModel() throws LibrecException {
-        // TODO Auto-generated method stub
+        File snapshotFile = getSnapshotFile();
+        if (snapshotFile == null) {
+            throw new LibrecException("data.model.snapshot.path is not set");
+        }
+        saveSnapshot(snapshotFile);
+    }
 
+    /**
+     * Get the data snapshot file.
+     *
+     * @return the file at {@code data.model.snapshot.path}, or null if it is not set
+     */
+    protected File getSnapshotFile() {
+        String snapshotPath = conf.get("data.model.snapshot.path");
+        return StringUtils.isNotBlank(snapshotPath) ? new File(snapshotPath.trim()) : null;
+    }
+
+    /**
+     * Load the converted data from a snapshot.
+     *
+     * @param file the snapshot file
+     * @return true if the snapshot is loaded, false if it does not match the input data
+     * @throws LibrecException
+     *             if error occurs during loading
+     */
+    protected boolean loadSnapshot(File file) throws LibrecException {
+        return false;
+    }
+
+    /**
+     * Save the converted data to a snapshot.
+     *
+     * @param file the snapshot file
+     * @throws LibrecException
+     *             if error occurs during saving
+     */
+    protected void saveSnapshot(File file) throws LibrecException {
+        throw new LibrecException(getClass().getSimpleName() + " does not support data snapshots");
     }
 
     /**
@@ -288,6 +419,16 @@ public abstract class AbstractDataModel extends Configured implements DataModel
         return context;
     }
 
+    /**
+     * Get the per-(user, item) action counts.
+     *
+     * @return the action counts see {@link net.librec.math.structure.ActionMatrix}.
+     */
+    @Override
+    public ActionMatrix getActionMatrix() {
+        return actionMatrix;
+    }
+
 //    public void computeAction(int user, int action){
 //
 //        for (int userIdx = 0; userIdx < user; userIdx++){
@@ -18,7 +18,6 @@
 package net.librec.data.model;
 
 import com.google.common.collect.BiMap;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.conf.Configured;
@@ -35,7 +34,6 @@ import net.librec.util.ReflectionUtil;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A <tt>ArffDataModel</tt> represents a data access class
@@ -156,16 +154,6 @@ public class ArffDataModel extends AbstractDataModel implements DataModel {
         return new double[0][];
     }
 
-    @Override
-    public Table<Integer, Integer, Integer> getActionTable(int level) {
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getItemCount(int action) {
-        return null;
-    }
-
     @Override
     public DataSet getDatetimeDataSet() {
         return null;
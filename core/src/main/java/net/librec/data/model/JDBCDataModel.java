@@ -18,11 +18,9 @@
 package net.librec.data.model;
 
 import com.google.common.collect.BiMap;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DataSet;
 
-import java.util.Map;
 
 /**
  * JDBC Data Model
@@ -57,16 +55,6 @@ public class JDBCDataModel extends AbstractDataModel {
         return new double[0][];
     }
 
-    @Override
-    public Table<Integer, Integer, Integer> getActionTable(int level) {
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getItemCount(int action) {
-        return null;
-    }
-
     @Override
     public DataSet getDatetimeDataSet() {
         // TODO Auto-generated method stub
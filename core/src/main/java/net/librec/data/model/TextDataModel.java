@@ -17,12 +17,11 @@
  */
 package net.librec.data.model;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Map;
 
 import com.google.common.collect.BiMap;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.conf.Configured;
@@ -64,13 +63,7 @@ public class TextDataModel extends AbstractDataModel implements DataModel {
      */
     @Override
     public void buildConvert() throws LibrecException {
-//        String inputDataPath = conf.get(Configured.CONF_DFS_DATA_DIR) + "/" + conf.get(Configured.CONF_DATA_INPUT_PATH);
-        String[] inputDataPath = conf.get(Configured.CONF_DATA_INPUT_PATH).trim().split(" ");
-        for(int i = 0 ; i < inputDataPath.length; i ++){
-            inputDataPath[i]=conf.get(Configured.CONF_DFS_DATA_DIR)+"/"+inputDataPath[i];
-        }
-        String dataColumnFormat = conf.get(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
-        dataConvertor = new TextDataConvertor(dataColumnFormat, StringUtils.join(inputDataPath," "), conf.getDouble("data.convert.binarize.threshold", -1.0));
+        dataConvertor = createDataConvertor();
         try {
             dataConvertor.processData();
         } catch (IOException e) {
@@ -84,12 +77,7 @@ public class TextDataModel extends AbstractDataModel implements DataModel {
      */
     @Override
     protected void buildConverts() throws LibrecException {
-        String[] inputDataPath = conf.get(Configured.CONF_DATA_INPUT_PATH).trim().split(" ");
-        for(int i = 0 ; i < inputDataPath.length; i ++){
-            inputDataPath[i]=conf.get(Configured.CONF_DFS_DATA_DIR)+"/"+inputDataPath[i];
-        }
-        String dataColumnFormat = conf.get(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
-        dataConvertor = new TextDataConvertor(dataColumnFormat, StringUtils.join(inputDataPath," "), conf.getDouble("data.convert.binarize.threshold", -1.0));
+        dataConvertor = createDataConvertor();
         try {
             dataConvertor.processDatas();
         } catch (IOException e) {
@@ -98,21 +86,65 @@ public class TextDataModel extends AbstractDataModel implements DataModel {
     }
 
     /**
-     * Load data model.
+     * Create a convertor of the configured input data.
      *
+     * @return the convertor
      */
-    @Override
-    public void loadDataModel() {
-
+    private TextDataConvertor createDataConvertor() {
+//        String inputDataPath = conf.get(Configured.CONF_DFS_DATA_DIR) + "/" + conf.get(Configured.CONF_DATA_INPUT_PATH);
+        String[] inputDataPath = conf.get(Configured.CONF_DATA_INPUT_PATH).trim().split(" ");
+        for(int i = 0 ; i < inputDataPath.length; i ++){
+            inputDataPath[i]=conf.get(Configured.CONF_DFS_DATA_DIR)+"/"+inputDataPath[i];
+        }
+        String dataColumnFormat = conf.get(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+        TextDataConvertor convertor = new TextDataConvertor(dataColumnFormat, StringUtils.join(inputDataPath," "), conf.getDouble("data.convert.binarize.threshold", -1.0));
+        convertor.setNumThreads(conf.getInt("data.convert.thread.count", 1));
+        convertor.setActionLevels(getActionLevels(conf));
+        convertor.setMapped(conf.getBoolean("data.model.snapshot.mapped", false));
+        return convertor;
     }
 
     /**
-     * Save data model.
+     * Load the converted data from a snapshot of the configured input data.
      *
+     * @param file the snapshot file
+     * @return true if the snapshot is loaded, false if it was taken from other
+     *         input data or by the other reading mode
+     * @throws LibrecException
+     *             if error occurs during loading
      */
     @Override
-    public void saveDataModel() {
+    protected boolean loadSnapshot(File file) throws LibrecException {
+        TextDataConvertor convertor = createDataConvertor();
+        try {
+            if (!convertor.readSnapshot(file)) {
+                return false;
+            }
+        } catch (IOException e) {
+            throw new LibrecException(e);
+        }
+        // only the non-original reading mode counts actions
+        if (conf.getBoolean("rec.recommender.isOriginal", true) == (convertor.getActionMatrix() != null)) {
+            return false;
+        }
+        dataConvertor = convertor;
+        return true;
+    }
 
+    /**
+     * Save the converted data to a snapshot.
+     *
+     * @param file the snapshot file
+     * @throws LibrecException
+     *             if error occurs during saving
+     */
+    @Override
+    protected void saveSnapshot(File file) throws LibrecException {
+        try {
+            ((TextDataConvertor) dataConvertor).writeSnapshot(file);
+        } catch (IOException e) {
+            throw new LibrecException(e);
+        }
     }
 
     /**
@@ -135,40 +167,6 @@ public class TextDataModel extends AbstractDataModel implements DataModel {
         return ((TextDataConvertor) dataConvertor).getItemIds();
     }
 
-    @Override
-    public Table<Integer, Integer, Integer> getActionTable(int level) {
-        switch (level){
-            case 1:
-                return dataConvertor.getAction(1);
-            case 2:
-                return dataConvertor.getAction(2);
-            case 3:
-                return dataConvertor.getAction(3);
-            case 4:
-                return dataConvertor.getAction(4);
-            case 5:
-                return dataConvertor.getAction(5);
-            case 6:
-                return dataConvertor.getAction(6);
-            case 7:
-                return dataConvertor.getAction(7);
-            case 8:
-                return dataConvertor.getAction(8);
-            case 9:
-                return dataSplitter.getAction9Table();
-        }
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getItemCount(int action) {
-        if (action == 9){
-            return dataSplitter.getAction9Count();
-        }else {
-            return dataConvertor.getCount(action);
-        }
-    }
-
     @Override
     public double[][] getUserAction() {
         return userAction;
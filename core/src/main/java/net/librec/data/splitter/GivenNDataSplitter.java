@@ -17,11 +17,11 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.util.Lists;
 import net.librec.util.RatingContext;
@@ -29,7 +29,6 @@ import net.librec.util.RatingContext;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * GivenN Data Splitter<br>
@@ -109,12 +108,7 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
     }
 
     @Override
-    public Table<Integer, Integer, Integer> getAction9Table() {
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getAction9Count() {
+    public ActionMatrix getActionMatrix() {
         return null;
     }
 
@@ -17,20 +17,19 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.conf.Configured;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
 import net.librec.data.convertor.TextDataConvertor;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseVector;
 import net.librec.math.structure.TensorEntry;
 import net.librec.math.structure.VectorEntry;
 
 import java.io.IOException;
-import java.util.Map;
 
 /**
  * Given Test Set Data Splitter<br>
@@ -118,12 +117,7 @@ public class GivenTestSetDataSplitter extends AbstractDataSplitter {
     }
 
     @Override
-    public Table<Integer, Integer, Integer> getAction9Table() {
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getAction9Count() {
+    public ActionMatrix getActionMatrix() {
         return null;
     }
 }
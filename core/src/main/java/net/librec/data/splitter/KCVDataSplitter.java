@@ -17,11 +17,11 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseVector;
 import net.librec.util.Lists;
@@ -154,12 +154,7 @@ public class KCVDataSplitter extends AbstractDataSplitter {
     }
 
     @Override
-    public Table<Integer, Integer, Integer> getAction9Table() {
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getAction9Count() {
+    public ActionMatrix getActionMatrix() {
         return null;
     }
 
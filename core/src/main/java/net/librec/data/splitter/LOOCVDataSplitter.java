@@ -25,13 +25,13 @@ import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.util.RatingContext;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Leave one out Splitter<br>
@@ -116,12 +116,7 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
     }
 
     @Override
-    public Table<Integer, Integer, Integer> getAction9Table() {
-        return null;
-    }
-
-    @Override
-    public Map<Integer, Integer> getAction9Count() {
+    public ActionMatrix getActionMatrix() {
         return null;
     }
 
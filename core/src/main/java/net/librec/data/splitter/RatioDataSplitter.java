@@ -17,11 +17,12 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.ActionMatrix;
+import net.librec.math.structure.MappedSparseMatrix;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseVector;
@@ -30,8 +31,11 @@ import net.librec.util.RatingContext;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.*;
 
 /**
  * Ratio Data Splitter.<br>
@@ -44,11 +48,24 @@ public class RatioDataSplitter extends AbstractDataSplitter {
     /** The rate dataset for splitting */
     private SparseMatrix preferenceMatrix;
 
+    /** The memory-mapped rate dataset, read in place by the action split */
+    private MappedSparseMatrix mappedMatrix;
+
     /** The datetime dataset for splitting */
     private SparseMatrix datetimeMatrix;
 
-    private Table<Integer, Integer, Integer> action9Table;
-    private Map<Integer, Integer> action9Count;
+    /** The action slot of purchases (level 9) */
+    private static final int PURCHASE_SLOT = 8;
+
+    /** The purchase counts of the training set, in the only slot, built by the split */
+    private ActionMatrix actionMatrix;
+
+    /** The subsets an entry can be split into, entries of value 0 are in neither */
+    private static final byte TRAIN_SUBSET = 1, TEST_SUBSET = 2, VALID_SUBSET = 3;
+
+    /** The minimum number of rows split by one task */
+    private static final int SPLIT_BLOCK_SIZE = 1024;
+
     /**
      * Empty constructor.
      */
@@ -74,13 +91,15 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      *
      */
     @Override
-    public void splitData() {
-        this.preferenceMatrix = dataConvertor.getPreferenceMatrix();
+    public void splitData() throws LibrecException {
+        String splitter = conf.get("data.splitter.ratio");
+        this.mappedMatrix = dataConvertor.getMappedPreferenceMatrix();
+        // the split by action reads a mapped rate dataset in place, the others load it into the heap
+        this.preferenceMatrix = mappedMatrix != null && "action".equalsIgnoreCase(splitter) ? null
+                : dataConvertor.getPreferenceMatrix();
         this.datetimeMatrix = dataConvertor.getDatetimeMatrix();
-        action9Table = dataConvertor.getAction(9);
-        action9Count = dataConvertor.getCount(9);
+        this.actionMatrix = null;
 
-        String splitter = conf.get("data.splitter.ratio");
         switch (splitter.toLowerCase()) {
             case "rating": {
                 double ratio = Double.parseDouble(conf.get("data.splitter.trainset.ratio"));
@@ -125,57 +144,274 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             }
             case "action": {
                 double ratio = Double.parseDouble(conf.get("data.splitter.trainset.ratio"));
-                getRatioByAction(ratio);
+                getRatioByAction(ratio, conf.getDouble("data.splitter.validset.ratio", 0.0d));
                 break;
             }
         }
+        if (actionMatrix == null) {
+            // the other splits keep the purchase counts of all the data
+            if (preferenceMatrix == null) {
+                preferenceMatrix = dataConvertor.getPreferenceMatrix();
+            }
+            actionMatrix = copyPurchases(dataConvertor.getActionMatrix(), preferenceMatrix.numRows,
+                    preferenceMatrix.numColumns, preferenceMatrix.rowPtr, preferenceMatrix.colInd);
+        }
     }
 
-    @Override
-    public Table<Integer, Integer, Integer> getAction9Table() {
-        return action9Table;
+    /**
+     * Copy the purchase counts and totals of the convertor into a matrix of one
+     * slot over the structure of the preference matrix, so that the split never
+     * modifies the action counts of the convertor.
+     *
+     * @param levelMatrix the action counts of every level, or null
+     * @param numRows     the number of rows of the preference matrix
+     * @param numColumns  the number of columns of the preference matrix
+     * @param rowPtr      the row pointers of the preference matrix
+     * @param colInd      the column indices of the preference matrix
+     * @return the purchase counts, or null if there are no action counts
+     */
+    private ActionMatrix copyPurchases(ActionMatrix levelMatrix, int numRows, int numColumns, int[] rowPtr,
+                                       int[] colInd) {
+        if (levelMatrix == null) {
+            return null;
+        }
+        int numEntries = rowPtr[numRows];
+        int[] purchaseData = new int[colInd.length];
+        if (levelMatrix.rowPtr == rowPtr && levelMatrix.colInd == colInd) {
+            for (int index = 0; index < numEntries; index++) {
+                purchaseData[index] = levelMatrix.actionData[index * levelMatrix.numActions + PURCHASE_SLOT];
+            }
+        } else {
+            for (int userIdx = 0; userIdx < numRows; userIdx++) {
+                for (int index = rowPtr[userIdx]; index < rowPtr[userIdx + 1]; index++) {
+                    purchaseData[index] = levelMatrix.get(userIdx, colInd[index], PURCHASE_SLOT);
+                }
+            }
+        }
+        int[] purchaseTotals = new int[numColumns];
+        for (int itemIdx = 0; itemIdx < purchaseTotals.length; itemIdx++) {
+            purchaseTotals[itemIdx] = levelMatrix.getColumnCount(itemIdx, PURCHASE_SLOT);
+        }
+        return new ActionMatrix(numRows, numColumns, rowPtr, colInd, 1, purchaseData, purchaseTotals);
     }
 
     @Override
-    public Map<Integer, Integer> getAction9Count() {
-        return action9Count;
+    public ActionMatrix getActionMatrix() {
+        return actionMatrix;
+    }
+
+    /**
+     * Split the purchases into (ratio) training and (1-ratio) test subsets,
+     * see {@link #getRatioByAction(double, double)}.
+     *
+     * @param ratio the ratio of training purchases
+     * @throws LibrecException if the split is interrupted
+     */
+    public void getRatioByAction(double ratio) throws LibrecException {
+        getRatioByAction(ratio, 0.0d);
     }
 
     /**
      * author:zhouxin
-     * @param ratio
+     * Split the purchases (entries of value 1) into (ratio-validRatio) training,
+     * (validRatio) validation and (1-ratio) test subsets, the other non-zero
+     * entries are all training. The validation purchases are taken out of the
+     * training share, so that the test subset does not depend on validRatio. The purchase counts of the training
+     * set are built aside, see {@link #getActionMatrix()}: the counts of the
+     * validation and test entries are cleared and removed from the totals,
+     * while the action counts of the convertor are left untouched.
+     * <p>
+     * The random draws are made in CRS order, then the training and test CRS
+     * arrays are written directly by row blocks in parallel, without copying
+     * the whole preference matrix.
+     *
+     * @param ratio      the ratio of training purchases
+     * @param validRatio the ratio of validation purchases, 0 for no validation subset
+     * @throws LibrecException if validRatio is not in [0, ratio) or if the split is interrupted
      */
-    public void getRatioByAction(double ratio) {
+    public void getRatioByAction(double ratio, double validRatio) throws LibrecException {
+        if (validRatio < 0 || (validRatio > 0 && validRatio >= ratio)) {
+            throw new LibrecException("data.splitter.validset.ratio " + validRatio
+                    + " must be in [0, data.splitter.trainset.ratio " + ratio + ")");
+        }
         if (ratio > 0 && ratio < 1) {
+            ActionMatrix levelMatrix = dataConvertor.getActionMatrix();
+            int numRows, numColumns;
+            int[] rowPtr, colInd;
+            double[] rowData;
+            Set<Double> valueSet;
+            Iterator<MatrixEntry> entries;
+            if (preferenceMatrix == null) {
+                // the values are read from the mapped file in row order, the structure is the one
+                // the action counts already keep in the heap
+                numRows = mappedMatrix.numRows();
+                numColumns = mappedMatrix.numColumns();
+                rowPtr = levelMatrix != null ? levelMatrix.rowPtr : mappedMatrix.getRowPointers();
+                colInd = levelMatrix != null ? levelMatrix.colInd : mappedMatrix.getColumnIndices();
+                rowData = null;
+                valueSet = new TreeSet<>();
+                entries = mappedMatrix.iterator();
+            } else {
+                numRows = preferenceMatrix.numRows;
+                numColumns = preferenceMatrix.numColumns;
+                rowPtr = preferenceMatrix.rowPtr;
+                colInd = preferenceMatrix.colInd;
+                rowData = preferenceMatrix.rowData;
+                valueSet = preferenceMatrix.getValueSet();
+                entries = null;
+            }
 
-            testMatrix = new SparseMatrix(preferenceMatrix);
-            trainMatrix = new SparseMatrix(preferenceMatrix);
+            // the subset of every entry and the row sizes of both subsets
+            byte[] subsets = new byte[rowPtr[numRows]];
+            ActionMatrix purchaseMatrix = copyPurchases(levelMatrix, numRows, numColumns, rowPtr, colInd);
+            int[] trainRowPtr = new int[numRows + 1];
+            int[] testRowPtr = new int[numRows + 1];
+            int[] validRowPtr = new int[numRows + 1];
+            for (int userIdx = 0; userIdx < numRows; userIdx++) {
+                for (int index = rowPtr[userIdx]; index < rowPtr[userIdx + 1]; index++) {
+                    double action;
+                    if (entries == null) {
+                        action = rowData[index];
+                    } else {
+                        action = entries.next().get();
+                        if (action != 0.0) {
+                            valueSet.add(action);
+                        }
+                    }
+                    if (action == 1.0) {
+                        double rdm = Randoms.uniform();
 
-            for(MatrixEntry matrixEntry: preferenceMatrix){
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double action = matrixEntry.get();
+                        if (rdm < ratio - validRatio) {
+                            subsets[index] = TRAIN_SUBSET;
+                            trainRowPtr[userIdx + 1]++;
+                        } else {
+                            if (rdm < ratio) {
+                                subsets[index] = VALID_SUBSET;
+                                validRowPtr[userIdx + 1]++;
+                            } else {
+                                subsets[index] = TEST_SUBSET;
+                                testRowPtr[userIdx + 1]++;
+                            }
+                            if (purchaseMatrix != null) {
+                                int itemIdx = colInd[index];
+                                purchaseMatrix.actionData[index] = 0;
+                                int count = purchaseMatrix.getColumnCount(itemIdx, 0);
+                                if (count > 0) {
+                                    purchaseMatrix.setColumnCount(itemIdx, 0, count - 1);
+                                }
+                            }
+                        }
+                    } else if (action != 0.0) {
+                        subsets[index] = TRAIN_SUBSET;
+                        trainRowPtr[userIdx + 1]++;
+                    }
+                }
+            }
+            for (int userIdx = 0; userIdx < numRows; userIdx++) {
+                trainRowPtr[userIdx + 1] += trainRowPtr[userIdx];
+                testRowPtr[userIdx + 1] += testRowPtr[userIdx];
+                validRowPtr[userIdx + 1] += validRowPtr[userIdx];
+            }
 
-                if (action == 1.0) {
-                    double rdm = Randoms.uniform();
+            int[] trainColInd = new int[trainRowPtr[numRows]];
+            double[] trainRowData = new double[trainRowPtr[numRows]];
+            int[] testColInd = new int[testRowPtr[numRows]];
+            double[] testRowData = new double[testRowPtr[numRows]];
+            int[] validColInd = new int[validRowPtr[numRows]];
+            double[] validRowData = new double[validRowPtr[numRows]];
+
+            int numThreads = Math.max(1, conf.getInt("data.splitter.thread.count", Runtime.getRuntime().availableProcessors()));
+            int blockSize = Math.max(SPLIT_BLOCK_SIZE, (numRows + numThreads - 1) / numThreads);
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int fromRow = 0; fromRow < numRows; fromRow += blockSize) {
+                    futures.add(executor.submit(new SplitTask(fromRow, Math.min(numRows, fromRow + blockSize),
+                            rowPtr, colInd, rowData, subsets, trainRowPtr, trainColInd, trainRowData, testRowPtr, testColInd, testRowData,
+                            validRowPtr, validColInd, validRowData)));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LibrecException(e);
+            } catch (ExecutionException e) {
+                throw new LibrecException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
 
-                    if (rdm < ratio) {
-                        testMatrix.set(userIdx, itemIdx, 0.0);
-                    } else {
-                        trainMatrix.set(userIdx, itemIdx, 0.0);
-                        action9Table.remove(userIdx, itemIdx);
-                        if (action9Count.containsKey(itemIdx)) {
-                            int count = action9Count.get(itemIdx);
-                            count -= 1;
-                            action9Count.put(itemIdx, count);
-                        }
+            trainMatrix = new SparseMatrix(numRows, numColumns, trainRowPtr, trainColInd, trainRowData);
+            testMatrix = new SparseMatrix(numRows, numColumns, testRowPtr, testColInd, testRowData);
+            // keep the value scale of the whole data set
+            trainMatrix.getValueSet().addAll(valueSet);
+            testMatrix.getValueSet().addAll(valueSet);
+            validationMatrix = null;
+            if (validRowPtr[numRows] > 0) {
+                validationMatrix = new SparseMatrix(numRows, numColumns, validRowPtr, validColInd, validRowData);
+                validationMatrix.getValueSet().addAll(valueSet);
+            }
+            actionMatrix = purchaseMatrix;
+        }
+    }
+
+    /**
+     * Write the training, test and validation CRS arrays of a block of rows.
+     */
+    private class SplitTask implements Callable<Void> {
+        private final int fromRow, toRow;
+        private final int[] rowPtr, colInd;
+        private final double[] rowData;
+        private final byte[] subsets;
+        private final int[] trainRowPtr, trainColInd, testRowPtr, testColInd, validRowPtr, validColInd;
+        private final double[] trainRowData, testRowData, validRowData;
+
+        /**
+         * @param rowData the values of the preference matrix, or null to read them from the mapped one
+         */
+        private SplitTask(int fromRow, int toRow, int[] rowPtr, int[] colInd, double[] rowData, byte[] subsets,
+                          int[] trainRowPtr, int[] trainColInd, double[] trainRowData, int[] testRowPtr,
+                          int[] testColInd, double[] testRowData, int[] validRowPtr, int[] validColInd,
+                          double[] validRowData) {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowPtr = rowPtr;
+            this.colInd = colInd;
+            this.rowData = rowData;
+            this.subsets = subsets;
+            this.trainRowPtr = trainRowPtr;
+            this.trainColInd = trainColInd;
+            this.trainRowData = trainRowData;
+            this.testRowPtr = testRowPtr;
+            this.testColInd = testColInd;
+            this.testRowData = testRowData;
+            this.validRowPtr = validRowPtr;
+            this.validColInd = validColInd;
+            this.validRowData = validRowData;
+        }
+
+        @Override
+        public Void call() {
+            Iterator<MatrixEntry> entries = rowData == null ? mappedMatrix.iterator(fromRow, toRow) : null;
+            for (int userIdx = fromRow; userIdx < toRow; userIdx++) {
+                int trainCursor = trainRowPtr[userIdx], testCursor = testRowPtr[userIdx];
+                int validCursor = validRowPtr[userIdx];
+                for (int index = rowPtr[userIdx]; index < rowPtr[userIdx + 1]; index++) {
+                    double value = entries == null ? rowData[index] : entries.next().get();
+                    if (subsets[index] == TRAIN_SUBSET) {
+                        trainColInd[trainCursor] = colInd[index];
+                        trainRowData[trainCursor++] = value;
+                    } else if (subsets[index] == TEST_SUBSET) {
+                        testColInd[testCursor] = colInd[index];
+                        testRowData[testCursor++] = value;
+                    } else if (subsets[index] == VALID_SUBSET) {
+                        validColInd[validCursor] = colInd[index];
+                        validRowData[validCursor++] = value;
                     }
-                }else{
-                    testMatrix.set(userIdx, itemIdx, 0.0);
                 }
             }
-            SparseMatrix.reshape(testMatrix);
-            SparseMatrix.reshape(trainMatrix);
+            return null;
         }
     }
 
@@ -18,8 +18,8 @@
 package net.librec.eval;
 
 import net.librec.conf.Configuration;
+import net.librec.math.structure.KNNSimilarityMatrix;
 import net.librec.math.structure.SparseMatrix;
-import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedList;
 import net.librec.similarity.RecommenderSimilarity;
@@ -42,13 +42,17 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      */
     protected Configuration conf;
     /**
-     * default similarityMatrix
+     * nearest neighbours of the default similarity
      */
-    protected SymmMatrix similarityMatrix;
+    protected KNNSimilarityMatrix similarityMatrix;
     /**
      * all similarity maps
      */
     protected Map<String, RecommenderSimilarity> similarities;
+    /**
+     * side data of the evaluators
+     */
+    protected EvaluationContext evaluationContext;
 
     /**
      * Evaluate on the recommender context with the recommended list.
@@ -61,9 +65,10 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
     public double evaluate(RecommenderContext context, RecommendedList recommendedList) {
         SparseMatrix testMatrix = context.getDataModel().getDataSplitter().getTestData();
         conf = context.getConf();
+        evaluationContext = context.getEvaluationContext();
         String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
         if (similarityKeys != null && similarityKeys.length > 0) {
-            similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+            similarityMatrix = context.getSimilarity().toKNNSimilarityMatrix();
             similarities = context.getSimilarities();
         }
         return evaluate(testMatrix, recommendedList);
@@ -99,4 +104,13 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
         return conf;
     }
 
+    /**
+     * Return the side data of the evaluator.
+     *
+     * @return the side data of the evaluator
+     */
+    public EvaluationContext getEvaluationContext() {
+        return evaluationContext;
+    }
+
 }
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.SparseMatrix;
+
+/**
+ * The per-user and per-item side data of the evaluators, computed once from the
+ * training and test sets and shared by reference through
+ * {@link net.librec.recommender.RecommenderContext#getEvaluationContext()}.
+ * <p>
+ * The arrays are not copied, they must not be modified.
+ */
+public class EvaluationContext {
+
+    /**
+     * the number of items of every user that are not in its training set, for AUC
+     */
+    private final int[] numDroppedItems;
+
+    /**
+     * the maximum number of test items of a user, for the ideal DCG
+     */
+    private final int maxNumTestItems;
+
+    /**
+     * the number of users of every item in the training and test sets, for novelty
+     */
+    private final int[] itemPurchaseCounts;
+
+    /**
+     * the ranks of the test items among sampled negatives, set by the sampled protocol
+     */
+    private volatile SampledRanks sampledRanks;
+
+    /**
+     * the learned item factors of a matrix factorization, for the factor-based diversity
+     */
+    private volatile DenseMatrix itemFactors;
+
+    /**
+     * @param numDroppedItems    the number of items of every user that are not in its training set
+     * @param maxNumTestItems    the maximum number of test items of a user
+     * @param itemPurchaseCounts the number of users of every item in the training and test sets
+     */
+    public EvaluationContext(int[] numDroppedItems, int maxNumTestItems, int[] itemPurchaseCounts) {
+        this.numDroppedItems = numDroppedItems;
+        this.maxNumTestItems = maxNumTestItems;
+        this.itemPurchaseCounts = itemPurchaseCounts;
+    }
+
+    /**
+     * Compute the side data of the evaluators from a split of the data
+     *
+     * @param trainMatrix training set
+     * @param testMatrix  test set
+     * @return the evaluation context of the split
+     */
+    public static EvaluationContext valueOf(SparseMatrix trainMatrix, SparseMatrix testMatrix) {
+        int numUsers = trainMatrix.numRows();
+        int numItems = trainMatrix.numColumns();
+
+        int[] numDroppedItems = new int[numUsers];
+        int maxNumTestItems = 0;
+        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
+            numDroppedItems[userIdx] = numItems - trainMatrix.rowSize(userIdx);
+            if (userIdx < testMatrix.numRows()) {
+                maxNumTestItems = Math.max(maxNumTestItems, testMatrix.rowSize(userIdx));
+            }
+        }
+
+        int[] itemPurchaseCounts = new int[testMatrix.numColumns()];
+        for (int itemIdx = 0; itemIdx < itemPurchaseCounts.length; itemIdx++) {
+            if (itemIdx < numItems) {
+                itemPurchaseCounts[itemIdx] = trainMatrix.columnSize(itemIdx);
+            }
+            itemPurchaseCounts[itemIdx] += testMatrix.columnSize(itemIdx);
+        }
+        return new EvaluationContext(numDroppedItems, maxNumTestItems, itemPurchaseCounts);
+    }
+
+    /**
+     * @return the number of items of every user that are not in its training set
+     */
+    public int[] getNumDroppedItems() {
+        return numDroppedItems;
+    }
+
+    /**
+     * @return the maximum number of test items of a user
+     */
+    public int getMaxNumTestItems() {
+        return maxNumTestItems;
+    }
+
+    /**
+     * @return the number of users of every item in the training and test sets
+     */
+    public int[] getItemPurchaseCounts() {
+        return itemPurchaseCounts;
+    }
+
+    /**
+     * @return the ranks of the test items among sampled negatives, null if the items were fully ranked
+     */
+    public SampledRanks getSampledRanks() {
+        return sampledRanks;
+    }
+
+    /**
+     * @param sampledRanks the ranks of the test items among sampled negatives
+     */
+    public void setSampledRanks(SampledRanks sampledRanks) {
+        this.sampledRanks = sampledRanks;
+    }
+
+    /**
+     * @return the learned item factors, null if the recommender has none
+     */
+    public DenseMatrix getItemFactors() {
+        return itemFactors;
+    }
+
+    /**
+     * @param itemFactors the learned item factors, one row per item
+     */
+    public void setItemFactors(DenseMatrix itemFactors) {
+        this.itemFactors = itemFactors;
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.conf.Configuration;
+import net.librec.eval.Measure.MeasureValue;
+import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.RowColumnSets;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.ItemEntry;
+import net.librec.recommender.item.RecommendedList;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluate several ranking measures in a single sweep over the users.
+ * <p>
+ * The recommended list of every user is read once, and whether each of its top
+ * items is a test item is looked up once, then shared by all the measures. The
+ * users are swept in parallel: the value of every user is kept and the values
+ * are summed in user order afterwards, and the recommendation counts of the
+ * entropy are accumulated per thread, so that the results are the same as
+ * those of the evaluators of {@link net.librec.eval.ranking}.
+ * <p>
+ * Only the measures of {@link #isSupported(Measure)} can be fused, the other
+ * ones are left to their own evaluator.
+ */
+public class FusedRankingEvaluator {
+
+    /**
+     * the number of users below which the sweep runs in the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    private final List<MeasureValue> measureValues;
+
+    /**
+     * @param measureValues the measures to evaluate, all of them supported
+     */
+    public FusedRankingEvaluator(List<MeasureValue> measureValues) {
+        for (MeasureValue measureValue : measureValues) {
+            if (!isSupported(measureValue.getMeasure())) {
+                throw new IllegalArgumentException("measure " + measureValue.getMeasure() + " cannot be fused");
+            }
+        }
+        this.measureValues = new ArrayList<>(measureValues);
+    }
+
+    /**
+     * @param measure the measure
+     * @return whether the measure can be evaluated by the fused sweep
+     */
+    public static boolean isSupported(Measure measure) {
+        switch (measure) {
+            case AUC:
+            case AP:
+            case NDCG:
+            case PRECISION:
+            case RECALL:
+            case RR:
+            case Novelty:
+            case Entropy:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Evaluate all the measures on the recommender context with the recommended list.
+     *
+     * @param context         the recommender context
+     * @param recommendedList the list of recommended items
+     * @return the value of every measure
+     */
+    public Map<MeasureValue, Double> evaluate(RecommenderContext context, RecommendedList recommendedList) {
+        Configuration conf = context.getConf();
+        SparseMatrix testMatrix = context.getDataModel().getDataSplitter().getTestData();
+        int numUsers = testMatrix.numRows();
+        int numItems = testMatrix.numColumns();
+        int numMeasures = measureValues.size();
+
+        EvaluationContext evaluationContext = context.getEvaluationContext();
+        Sweep sweep = new Sweep(evaluationContext, testMatrix, recommendedList);
+        int numTasks = numUsers < PARALLEL_THRESHOLD ? 1
+                : Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+        List<Sweep.SweepTask> tasks = new ArrayList<>();
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            tasks.add(sweep.new SweepTask((int) ((long) numUsers * taskIdx / numTasks),
+                    (int) ((long) numUsers * (taskIdx + 1) / numTasks)));
+        }
+        if (numTasks == 1) {
+            tasks.get(0).call();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(numTasks);
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        RowColumnSets testSets = testMatrix.getColumnSets();
+        Map<MeasureValue, Double> evaluatedMap = new HashMap<>();
+        for (int measureIdx = 0; measureIdx < numMeasures; measureIdx++) {
+            MeasureValue measureValue = measureValues.get(measureIdx);
+            double evaluatedValue;
+            switch (measureValue.getMeasure()) {
+                case Novelty:
+                    evaluatedValue = getNovelty(evaluationContext.getItemPurchaseCounts(), numUsers, sweep, sweep.topNs[measureIdx]);
+                    break;
+                case Entropy:
+                    int[] itemCounts = new int[numItems];
+                    for (Sweep.SweepTask task : tasks) {
+                        int[] taskCounts = task.itemCounts[measureIdx];
+                        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                            itemCounts[itemIdx] += taskCounts[itemIdx];
+                        }
+                    }
+                    evaluatedValue = getEntropy(itemCounts, numUsers);
+                    break;
+                default:
+                    double total = 0.0d;
+                    int nonZeroNumUsers = 0;
+                    double[] values = sweep.userValues[measureIdx];
+                    for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                        if (testSets.size(userIdx) > 0) {
+                            total += values[userIdx];
+                            nonZeroNumUsers++;
+                        }
+                    }
+                    evaluatedValue = nonZeroNumUsers > 0 ? total / nonZeroNumUsers : 0.0d;
+            }
+            evaluatedMap.put(measureValue, evaluatedValue);
+        }
+        return evaluatedMap;
+    }
+
+    /**
+     * the novelty of the top items, from the purchase counts of the training and test sets
+     */
+    private static double getNovelty(int[] itemCounts, int numUsers, Sweep sweep, int topN) {
+        int numItems = itemCounts.length;
+        double[] selfInformation = new double[numItems];
+        boolean[] purchased = new boolean[numItems];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            int count = itemCounts[itemIdx];
+            if (count > 0) {
+                double estmProbability = ((double) count) / numUsers;
+                selfInformation[itemIdx] = -Math.log(estmProbability);
+                purchased[itemIdx] = true;
+            }
+        }
+
+        double sumInformation = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int topK = Math.min(topN, sweep.listSizes[userIdx]);
+            int offset = userIdx * sweep.maxTopN;
+            for (int recoIdx = 0; recoIdx < topK; recoIdx++) {
+                int itemIdx = sweep.items[offset + recoIdx];
+                if (purchased[itemIdx]) {
+                    sumInformation += selfInformation[itemIdx];
+                }
+            }
+        }
+        return sumInformation / (numUsers * Math.log(2));
+    }
+
+    /**
+     * the entropy of the recommendation counts of the items
+     */
+    private static double getEntropy(int[] itemCounts, int numUsers) {
+        double sumEntropy = 0;
+        for (int count : itemCounts) {
+            if (count > 0) {
+                double estmProbability = ((double) count) / numUsers;
+                sumEntropy += estmProbability * (-Math.log(estmProbability));
+            }
+        }
+        return sumEntropy / Math.log(2);
+    }
+
+    /**
+     * the state of one sweep, shared by its tasks which write disjoint users
+     */
+    private class Sweep {
+        private final RowColumnSets testSets;
+        private final RecommendedList recommendedList;
+        private final int numItems;
+
+        // topN of every measure, and their maximum
+        private final int[] topNs;
+        private final int maxTopN;
+
+        // the top maxTopN items of every user, and the size of its whole list
+        private final int[] items;
+        private final int[] listSizes;
+
+        // the value of every user, for the measures averaged over the test users
+        private final double[][] userValues;
+
+        // the ideal DCG of every number of hits, for the NDCG measures
+        private final double[][] idcgs;
+
+        // the number of candidate items of every user, for the AUC measures
+        private final int[] numDroppedItemsArray;
+
+        Sweep(EvaluationContext evaluationContext, SparseMatrix testMatrix, RecommendedList recommendedList) {
+            this.testSets = testMatrix.getColumnSets();
+            this.recommendedList = recommendedList;
+            this.numItems = testMatrix.numColumns();
+            int numUsers = testMatrix.numRows();
+            int numMeasures = measureValues.size();
+
+            this.topNs = new int[numMeasures];
+            this.userValues = new double[numMeasures][];
+            this.idcgs = new double[numMeasures][];
+            int maxN = 0;
+            boolean hasAUC = false;
+            for (int measureIdx = 0; measureIdx < numMeasures; measureIdx++) {
+                MeasureValue measureValue = measureValues.get(measureIdx);
+                Integer topN = measureValue.getTopN();
+                topNs[measureIdx] = topN != null && topN > 0 ? topN : 0;
+                maxN = Math.max(maxN, topNs[measureIdx]);
+
+                Measure measure = measureValue.getMeasure();
+                if (measure != Measure.Novelty && measure != Measure.Entropy) {
+                    userValues[measureIdx] = new double[numUsers];
+                }
+                if (measure == Measure.AUC) {
+                    hasAUC = true;
+                } else if (measure == Measure.NDCG) {
+                    int idcgsSize = Math.min(evaluationContext.getMaxNumTestItems(), topNs[measureIdx]);
+                    double[] idcg = new double[idcgsSize + 1];
+                    for (int index = 0; index < idcgsSize; index++) {
+                        idcg[index + 1] = 1.0d / Maths.log(index + 2, 2) + idcg[index];
+                    }
+                    idcgs[measureIdx] = idcg;
+                }
+            }
+            this.maxTopN = maxN;
+            this.items = new int[numUsers * maxTopN];
+            this.listSizes = new int[numUsers];
+            this.numDroppedItemsArray = hasAUC ? evaluationContext.getNumDroppedItems() : null;
+        }
+
+        /**
+         * sweep the users of [fromUser, toUser)
+         */
+        private class SweepTask implements Callable<Void> {
+            private final int fromUser, toUser;
+
+            // the recommendation counts of the items, for the entropy measures
+            private final int[][] itemCounts;
+
+            // whether each top item of the current user is a test item
+            private final boolean[] hits;
+
+            SweepTask(int fromUser, int toUser) {
+                this.fromUser = fromUser;
+                this.toUser = toUser;
+                this.itemCounts = new int[measureValues.size()][];
+                for (int measureIdx = 0; measureIdx < itemCounts.length; measureIdx++) {
+                    if (measureValues.get(measureIdx).getMeasure() == Measure.Entropy) {
+                        itemCounts[measureIdx] = new int[numItems];
+                    }
+                }
+                this.hits = new boolean[maxTopN];
+            }
+
+            @Override
+            public Void call() {
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userIdx);
+                    int listSize = recommendListByUser.size();
+                    int size = Math.min(maxTopN, listSize);
+                    int offset = userIdx * maxTopN;
+                    int testSize = testSets.size(userIdx);
+                    for (int indexOfItem = 0; indexOfItem < size; indexOfItem++) {
+                        int itemIdx = recommendListByUser.get(indexOfItem).getKey();
+                        items[offset + indexOfItem] = itemIdx;
+                        hits[indexOfItem] = testSize > 0 && testSets.contains(userIdx, itemIdx);
+                    }
+                    listSizes[userIdx] = listSize;
+
+                    for (int measureIdx = 0; measureIdx < itemCounts.length; measureIdx++) {
+                        int topN = topNs[measureIdx];
+                        int topK = Math.min(topN, listSize);
+                        Measure measure = measureValues.get(measureIdx).getMeasure();
+                        if (measure == Measure.Entropy) {
+                            for (int recoIdx = 0; recoIdx < topK; recoIdx++) {
+                                itemCounts[measureIdx][items[offset + recoIdx]]++;
+                            }
+                        } else if (testSize > 0 && measure != Measure.Novelty) {
+                            userValues[measureIdx][userIdx] = getUserValue(measureIdx, measure, userIdx,
+                                    topN, topK, testSize, listSize);
+                        }
+                    }
+                }
+                return null;
+            }
+
+            /**
+             * the value of a measure for a user with test items
+             */
+            private double getUserValue(int measureIdx, Measure measure, int userIdx, int topN, int topK,
+                                        int testSize, int listSize) {
+                int numHits = 0;
+                switch (measure) {
+                    case PRECISION:
+                        for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
+                            if (hits[indexOfItem]) {
+                                numHits++;
+                            }
+                        }
+                        return numHits / (topN + 0.0);
+                    case RECALL:
+                        for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
+                            if (hits[indexOfItem]) {
+                                numHits++;
+                            }
+                        }
+                        return numHits / (testSize + 0.0);
+                    case AP:
+                        double tempPrecision = 0.0d;
+                        for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
+                            if (hits[indexOfItem]) {
+                                numHits++;
+                                tempPrecision += 1.0 * numHits / (indexOfItem + 1);
+                            }
+                        }
+                        return tempPrecision / (testSize < topK ? testSize : topK);
+                    case NDCG:
+                        double dcg = 0.0;
+                        for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
+                            if (hits[indexOfItem]) {
+                                int rank = indexOfItem + 1;
+                                dcg += 1 / Maths.log(rank + 1, 2);
+                            }
+                        }
+                        return dcg / idcgs[measureIdx][testSize < topK ? testSize : topK];
+                    case RR:
+                        for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
+                            if (hits[indexOfItem]) {
+                                return 1.0d / (indexOfItem + 1.0d);
+                            }
+                        }
+                        return 0.0d;
+                    case AUC:
+                        return getAUC(userIdx, topK, testSize, listSize);
+                    default:
+                        throw new IllegalStateException("measure " + measure + " cannot be fused");
+                }
+            }
+
+            /**
+             * the AUC of a user, whose pairs are counted in the iteration order of the
+             * recommended set as {@link net.librec.eval.ranking.AUCEvaluator} does
+             */
+            private double getAUC(int userIdx, int topK, int testSize, int listSize) {
+                int numDroppedItems = numDroppedItemsArray[userIdx] - listSize;
+                int offset = userIdx * maxTopN;
+                Set<Integer> recommendSetByUser = new HashSet<>();
+                for (int indexOfItem = 0; indexOfItem < topK; ++indexOfItem) {
+                    recommendSetByUser.add(items[offset + indexOfItem]);
+                }
+
+                int numRelevantItems = 0;
+                for (Integer itemIdx : recommendSetByUser) {
+                    if (testSets.contains(userIdx, itemIdx)) {
+                        numRelevantItems++;
+                    }
+                }
+                int numMissItems = testSize - numRelevantItems;
+
+                int numEvaluatingItems = recommendSetByUser.size() + numDroppedItems;
+                int numEvaluatingPairs = (numEvaluatingItems - numRelevantItems) * numRelevantItems;
+                if (numEvaluatingPairs < 0) {
+                    throw new IndexOutOfBoundsException("numEvaluatingPairs cannot be less than 0.");
+                }
+                if (numEvaluatingPairs == 0) {
+                    return 0.5;
+                }
+
+                int numCorrectPairs = 0;
+                int numRankedHits = 0;
+                for (Integer itemIdx : recommendSetByUser) {
+                    if (!testSets.contains(userIdx, itemIdx)) {
+                        numCorrectPairs += numRankedHits;
+                    } else {
+                        numRankedHits++;
+                    }
+                }
+                numCorrectPairs += numRankedHits * (numDroppedItems - numMissItems);
+                return (numCorrectPairs + 0.0) / numEvaluatingPairs;
+            }
+        }
+    }
+}
@@ -45,7 +45,10 @@ public enum Measure {
     RMSE(RMSEEvaluator.class),
     MSE(MSEEvaluator.class),
     MAE(MAEEvaluator.class),
-    MPE(MPEEvaluator.class);
+    MPE(MPEEvaluator.class),
+    SampledHR(SampledHitRateEvaluator.class),
+    SampledNDCG(SampledNDCGEvaluator.class),
+    SampledAUC(SampledAUCEvaluator.class);
 
     private Class<? extends RecommenderEvaluator> evaluatorClass;
 
@@ -61,6 +64,20 @@ public enum Measure {
         }
     }
 
+    /**
+     * Get the enum list of the sampled negatives protocol.
+     *
+     * @param topN the number of items in the recommended list
+     * @return sampled enum list
+     */
+    public static List<MeasureValue> getSampledEnumList(int topN) {
+        List<MeasureValue> sampledEnumList = new ArrayList<>(3);
+        sampledEnumList.add(new MeasureValue(SampledHR, topN));
+        sampledEnumList.add(new MeasureValue(SampledNDCG, topN));
+        sampledEnumList.add(new MeasureValue(SampledAUC, topN));
+        return sampledEnumList;
+    }
+
     /**
      * Get ranking default enum list.
      *
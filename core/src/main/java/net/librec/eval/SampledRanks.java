@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.common.LibrecException;
+import net.librec.math.structure.RowColumnSets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * The ranks of the test items among sampled negative items, the fast evaluation
+ * protocol in which every test item of a user is scored against a fixed number of
+ * items drawn at random from the items the user has neither trained on nor tested,
+ * instead of against all the items.
+ * <p>
+ * The test items of user u are the columns of the test set, in increasing order,
+ * at positions [userPtr[u], userPtr[u + 1]). For every test item, the number of its
+ * sampled negatives scored higher and scored as high are kept; a test item scored
+ * NaN is ranked below all its negatives, a negative scored NaN below the test item.
+ * The negatives of a user are drawn from a generator seeded by the seed and the
+ * user, so that the ranks do not depend on the number of threads. They are drawn
+ * from all the items and rejected when they are not candidates, so that only the
+ * drawn items are tested; the candidates of a user are listed by a scan of all the
+ * items only when they may be too few for the draws to be accepted often enough.
+ * <p>
+ * The ranks are read by the sampled evaluators of {@link net.librec.eval.ranking}
+ * through {@link EvaluationContext#getSampledRanks()}.
+ */
+public class SampledRanks {
+
+    /**
+     * The scores of a recommender, read concurrently for distinct users
+     */
+    public interface Scorer {
+
+        /**
+         * @param userIdx user index
+         * @param itemIdx item index
+         * @return whether the item may be drawn as a negative of the user, i.e. is not a training item
+         */
+        boolean isCandidate(int userIdx, int itemIdx);
+
+        /**
+         * @param userIdx user index
+         * @return the number of training items of the user, at least the number of items that are not candidates
+         */
+        int numTrained(int userIdx);
+
+        /**
+         * @param userIdx user index
+         * @param itemIdx item index
+         * @return the ranking score of the item for the user
+         * @throws LibrecException if error occurs during predicting
+         */
+        double score(int userIdx, int itemIdx) throws LibrecException;
+    }
+
+    /**
+     * the number of negatives drawn for every test item
+     */
+    private final int numNegatives;
+
+    // test items of user u are [userPtr[u], userPtr[u + 1])
+    private final int[] userPtr;
+
+    // for every test item, the number of negatives sampled, scored higher and scored as high
+    private final int[] numSampled, numHigher, numTied;
+
+    private SampledRanks(int numNegatives, int[] userPtr) {
+        this.numNegatives = numNegatives;
+        this.userPtr = userPtr;
+        int size = userPtr[userPtr.length - 1];
+        this.numSampled = new int[size];
+        this.numHigher = new int[size];
+        this.numTied = new int[size];
+    }
+
+    /**
+     * Rank every test item among its sampled negatives, in parallel over blocks of users
+     *
+     * @param testSets     the test items of every user
+     * @param numItems     the number of items
+     * @param numNegatives the number of negatives drawn for every test item
+     * @param seed         the seed of the draws
+     * @param numThreads   the number of threads
+     * @param scorer       the scores of the recommender
+     * @return the ranks of the test items
+     * @throws LibrecException if error occurs during predicting
+     */
+    public static SampledRanks build(RowColumnSets testSets, int numItems, int numNegatives, long seed,
+                                     int numThreads, Scorer scorer) throws LibrecException {
+        int numUsers = testSets.numRows();
+        int[] userPtr = new int[numUsers + 1];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            userPtr[userIdx + 1] = userPtr[userIdx] + testSets.size(userIdx);
+        }
+        SampledRanks ranks = new SampledRanks(numNegatives, userPtr);
+
+        int numTasks = Math.max(1, Math.min(numThreads, numUsers));
+        List<RankTask> tasks = new ArrayList<>();
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            tasks.add(ranks.new RankTask(testSets, numItems, seed, scorer,
+                    (int) ((long) numUsers * taskIdx / numTasks), (int) ((long) numUsers * (taskIdx + 1) / numTasks)));
+        }
+        if (numTasks == 1) {
+            tasks.get(0).call();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(numTasks);
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LibrecException(e);
+            } catch (ExecutionException e) {
+                throw new LibrecException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * @return the number of negatives drawn for every test item
+     */
+    public int getNumNegatives() {
+        return numNegatives;
+    }
+
+    /**
+     * @return the number of users
+     */
+    public int numUsers() {
+        return userPtr.length - 1;
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the position of the first test item of the user
+     */
+    public int start(int userIdx) {
+        return userPtr[userIdx];
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the position after the last test item of the user
+     */
+    public int end(int userIdx) {
+        return userPtr[userIdx + 1];
+    }
+
+    /**
+     * @param pos position of a test item
+     * @return the number of its negatives, less than the number drawn if the user has not as many candidates
+     */
+    public int getNumSampled(int pos) {
+        return numSampled[pos];
+    }
+
+    /**
+     * @param pos position of a test item
+     * @return the number of its negatives scored higher
+     */
+    public int getNumHigher(int pos) {
+        return numHigher[pos];
+    }
+
+    /**
+     * @param pos position of a test item
+     * @return the number of its negatives scored as high
+     */
+    public int getNumTied(int pos) {
+        return numTied[pos];
+    }
+
+    /**
+     * @param pos position of a test item
+     * @return the rank of the test item from 0, below all the negatives scored as high
+     */
+    public int getRank(int pos) {
+        return numHigher[pos] + numTied[pos];
+    }
+
+    /**
+     * rank the test items of the users of [fromUser, toUser)
+     */
+    private class RankTask implements Callable<Void> {
+        private final RowColumnSets testSets;
+        private final int numItems;
+        private final long seed;
+        private final Scorer scorer;
+        private final int fromUser, toUser;
+
+        // the candidate negatives of the current user, shuffled in part for every test item
+        private final int[] candidates;
+
+        // the items drawn for the current test item are marked with its stamp
+        private final int[] drawn;
+        private int stamp;
+
+        RankTask(RowColumnSets testSets, int numItems, long seed, Scorer scorer, int fromUser, int toUser) {
+            this.testSets = testSets;
+            this.numItems = numItems;
+            this.seed = seed;
+            this.scorer = scorer;
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            this.candidates = new int[numItems];
+            this.drawn = new int[numItems];
+        }
+
+        @Override
+        public Void call() throws LibrecException {
+            for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                if (userPtr[userIdx] == userPtr[userIdx + 1]) {
+                    continue;
+                }
+                // at least half of the items are candidates, a draw is accepted at least half the time
+                int minCandidates = numItems - testSets.size(userIdx) - scorer.numTrained(userIdx);
+                boolean rejection = minCandidates >= 2L * numNegatives;
+                int numCandidates = 0;
+                if (!rejection) {
+                    for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                        if (!testSets.contains(userIdx, itemIdx) && scorer.isCandidate(userIdx, itemIdx)) {
+                            candidates[numCandidates++] = itemIdx;
+                        }
+                    }
+                }
+                int size = rejection ? numNegatives : Math.min(numNegatives, numCandidates);
+                Random random = new Random(seed + 0x9E3779B97F4A7C15L * (userIdx + 1));
+
+                for (int pos = userPtr[userIdx]; pos < userPtr[userIdx + 1]; pos++) {
+                    double positiveScore = scorer.score(userIdx, testSets.get(userIdx, pos - userPtr[userIdx]));
+                    int higher = 0, tied = 0;
+                    nextStamp();
+                    for (int idx = 0; idx < size; idx++) {
+                        int itemIdx;
+                        if (rejection) {
+                            itemIdx = draw(userIdx, random);
+                        } else {
+                            // partial Fisher-Yates shuffle, the drawn negative is moved to idx
+                            int swapIdx = idx + random.nextInt(numCandidates - idx);
+                            itemIdx = candidates[swapIdx];
+                            candidates[swapIdx] = candidates[idx];
+                            candidates[idx] = itemIdx;
+                        }
+
+                        double score = scorer.score(userIdx, itemIdx);
+                        if (Double.isNaN(positiveScore) || score > positiveScore) {
+                            higher++;
+                        } else if (score == positiveScore) {
+                            tied++;
+                        }
+                    }
+                    numSampled[pos] = size;
+                    numHigher[pos] = higher;
+                    numTied[pos] = tied;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * draw a candidate negative of a user not drawn yet for the current test item
+         */
+        private int draw(int userIdx, Random random) {
+            while (true) {
+                int itemIdx = random.nextInt(numItems);
+                if (drawn[itemIdx] != stamp) {
+                    drawn[itemIdx] = stamp;
+                    if (!testSets.contains(userIdx, itemIdx) && scorer.isCandidate(userIdx, itemIdx)) {
+                        return itemIdx;
+                    }
+                }
+            }
+        }
+
+        /**
+         * start the draws of a new test item
+         */
+        private void nextStamp() {
+            if (++stamp == 0) {
+                Arrays.fill(drawn, 0);
+                stamp = 1;
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
@@ -47,11 +48,11 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
 
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
-        int[] numDroppedItemsArray = getConf().getInts("rec.eval.auc.dropped.num");
+        int[] numDroppedItemsArray = getEvaluationContext().getNumDroppedItems();
 
+        RowColumnSets testSets = testMatrix.getColumnSets();
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userIdx);
-            if (testSetByUser.size() > 0) {
+            if (testSets.size(userIdx) > 0) {
                 nonZeroNumUsers++;
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userIdx);
                 int numDroppedItems = numDroppedItemsArray[userIdx] - recommendListByUser.size();
@@ -62,7 +63,8 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
                 }
 
                 int numRelevantItems = 0, numMissItems = 0;
-                for (Integer testItemIdx : testSetByUser) {
+                for (int testIdx = 0; testIdx < testSets.size(userIdx); testIdx++) {
+                    int testItemIdx = testSets.get(userIdx, testIdx);
                     if (recommendSetByUser.contains(testItemIdx)) {
                         numRelevantItems++;
                     } else {
@@ -85,7 +87,7 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
                 int numCorrectPairs = 0;
                 int hits = 0;
                 for (Integer itemIdx : recommendSetByUser) {
-                    if (!testSetByUser.contains(itemIdx)) {
+                    if (!testSets.contains(userIdx, itemIdx)) {
                         numCorrectPairs += hits;
                     } else {
                         hits ++;
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.eval.SampledRanks;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.item.RecommendedList;
+
+/**
+ * Base of the evaluators of the sampled negatives protocol, see {@link SampledRanks}.
+ * The value of a user is the mean value of its test items, and the values of the
+ * users with test items are averaged.
+ */
+public abstract class AbstractSampledEvaluator extends AbstractRecommenderEvaluator {
+
+    /**
+     * Evaluate on the test set with the ranks of the test items among their sampled negatives.
+     *
+     * @param testMatrix
+     *            the given test set
+     * @param recommendedList
+     *            the list of recommended items, not read
+     * @return evaluate result
+     */
+    public double evaluate(SparseMatrix testMatrix, RecommendedList recommendedList) {
+        SampledRanks sampledRanks = getEvaluationContext() != null ? getEvaluationContext().getSampledRanks() : null;
+        if (sampledRanks == null) {
+            throw new IllegalStateException("No sampled ranks to evaluate, set rec.eval.sampled.negatives to a positive number!");
+        }
+
+        double total = 0.0d;
+        int nonZeroNumUsers = 0;
+        for (int userIdx = 0; userIdx < sampledRanks.numUsers(); userIdx++) {
+            int start = sampledRanks.start(userIdx), end = sampledRanks.end(userIdx);
+            if (end > start) {
+                double userValue = 0.0d;
+                for (int pos = start; pos < end; pos++) {
+                    userValue += evaluate(sampledRanks, pos);
+                }
+                total += userValue / (end - start);
+                nonZeroNumUsers++;
+            }
+        }
+        return nonZeroNumUsers > 0 ? total / nonZeroNumUsers : 0.0d;
+    }
+
+    /**
+     * Evaluate one test item.
+     *
+     * @param sampledRanks the ranks of the test items
+     * @param pos          the position of the test item
+     * @return the value of the test item
+     */
+    protected abstract double evaluate(SampledRanks sampledRanks, int pos);
+}
@@ -18,12 +18,12 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * AveragePrecisionEvaluator, calculate the MAP@n
@@ -45,9 +45,9 @@ public class AveragePrecisionEvaluator extends AbstractRecommenderEvaluator {
         double totalPrecision = 0.0;
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        RowColumnSets testSets = testMatrix.getColumnSets();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userID);
-            if (testSetByUser.size() > 0) {
+            if (testSets.size(userID) > 0) {
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
 
                 int numHits = 0;
@@ -55,12 +55,12 @@ public class AveragePrecisionEvaluator extends AbstractRecommenderEvaluator {
                 double tempPrecision = 0.0d;
                 for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
                     int itemID = recommendListByUser.get(indexOfItem).getKey();
-                    if (testSetByUser.contains(itemID)) {
+                    if (testSets.contains(userID, itemID)) {
                         numHits++;
                         tempPrecision += 1.0 * numHits / (indexOfItem + 1);
                     }
                 }
-                totalPrecision += tempPrecision / (testSetByUser.size() < topK ? testSetByUser.size(): topK); //$$ap@n = \sum_{k=1}^n P(k) / min(m, n)$$ advised by WuBin
+                totalPrecision += tempPrecision / (testSets.size(userID) < topK ? testSets.size(userID): topK); //$$ap@n = \sum_{k=1}^n P(k) / min(m, n)$$ advised by WuBin
                 nonZeroNumUsers++;
             }
         }
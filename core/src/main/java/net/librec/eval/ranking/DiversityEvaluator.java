@@ -18,8 +18,8 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.KNNSimilarityMatrix;
 import net.librec.math.structure.SparseMatrix;
-import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
@@ -50,7 +50,7 @@ public class DiversityEvaluator extends AbstractRecommenderEvaluator {
         int nonZeroNumUsers = 0;
 
         if (similarities.containsKey("item")) {
-            SymmMatrix itemSimilarity = similarities.get("item").getSimilarityMatrix();
+            KNNSimilarityMatrix itemSimilarity = similarities.get("item").toKNNSimilarityMatrix();
             for (int userID = 0; userID < numUsers; userID++) {
                 List<ItemEntry<Integer, Double>> recommendArrayListByUser = recommendedList.getItemIdxListByUserIdx(userID);
                 if (recommendArrayListByUser.size() > 1) {
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.KNNSimilarityMatrix;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.item.ItemEntry;
+import net.librec.recommender.item.RecommendedList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * IntraListDiversityEvaluator, average dissimilarity (1 - similarity) of the
+ * distinct pairs of items in the recommended list at a specific cutoff position,
+ * averaged over the users with at least two recommended items.
+ * <p>
+ * The similarity of two items is read from the nearest neighbours of the item
+ * similarity when one is configured in rec.recommender.similarities, otherwise it
+ * is the cosine of the learned item factors of a matrix factorization, computed on
+ * the fly with the norms of the factors cached, so that no item-item similarity has
+ * to be built. Without either, the evaluation fails. The users are evaluated in
+ * parallel over blocks of users.
+ * Reference: Avoiding monotony: improving the diversity of recommendation lists, ReSys, 2008
+ */
+public class IntraListDiversityEvaluator extends AbstractRecommenderEvaluator {
+
+    /**
+     * the number of users below which the evaluation runs in the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * Evaluate on the test set with the the list of recommended items.
+     *
+     * @param testMatrix
+     *            the given test set
+     * @param recommendedList
+     *            the list of recommended items
+     * @return evaluate result
+     */
+    public double evaluate(SparseMatrix testMatrix, RecommendedList recommendedList) {
+        KNNSimilarityMatrix itemSimilarity = null;
+        DenseMatrix itemFactors = null;
+        if (similarities != null && similarities.containsKey("item")) {
+            itemSimilarity = similarities.get("item").toKNNSimilarityMatrix();
+        } else if (evaluationContext != null) {
+            itemFactors = evaluationContext.getItemFactors();
+        }
+        if (itemSimilarity == null && itemFactors == null) {
+            throw new IllegalStateException("No item similarity or item factors to evaluate, set rec.recommender.similarities to item or use a matrix factorization recommender!");
+        }
+
+        double[] norms = null;
+        if (itemFactors != null) {
+            norms = new double[itemFactors.numRows()];
+            for (int itemIdx = 0; itemIdx < norms.length; itemIdx++) {
+                double[] factors = itemFactors.data[itemIdx];
+                double sum = 0.0d;
+                for (double factor : factors) {
+                    sum += factor * factor;
+                }
+                norms[itemIdx] = Math.sqrt(sum);
+            }
+        }
+
+        int numUsers = testMatrix.numRows();
+        double[] values = new double[numUsers];
+        int numTasks = numUsers < PARALLEL_THRESHOLD ? 1
+                : Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+        List<DiversityTask> tasks = new ArrayList<>();
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            tasks.add(new DiversityTask(recommendedList, itemSimilarity, itemFactors, norms, values,
+                    (int) ((long) numUsers * taskIdx / numTasks), (int) ((long) numUsers * (taskIdx + 1) / numTasks)));
+        }
+        if (numTasks == 1) {
+            tasks.get(0).call();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(numTasks);
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        // summed in user order, the value does not depend on the number of threads
+        double totalDiversity = 0.0d;
+        int nonZeroNumUsers = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            if (!Double.isNaN(values[userIdx])) {
+                totalDiversity += values[userIdx];
+                nonZeroNumUsers++;
+            }
+        }
+        return nonZeroNumUsers > 0 ? totalDiversity / nonZeroNumUsers : 0.0d;
+    }
+
+    /**
+     * evaluate the users of [fromUser, toUser), NaN for the users with less than two items
+     */
+    private class DiversityTask implements Callable<Void> {
+        private final RecommendedList recommendedList;
+        private final KNNSimilarityMatrix itemSimilarity;
+        private final DenseMatrix itemFactors;
+        private final double[] norms;
+        private final double[] values;
+        private final int fromUser, toUser;
+
+        // the items of the current user
+        private final int[] items;
+
+        DiversityTask(RecommendedList recommendedList, KNNSimilarityMatrix itemSimilarity, DenseMatrix itemFactors,
+                      double[] norms, double[] values, int fromUser, int toUser) {
+            this.recommendedList = recommendedList;
+            this.itemSimilarity = itemSimilarity;
+            this.itemFactors = itemFactors;
+            this.norms = norms;
+            this.values = values;
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            this.items = new int[Math.max(0, topN)];
+        }
+
+        @Override
+        public Void call() {
+            for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userIdx);
+                int topK = Math.min(topN, recommendListByUser.size());
+                if (topK < 2) {
+                    values[userIdx] = Double.NaN;
+                    continue;
+                }
+                for (int pos = 0; pos < topK; pos++) {
+                    items[pos] = recommendListByUser.get(pos).getKey();
+                }
+                double totalDisSimilarity = 0.0d;
+                for (int i = 0; i < topK; i++) {
+                    for (int j = i + 1; j < topK; j++) {
+                        totalDisSimilarity += 1.0d - similarity(items[i], items[j]);
+                    }
+                }
+                values[userIdx] = totalDisSimilarity * 2 / (topK * (topK - 1));
+            }
+            return null;
+        }
+
+        /**
+         * the similarity of two items, the cosine of their factors if there are factors
+         */
+        private double similarity(int item1, int item2) {
+            if (itemFactors == null) {
+                return itemSimilarity.get(item1, item2);
+            }
+            double norm = norms[item1] * norms[item2];
+            if (norm == 0.0d) {
+                return 0.0d;
+            }
+            double[] factors1 = itemFactors.data[item1];
+            double[] factors2 = itemFactors.data[item2];
+            double product = 0.0d;
+            for (int factorIdx = 0; factorIdx < factors1.length; factorIdx++) {
+                product += factors1[factorIdx] * factors2[factorIdx];
+            }
+            return product / norm;
+        }
+    }
+}
@@ -19,13 +19,13 @@ package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
 import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 /**
  * NormalizedDCGEvaluator @topN
@@ -46,7 +46,7 @@ public class NormalizedDCGEvaluator extends AbstractRecommenderEvaluator {
     public double evaluate(SparseMatrix testMatrix, RecommendedList recommendedList) {
 
         double nDCG = 0.0;
-        int maxNumTestItemsByUser = conf.getInt("rec.eval.item.test.maxnum", testMatrix.numColumns());
+        int maxNumTestItemsByUser = getEvaluationContext().getMaxNumTestItems();
         int idcgsSize = Math.min(maxNumTestItemsByUser, topN);
         List<Double> idcgs = new ArrayList<>(idcgsSize + 1);
         idcgs.add(0.0d);
@@ -55,9 +55,9 @@ public class NormalizedDCGEvaluator extends AbstractRecommenderEvaluator {
         }
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        RowColumnSets testSets = testMatrix.getColumnSets();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userID);
-            if (testSetByUser.size() > 0) {
+            if (testSets.size(userID) > 0) {
 
                 double dcg = 0.0;
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
@@ -66,7 +66,7 @@ public class NormalizedDCGEvaluator extends AbstractRecommenderEvaluator {
                 int topK = this.topN <= recommendListByUser.size() ? this.topN : recommendListByUser.size();
                 for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
                     int itemID = recommendListByUser.get(indexOfItem).getKey();
-                    if (!testSetByUser.contains(itemID)) {
+                    if (!testSets.contains(userID, itemID)) {
                         continue;
                     }
 
@@ -74,7 +74,7 @@ public class NormalizedDCGEvaluator extends AbstractRecommenderEvaluator {
                     dcg += 1 / Maths.log(rank + 1, 2);
                 }
 
-                nDCG += dcg / idcgs.get(testSetByUser.size() < topK ? testSetByUser.size(): topK);
+                nDCG += dcg / idcgs.get(testSets.size(userID) < topK ? testSets.size(userID): topK);
                 nonZeroNumUsers++;
             }
         }
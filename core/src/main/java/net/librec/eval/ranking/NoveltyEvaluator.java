@@ -21,7 +21,6 @@ import java.util.List;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
 import net.librec.math.structure.SparseMatrix;
-import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
@@ -51,8 +50,6 @@ import net.librec.recommender.item.RecommendedList;
  */
 public class NoveltyEvaluator extends AbstractRecommenderEvaluator {
 
-    private SparseMatrix trainMatrix;
-
 	/**
      * Evaluate on the test set with the the list of recommended items.
      *
@@ -66,10 +63,10 @@ public class NoveltyEvaluator extends AbstractRecommenderEvaluator {
 	public double evaluate(SparseMatrix testMatrix, RecommendedList recommendedList) {
 
         int numUsers = testMatrix.numRows();
-        int numItems = testMatrix.numColumns();
 
 		// First collect item counts needed for estimating probabilities of the items
-        int[] itemCounts = calculatePurchaseCounts(testMatrix, numItems);
+        // Here we use the purchase counts of the train and test-Dataset !!!
+        int[] itemCounts = getEvaluationContext().getItemPurchaseCounts();
 
         double sumInformation = 0;
         for (int userID = 0; userID < numUsers; userID++) {
@@ -88,22 +85,4 @@ public class NoveltyEvaluator extends AbstractRecommenderEvaluator {
 
         return sumInformation/(numUsers * Math.log(2));
     }
-
-	private int[] calculatePurchaseCounts(SparseMatrix testMatrix, int numItems) {
-		
-        // Here we use the purchase counts of the train and test-Dataset !!!
-        int itemCounts[] = new int[numItems];
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            itemCounts[itemIdx] = trainMatrix.getRows(itemIdx).size() + testMatrix.getRows(itemIdx).size();
-        }
-		return itemCounts;
-	}
-
-	@Override
-	public double evaluate(RecommenderContext context, RecommendedList recommendedList) {
-		this.trainMatrix = context.getDataModel().getDataSplitter().getTrainData();
-		return super.evaluate(context, recommendedList);
-	}
-	
-	
 }
@@ -18,12 +18,12 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * RecallEvaluator, calculate recall@n
@@ -45,21 +45,21 @@ public class RecallEvaluator extends AbstractRecommenderEvaluator {
         double totalRecall = 0.0;
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        RowColumnSets testSets = testMatrix.getColumnSets();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userID);
-            if (testSetByUser.size() > 0) {
+            if (testSets.size(userID) > 0) {
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
 
                 int numHits = 0;
                 int topK = this.topN <= recommendListByUser.size() ? this.topN : recommendListByUser.size();
                 for (int i = 0; i < topK; i++) {
                     int itemID = recommendListByUser.get(i).getKey();
-                    if (testSetByUser.contains(itemID)) {
+                    if (testSets.contains(userID, itemID)) {
                         numHits++;
                     }
                 }
 
-                totalRecall +=  numHits / (testSetByUser.size() + 0.0);
+                totalRecall +=  numHits / (testSets.size(userID) + 0.0);
                 nonZeroNumUsers++;
             }
         }
@@ -18,12 +18,12 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * ReciprocalRankEvaluator
@@ -46,15 +46,15 @@ public class ReciprocalRankEvaluator extends AbstractRecommenderEvaluator {
 
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        RowColumnSets testSets = testMatrix.getColumnSets();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testListByUser = testMatrix.getColumnsSet(userID);
-            if (testListByUser.size() > 0) {
+            if (testSets.size(userID) > 0) {
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
 
                 int topK = this.topN <= recommendListByUser.size() ? this.topN : recommendListByUser.size();
                 for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
                     int itemID = recommendListByUser.get(indexOfItem).getKey();
-                    if (testListByUser.contains(itemID)) {
+                    if (testSets.contains(userID, itemID)) {
                         reciprocalRank += 1.0d / (indexOfItem + 1.0d);
                         break;
                     }
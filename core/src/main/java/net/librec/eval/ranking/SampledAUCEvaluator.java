@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import net.librec.eval.SampledRanks;
+
+/**
+ * SampledAUCEvaluator, calculate the AUC of the sampled negatives protocol: the
+ * fraction of the sampled negatives scored below a test item, ties counting half
+ */
+public class SampledAUCEvaluator extends AbstractSampledEvaluator {
+
+    @Override
+    protected double evaluate(SampledRanks sampledRanks, int pos) {
+        int numSampled = sampledRanks.getNumSampled(pos);
+        if (numSampled == 0) {
+            return 0.5d;
+        }
+        int numLower = numSampled - sampledRanks.getNumHigher(pos) - sampledRanks.getNumTied(pos);
+        return (numLower + 0.5d * sampledRanks.getNumTied(pos)) / numSampled;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import net.librec.eval.SampledRanks;
+import net.librec.math.algorithm.Maths;
+
+/**
+ * SampledNDCGEvaluator, calculate NDCG@n of the sampled negatives protocol:
+ * {@code 1 / log2(rank + 2)} if a test item is ranked in the top n among its sampled
+ * negatives, as a single relevant item has an ideal DCG of 1
+ */
+public class SampledNDCGEvaluator extends AbstractSampledEvaluator {
+
+    @Override
+    protected double evaluate(SampledRanks sampledRanks, int pos) {
+        int rank = sampledRanks.getRank(pos);
+        return rank < topN ? 1.0d / Maths.log(rank + 2, 2) : 0.0d;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.algorithm;
+
+import java.util.Random;
+
+/**
+ * Walker's alias method, built with Vose's algorithm: draws an index in
+ * [0, n) with probability proportional to its weight in O(1), after an O(n)
+ * construction.
+ * <p>
+ * Vose, <strong>A Linear Algorithm for Generating Random Numbers with a Given
+ * Distribution</strong>, IEEE Transactions on Software Engineering, 1991.
+ */
+public class AliasTable {
+
+    // probability of keeping the drawn column instead of its alias
+    private final double[] prob;
+
+    // the other index of each column
+    private final int[] alias;
+
+    /**
+     * Construct an alias table of non-negative weights
+     *
+     * @param weights the weight of every index, at least one of them positive
+     * @throws IllegalArgumentException if a weight is negative or not finite, or all weights are 0
+     */
+    public AliasTable(double[] weights) {
+        int size = weights.length;
+        double sum = 0.0d;
+        for (double weight : weights) {
+            if (!(weight >= 0.0d) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Invalid weight " + weight + " of an alias table");
+            }
+            sum += weight;
+        }
+        if (!(sum > 0.0d)) {
+            throw new IllegalArgumentException("An alias table needs a positive weight");
+        }
+
+        prob = new double[size];
+        alias = new int[size];
+
+        // indices whose scaled weight is below and above the average
+        int[] small = new int[size], large = new int[size];
+        int numSmall = 0, numLarge = 0;
+        double scale = size / sum;
+        for (int idx = 0; idx < size; idx++) {
+            prob[idx] = weights[idx] * scale;
+            if (prob[idx] < 1.0d) {
+                small[numSmall++] = idx;
+            } else {
+                large[numLarge++] = idx;
+            }
+        }
+
+        // fill every small column up to 1 with the mass of a large one
+        while (numSmall > 0 && numLarge > 0) {
+            int less = small[--numSmall], more = large[--numLarge];
+            alias[less] = more;
+            prob[more] = (prob[more] + prob[less]) - 1.0d;
+            if (prob[more] < 1.0d) {
+                small[numSmall++] = more;
+            } else {
+                large[numLarge++] = more;
+            }
+        }
+
+        // the rest are full up to rounding
+        while (numLarge > 0) {
+            prob[large[--numLarge]] = 1.0d;
+        }
+        while (numSmall > 0) {
+            prob[small[--numSmall]] = 1.0d;
+        }
+    }
+
+    /**
+     * @return the number of indices
+     */
+    public int size() {
+        return prob.length;
+    }
+
+    /**
+     * Draw an index with probability proportional to its weight
+     *
+     * @param random the random generator
+     * @return an index in [0, size())
+     */
+    public int sample(Random random) {
+        int column = random.nextInt(prob.length);
+        return random.nextDouble() < prob[column] ? column : alias[column];
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * A reusable workspace solving the symmetric positive definite systems
+ * {@code A x = b} of least squares, e.g. the per-user and per-item systems
+ * of alternating least squares.
+ * <p>
+ * A system is accumulated in place, starting from a base matrix and adding
+ * scaled outer products and vectors, then solved by a Cholesky decomposition
+ * of the same storage. Only the lower triangle of {@code A} is kept. A
+ * solver is not thread-safe, every thread needs its own.
+ */
+public class CholeskySolver {
+
+    private final int dim;
+
+    // lower triangle of A, row-major dim * dim, overwritten by its Cholesky factor
+    private final double[] matrix;
+
+    // b, overwritten by the solution
+    private final double[] vector;
+
+    /**
+     * @param dim the dimension of the systems
+     */
+    public CholeskySolver(int dim) {
+        this.dim = dim;
+        this.matrix = new double[dim * dim];
+        this.vector = new double[dim];
+    }
+
+    /**
+     * Start a new system from {@code A = base, b = 0}
+     *
+     * @param base row-major dim * dim symmetric matrix, only its lower triangle is read
+     */
+    public void reset(double[] base) {
+        System.arraycopy(base, 0, matrix, 0, dim * dim);
+        Arrays.fill(vector, 0.0d);
+    }
+
+    /**
+     * {@code A += scale * x * x^T}
+     *
+     * @param x     vector of dim length
+     * @param scale scale of the outer product
+     */
+    public void addOuter(double[] x, double scale) {
+        for (int row = 0; row < dim; row++) {
+            double value = scale * x[row];
+            int offset = row * dim;
+            for (int col = 0; col <= row; col++) {
+                matrix[offset + col] += value * x[col];
+            }
+        }
+    }
+
+    /**
+     * {@code b += scale * x}
+     *
+     * @param x     vector of dim length
+     * @param scale scale of the vector
+     */
+    public void addVector(double[] x, double scale) {
+        for (int idx = 0; idx < dim; idx++) {
+            vector[idx] += scale * x[idx];
+        }
+    }
+
+    /**
+     * Solve the accumulated system, which is consumed
+     *
+     * @param result buffer of dim length receiving x
+     * @return false if A is not positive definite, result is then left unchanged
+     */
+    public boolean solve(double[] result) {
+        // A = L * L^T
+        for (int row = 0; row < dim; row++) {
+            int rowOffset = row * dim;
+            for (int col = 0; col <= row; col++) {
+                int colOffset = col * dim;
+                double sum = matrix[rowOffset + col];
+                for (int k = 0; k < col; k++) {
+                    sum -= matrix[rowOffset + k] * matrix[colOffset + k];
+                }
+                if (row == col) {
+                    if (!(sum > 0.0d)) {
+                        return false;
+                    }
+                    matrix[rowOffset + row] = Math.sqrt(sum);
+                } else {
+                    matrix[rowOffset + col] = sum / matrix[colOffset + col];
+                }
+            }
+        }
+
+        // L * y = b
+        for (int row = 0; row < dim; row++) {
+            int rowOffset = row * dim;
+            double sum = vector[row];
+            for (int k = 0; k < row; k++) {
+                sum -= matrix[rowOffset + k] * vector[k];
+            }
+            vector[row] = sum / matrix[rowOffset + row];
+        }
+
+        // L^T * x = y
+        for (int row = dim - 1; row >= 0; row--) {
+            double sum = vector[row];
+            for (int k = row + 1; k < dim; k++) {
+                sum -= matrix[k * dim + row] * vector[k];
+            }
+            vector[row] = sum / matrix[row * dim + row];
+        }
+
+        System.arraycopy(vector, 0, result, 0, dim);
+        return true;
+    }
+}
@@ -160,6 +160,29 @@ public class Maths {
         return norm(expx);
     }
 
+    /**
+     * softmax function into a given buffer, without allocating
+     *
+     * @param x      given array
+     * @param result output buffer of the same length, may be x itself
+     * @return the output buffer
+     */
+    public static double[] softmax(double[] x, double[] result) {
+        double max = x[0];
+        for (int i = 1; i < x.length; i++)
+            max = Math.max(x[i], max);
+
+        double sm = 0;
+        for (int i = 0; i < x.length; i++) {
+            result[i] = Math.exp(x[i] - max);
+            sm += result[i];
+        }
+        for (int i = 0; i < x.length; i++) {
+            result[i] /= sm;
+        }
+        return result;
+    }
+
     public static double[] norm(double[] x) {
         double sm = sum(x);
         double[] result = new double[x.length];
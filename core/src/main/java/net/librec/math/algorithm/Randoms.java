@@ -46,6 +46,15 @@ public class Randoms {
         r = new Random(seed);
     }
 
+    /**
+     * Get the generator behind the static methods, the one seeded by {@link #seed(long)}
+     *
+     * @return the random generator
+     */
+    public static Random getRandom() {
+        return r;
+    }
+
     /**
      * Random generate an integer in [min, max)
      *
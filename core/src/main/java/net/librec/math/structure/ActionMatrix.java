@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Data Structure: per-(row, column) action counts stored in Compressed Row Storage (CRS).
+ * <p>
+ * The row pointers and column indices are shared with the {@link SparseMatrix} the store
+ * is built on, and the {@code numActions} counts of every non-zero entry are packed
+ * contiguously in {@link #actionData}, i.e. the counts of the entry at CRS position
+ * {@code index} live in {@code actionData[index * numActions, (index + 1) * numActions)}.
+ * <p>
+ * Per-column action totals are kept in the item-major block {@link #columnData}, whose
+ * counts of column {@code col} live in {@code columnData[col * numActions, (col + 1) * numActions)}.
+ */
+public class ActionMatrix implements Serializable {
+
+    private static final long serialVersionUID = -3381409236105215484L;
+
+    // matrix dimension
+    public int numRows, numColumns;
+
+    // the number of action counts stored per entry
+    public int numActions;
+
+    // Compressed Row Storage (CRS), shared with the structure matrix
+    public int[] rowPtr, colInd;
+
+    // packed action counts, numActions per non-zero entry
+    public int[] actionData;
+
+    // packed action totals, numActions per column
+    public int[] columnData;
+
+    /**
+     * Construct an empty action matrix with the CRS structure of a sparse matrix
+     *
+     * @param structure  the sparse matrix whose non-zero structure is shared
+     * @param numActions the number of action counts per entry
+     */
+    public ActionMatrix(SparseMatrix structure, int numActions) {
+        this.numRows = structure.numRows;
+        this.numColumns = structure.numColumns;
+        this.numActions = numActions;
+        this.rowPtr = structure.rowPtr;
+        this.colInd = structure.colInd;
+        this.actionData = new int[colInd.length * numActions];
+        this.columnData = new int[numColumns * numActions];
+    }
+
+    /**
+     * Construct an action matrix with the CRS structure of a sparse matrix and packed counts
+     *
+     * @param structure  the sparse matrix whose non-zero structure is shared
+     * @param numActions the number of action counts per entry
+     * @param actionData packed action counts, numActions per non-zero entry
+     * @param columnData packed action totals, numActions per column
+     */
+    public ActionMatrix(SparseMatrix structure, int numActions, int[] actionData, int[] columnData) {
+        this(structure.numRows, structure.numColumns, structure.rowPtr, structure.colInd, numActions,
+                actionData, columnData);
+    }
+
+    /**
+     * Construct an action matrix over the given Compressed Row Storage structure
+     *
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     * @param rowPtr     row pointers of the structure, shared
+     * @param colInd     column indices of the structure, shared
+     * @param numActions the number of action counts per entry
+     * @param actionData packed action counts, numActions per entry
+     * @param columnData packed action totals, numActions per column
+     */
+    public ActionMatrix(int numRows, int numColumns, int[] rowPtr, int[] colInd, int numActions,
+                        int[] actionData, int[] columnData) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.numActions = numActions;
+        this.rowPtr = rowPtr;
+        this.colInd = colInd;
+        this.actionData = actionData;
+        this.columnData = columnData;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int numColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @return number of action counts per entry
+     */
+    public int numActions() {
+        return numActions;
+    }
+
+    /**
+     * @return the number of entries in the structure
+     */
+    public int size() {
+        return colInd.length;
+    }
+
+    /**
+     * Find the CRS position of entry [row, column]
+     *
+     * @param row    row id
+     * @param column column id
+     * @return the CRS position, or -1 if the entry is not in the structure
+     */
+    public int getIndex(int row, int column) {
+        if (row >= numRows) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(colInd, rowPtr[row], rowPtr[row + 1], column);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Retrieve the count of an action at entry [row, column]
+     *
+     * @param row    row id
+     * @param column column id
+     * @param action action slot
+     * @return the count, 0 if the entry is not in the structure
+     */
+    public int get(int row, int column, int action) {
+        int index = getIndex(row, column);
+        return index >= 0 ? actionData[index * numActions + action] : 0;
+    }
+
+    /**
+     * Set the count of an action at entry [row, column]
+     *
+     * @param row    row id
+     * @param column column id
+     * @param action action slot
+     * @param count  count to set
+     */
+    public void set(int row, int column, int action, int count) {
+        actionData[getCRSIndex(row, column) * numActions + action] = count;
+    }
+
+    /**
+     * Add to the count of an action at entry [row, column]
+     *
+     * @param row    row id
+     * @param column column id
+     * @param action action slot
+     * @param count  count to add
+     */
+    public void add(int row, int column, int action, int count) {
+        actionData[getCRSIndex(row, column) * numActions + action] += count;
+    }
+
+    /**
+     * Copy the action counts of entry [row, column] into the given buffer
+     *
+     * @param row     row id
+     * @param column  column id
+     * @param actions buffer of at least {@code numActions} length
+     * @return true if the entry is in the structure; otherwise the buffer is zero-filled and false is returned
+     */
+    public boolean getActions(int row, int column, int[] actions) {
+        int index = getIndex(row, column);
+        if (index < 0) {
+            Arrays.fill(actions, 0, numActions, 0);
+            return false;
+        }
+        System.arraycopy(actionData, index * numActions, actions, 0, numActions);
+        return true;
+    }
+
+    /**
+     * Weighted sum of the action counts of entry [row, column]
+     *
+     * @param row     row id
+     * @param column  column id
+     * @param weights weight of each action slot, only the first {@code weights.length} slots are used
+     * @return sum of count * weight, 0 if the entry is not in the structure
+     */
+    public double dot(int row, int column, double[] weights) {
+        int index = getIndex(row, column);
+        return index >= 0 ? dotAt(index, weights) : 0.0;
+    }
+
+    /**
+     * Weighted sum of the action counts at a CRS position, used for cursor walks over a row
+     *
+     * @param index   CRS position
+     * @param weights weight of each action slot, only the first {@code weights.length} slots are used
+     * @return sum of count * weight
+     */
+    public double dotAt(int index, double[] weights) {
+        double sum = 0.0d;
+        for (int base = index * numActions, idx = 0; idx < weights.length; idx++) {
+            sum += actionData[base + idx] * weights[idx];
+        }
+        return sum;
+    }
+
+    /**
+     * Retrieve the total count of an action on a column
+     *
+     * @param column column id
+     * @param action action slot
+     * @return the total count
+     */
+    public int getColumnCount(int column, int action) {
+        return columnData[column * numActions + action];
+    }
+
+    /**
+     * Set the total count of an action on a column
+     *
+     * @param column column id
+     * @param action action slot
+     * @param count  count to set
+     */
+    public void setColumnCount(int column, int action, int count) {
+        columnData[column * numActions + action] = count;
+    }
+
+    /**
+     * Copy the action totals of a column into the given buffer
+     *
+     * @param column column id
+     * @param counts buffer of at least {@code numActions} length
+     */
+    public void getColumnCounts(int column, int[] counts) {
+        System.arraycopy(columnData, column * numActions, counts, 0, numActions);
+    }
+
+    /**
+     * Weighted sum of the action totals of a column
+     *
+     * @param column  column id
+     * @param weights weight of each action slot, only the first {@code weights.length} slots are used
+     * @return sum of total * weight
+     */
+    public double columnDot(int column, double[] weights) {
+        double sum = 0.0d;
+        for (int base = column * numActions, idx = 0; idx < weights.length; idx++) {
+            sum += columnData[base + idx] * weights[idx];
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the CRS position of an existing entry
+     *
+     * @param row  the index of row
+     * @param col  the index of column
+     */
+    private int getCRSIndex(int row, int col) {
+        int index = getIndex(row, col);
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Entry (" + (row + 1) + ", " + (col + 1)
+                    + ") is not in the matrix structure");
+        return index;
+    }
+}
@@ -39,6 +39,9 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
     private static final long serialVersionUID = -2069621030647530185L;
 
+    /** rows of the second matrix per tile in block row products */
+    private static final int ROW_MULT_TILE = 128;
+
     /** dimension */
     public int numRows, numColumns, topN;
     /** read data */
@@ -289,6 +292,64 @@ public class DenseMatrix implements DataMatrix, Serializable {
         return res;
     }
 
+    /**
+     * Accumulate the weighted Gram matrix {@code sum_r w_r * row_r^T * row_r} of the rows
+     * [fromRow, toRow) into the lower triangle of a row-major numColumns * numColumns buffer.
+     * Every entry adds {@code w_r * m[r][i] * m[r][j]} row by row, so that a single call over
+     * all rows gives the same sums as {@code transpose().mult(this)}.
+     *
+     * @param fromRow    the first row (inclusive)
+     * @param toRow      the last row (exclusive)
+     * @param rowWeights weight of every row, null for 1
+     * @param result     buffer of at least numColumns * numColumns length, only its lower
+     *                   triangle is written
+     */
+    public void gram(int fromRow, int toRow, double[] rowWeights, double[] result) {
+        for (int r = fromRow; r < toRow; r++) {
+            double[] row = data[r];
+            for (int i = 0; i < numColumns; i++) {
+                double value = rowWeights == null ? row[i] : rowWeights[r] * row[i];
+                int offset = i * numColumns;
+                for (int j = 0; j <= i; j++)
+                    result[offset + j] += value * row[j];
+            }
+        }
+    }
+
+    /**
+     * Inner products of a block of rows of m with every row of n, i.e. the block
+     * {@code m[mrowStart, mrowEnd) * n^T}, computed tile by tile over the rows of n so
+     * that a tile of n stays in cache across the block. Each product is accumulated in
+     * the same order as {@link #rowMult(DenseMatrix, int, DenseMatrix, int)}.
+     *
+     * @param m         the first matrix
+     * @param mrowStart the first row of the first matrix (inclusive)
+     * @param mrowEnd   the last row of the first matrix (exclusive)
+     * @param n         the second matrix
+     * @param result    row-major buffer of at least (mrowEnd - mrowStart) * n.numRows length,
+     *                  the product of rows mrow and nrow is stored at
+     *                  {@code (mrow - mrowStart) * n.numRows + nrow}
+     */
+    public static void rowMult(DenseMatrix m, int mrowStart, int mrowEnd, DenseMatrix n, double[] result) {
+        assert m.numColumns == n.numColumns;
+
+        int numFactors = m.numColumns, numRows = n.numRows;
+        for (int tileStart = 0; tileStart < numRows; tileStart += ROW_MULT_TILE) {
+            int tileEnd = Math.min(tileStart + ROW_MULT_TILE, numRows);
+            for (int mrow = mrowStart; mrow < mrowEnd; mrow++) {
+                double[] mdata = m.data[mrow];
+                int offset = (mrow - mrowStart) * numRows;
+                for (int nrow = tileStart; nrow < tileEnd; nrow++) {
+                    double[] ndata = n.data[nrow];
+                    double res = 0;
+                    for (int j = 0; j < numFactors; j++)
+                        res += mdata[j] * ndata[j];
+                    result[offset + nrow] = res;
+                }
+            }
+        }
+    }
+
     /**
      * Inner product of two column vectors
      *
@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import com.google.common.collect.Table;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The nearest neighbours of every row of a similarity matrix, kept as an
+ * {@code int[]} of neighbours and a {@code float[]} of similarities per row,
+ * sorted by decreasing similarity then increasing neighbour.
+ * <p>
+ * While the matrix is filled by {@link #offer(int, int, double)}, every row is
+ * a bounded heap of its k best neighbours, so that only O(rows * k) values are
+ * ever kept. Rows can be offered concurrently as long as each row is offered
+ * by a single thread. Sorting a row, or all of them by {@link #sort()}, ends
+ * its filling and indexes its neighbours by increasing neighbour, so that
+ * {@link #get(int, int)} is a binary search.
+ */
+public class KNNSimilarityMatrix implements Serializable {
+
+    private static final long serialVersionUID = -3473185402957265120L;
+
+    private static final int[] EMPTY_NEIGHBORS = new int[0];
+    private static final float[] EMPTY_VALUES = new float[0];
+
+    private final int numRows;
+
+    // the maximum number of neighbours of a row, 0 for all of them
+    private final int k;
+
+    private final int[][] neighbors;
+    private final float[][] values;
+    private final int[] sizes;
+    private final boolean[] sorted;
+
+    // the positions of the neighbours of a sorted row, by increasing neighbour
+    private final int[][] positions;
+
+    /**
+     * Construct an empty matrix to fill
+     *
+     * @param numRows the number of rows
+     * @param k       the maximum number of neighbours of a row, 0 or less to keep all of them
+     */
+    public KNNSimilarityMatrix(int numRows, int k) {
+        this.numRows = numRows;
+        this.k = Math.max(0, k);
+        this.neighbors = new int[numRows][];
+        this.values = new float[numRows][];
+        this.sizes = new int[numRows];
+        this.sorted = new boolean[numRows];
+        this.positions = new int[numRows][];
+        Arrays.fill(neighbors, EMPTY_NEIGHBORS);
+        Arrays.fill(values, EMPTY_VALUES);
+    }
+
+    /**
+     * Construct the matrix of the nearest neighbours of a symmetric matrix
+     *
+     * @param matrix a symmetric similarity matrix
+     * @param k      the maximum number of neighbours of a row, 0 or less to keep all of them
+     * @return the sorted matrix
+     */
+    public static KNNSimilarityMatrix valueOf(SymmMatrix matrix, int k) {
+        KNNSimilarityMatrix knnMatrix = new KNNSimilarityMatrix(matrix.getDim(), k);
+        for (Table.Cell<Integer, Integer, Double> cell : matrix.getData().cellSet()) {
+            int row = cell.getRowKey(), col = cell.getColumnKey();
+            double value = cell.getValue();
+            if (value != 0.0d) {
+                knnMatrix.offer(row, col, value);
+                if (row != col) {
+                    knnMatrix.offer(col, row, value);
+                }
+            }
+        }
+        knnMatrix.sort();
+        return knnMatrix;
+    }
+
+    /**
+     * Offer a neighbour to a row, kept if the row has less than k neighbours or
+     * if it is better than the worst of them
+     *
+     * @param row   row index
+     * @param col   neighbour index
+     * @param value similarity
+     */
+    public void offer(int row, int col, double value) {
+        float sim = (float) value;
+        int size = sizes[row];
+        int[] rowNeighbors = neighbors[row];
+        float[] rowValues = values[row];
+
+        if (k == 0 || size < k) {
+            if (size == rowNeighbors.length) {
+                int capacity = Math.max(4, 2 * size);
+                if (k > 0) {
+                    capacity = Math.min(capacity, k);
+                }
+                rowNeighbors = neighbors[row] = Arrays.copyOf(rowNeighbors, capacity);
+                rowValues = values[row] = Arrays.copyOf(rowValues, capacity);
+            }
+            rowNeighbors[size] = col;
+            rowValues[size] = sim;
+            sizes[row] = size + 1;
+            if (k > 0) {
+                siftUp(rowNeighbors, rowValues, size);
+            }
+        } else if (isWorse(rowNeighbors[0], rowValues[0], col, sim)) {
+            rowNeighbors[0] = col;
+            rowValues[0] = sim;
+            siftDown(rowNeighbors, rowValues, 0, size);
+        }
+    }
+
+    /**
+     * Sort the neighbours of every row by decreasing similarity, which ends the filling
+     */
+    public void sort() {
+        for (int row = 0; row < numRows; row++) {
+            sort(row);
+        }
+    }
+
+    /**
+     * Sort the neighbours of a row by decreasing similarity, which ends the filling of the row
+     *
+     * @param row row index
+     */
+    public void sort(int row) {
+        if (sorted[row]) {
+            return;
+        }
+        int size = sizes[row];
+        int[] rowNeighbors = neighbors[row];
+        float[] rowValues = values[row];
+        if (k == 0) {
+            for (int pos = size / 2 - 1; pos >= 0; pos--) {
+                siftDown(rowNeighbors, rowValues, pos, size);
+            }
+        }
+        // the worst neighbour of the heap goes last
+        for (int end = size - 1; end > 0; end--) {
+            swap(rowNeighbors, rowValues, 0, end);
+            siftDown(rowNeighbors, rowValues, 0, end);
+        }
+        if (rowNeighbors.length > size) {
+            rowNeighbors = neighbors[row] = Arrays.copyOf(rowNeighbors, size);
+            values[row] = Arrays.copyOf(rowValues, size);
+        }
+
+        // neighbour in the high bits, position in the low ones
+        long[] keys = new long[size];
+        for (int pos = 0; pos < size; pos++) {
+            keys[pos] = ((long) rowNeighbors[pos] << 32) | pos;
+        }
+        Arrays.sort(keys);
+        int[] rowPositions = new int[size];
+        for (int idx = 0; idx < size; idx++) {
+            rowPositions[idx] = (int) keys[idx];
+        }
+        positions[row] = rowPositions;
+        sorted[row] = true;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return the maximum number of neighbours of a row, 0 if all of them are kept
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @param row row index
+     * @return the number of neighbours of the row
+     */
+    public int size(int row) {
+        return sizes[row];
+    }
+
+    /**
+     * @param row row index
+     * @param pos rank of the neighbour, from 0 for the most similar one
+     * @return the neighbour
+     */
+    public int getNeighbor(int row, int pos) {
+        return neighbors[row][pos];
+    }
+
+    /**
+     * @param row row index
+     * @param pos rank of the neighbour, from 0 for the most similar one
+     * @return the similarity of the neighbour
+     */
+    public double getValue(int row, int pos) {
+        return values[row][pos];
+    }
+
+    /**
+     * Get the similarity of two rows, found in the neighbours of either of them in
+     * O(log k) once the rows are sorted
+     *
+     * @param row row index
+     * @param col column index
+     * @return the similarity, 0 if none of the rows is a kept neighbour of the other
+     */
+    public double get(int row, int col) {
+        int pos = indexOf(row, col);
+        if (pos >= 0) {
+            return values[row][pos];
+        }
+        pos = indexOf(col, row);
+        if (pos >= 0) {
+            return values[col][pos];
+        }
+        return 0.0d;
+    }
+
+    /**
+     * the position of a neighbour in a row, -1 if it is not kept
+     */
+    private int indexOf(int row, int col) {
+        int[] rowNeighbors = neighbors[row];
+        if (!sorted[row]) {
+            for (int pos = 0; pos < sizes[row]; pos++) {
+                if (rowNeighbors[pos] == col) {
+                    return pos;
+                }
+            }
+            return -1;
+        }
+        int[] rowPositions = positions[row];
+        int low = 0, high = rowPositions.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int neighbor = rowNeighbors[rowPositions[mid]];
+            if (neighbor < col) {
+                low = mid + 1;
+            } else if (neighbor > col) {
+                high = mid - 1;
+            } else {
+                return rowPositions[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a symmetric matrix of the kept similarities
+     */
+    public SymmMatrix toSymmMatrix() {
+        SymmMatrix matrix = new SymmMatrix(numRows);
+        for (int row = 0; row < numRows; row++) {
+            for (int pos = 0; pos < sizes[row]; pos++) {
+                matrix.set(row, neighbors[row][pos], values[row][pos]);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * whether neighbour a is worse than neighbour b: less similar, or as similar with a larger index
+     */
+    private static boolean isWorse(int neighborA, float valueA, int neighborB, float valueB) {
+        return valueA < valueB || (valueA == valueB && neighborA > neighborB);
+    }
+
+    /**
+     * move up the entry at pos of a heap with the worst neighbour on top
+     */
+    private static void siftUp(int[] rowNeighbors, float[] rowValues, int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (!isWorse(rowNeighbors[pos], rowValues[pos], rowNeighbors[parent], rowValues[parent])) {
+                break;
+            }
+            swap(rowNeighbors, rowValues, pos, parent);
+            pos = parent;
+        }
+    }
+
+    /**
+     * move down the entry at pos of a heap of size entries with the worst neighbour on top
+     */
+    private static void siftDown(int[] rowNeighbors, float[] rowValues, int pos, int size) {
+        while (true) {
+            int worst = pos;
+            int left = 2 * pos + 1, right = left + 1;
+            if (left < size && isWorse(rowNeighbors[left], rowValues[left], rowNeighbors[worst], rowValues[worst])) {
+                worst = left;
+            }
+            if (right < size && isWorse(rowNeighbors[right], rowValues[right], rowNeighbors[worst], rowValues[worst])) {
+                worst = right;
+            }
+            if (worst == pos) {
+                return;
+            }
+            swap(rowNeighbors, rowValues, pos, worst);
+            pos = worst;
+        }
+    }
+
+    private static void swap(int[] rowNeighbors, float[] rowValues, int i, int j) {
+        int neighbor = rowNeighbors[i];
+        rowNeighbors[i] = rowNeighbors[j];
+        rowNeighbors[j] = neighbor;
+        float value = rowValues[i];
+        rowValues[i] = rowValues[j];
+        rowValues[j] = value;
+    }
+}
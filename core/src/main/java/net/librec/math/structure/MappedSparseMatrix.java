@@ -0,0 +1,667 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Data Structure: a read-only sparse matrix whose Compressed Row Storage (CRS)
+ * and Compressed Col Storage (CCS) live outside the Java heap.
+ * <p>
+ * The arrays are either memory-mapped from a file written by {@link #write},
+ * so that processes opening the same file share its pages through the OS page
+ * cache, or copied into direct buffers from a {@link SparseMatrix}. In both
+ * cases they are split into segments of {@code 2^27} elements, so that a
+ * matrix is not bounded by the size of one buffer nor by the heap size.
+ * <p>
+ * The read API follows {@link SparseMatrix}: {@link #get}, {@link #row},
+ * {@link #column}, {@link #getColumns} and the iterators. Row and column
+ * vectors are copied into the heap when they are retrieved.
+ * <p>
+ * A data snapshot taken with data.model.snapshot.mapped keeps the preference
+ * matrix in such a file, which the action split reads through the iterators
+ * instead of loading the matrix into the heap.
+ */
+public class MappedSparseMatrix implements Iterable<MatrixEntry> {
+
+    /** the first bytes of a matrix file, "LRSM" */
+    private static final int MAGIC = 0x4C52534D;
+
+    /** the version of the file layout */
+    private static final int VERSION = 1;
+
+    /** the size of the file header, which keeps the arrays 8-byte aligned */
+    private static final int HEADER_SIZE = 32;
+
+    /** the number of elements of a segment */
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** the size of the write buffer */
+    private static final int BSIZE = 1024 * 1024;
+
+    // matrix dimension
+    private final int numRows, numColumns;
+
+    // the number of stored entries
+    private final int size;
+
+    // Compressed Row Storage (CRS)
+    private final IntBuffer[] rowPtr, colInd;
+    private final DoubleBuffer[] rowData;
+
+    // Compressed Col Storage (CCS)
+    private final IntBuffer[] colPtr, rowInd;
+    private final DoubleBuffer[] colData;
+
+    /**
+     * Construct an off-heap copy of a sparse matrix in direct buffers
+     *
+     * @param mat the matrix to copy
+     */
+    public MappedSparseMatrix(SparseMatrix mat) {
+        mat = withColumnStorage(mat);
+        this.numRows = mat.numRows;
+        this.numColumns = mat.numColumns;
+        this.size = mat.rowPtr[numRows];
+        this.rowPtr = directInts(mat.rowPtr, numRows + 1);
+        this.colInd = directInts(mat.colInd, size);
+        this.rowData = directDoubles(mat.rowData, size);
+        this.colPtr = directInts(mat.colPtr, numColumns + 1);
+        this.rowInd = directInts(mat.rowInd, size);
+        this.colData = directDoubles(mat.colData, size);
+    }
+
+    private MappedSparseMatrix(int numRows, int numColumns, int size, IntBuffer[] rowPtr, IntBuffer[] colInd,
+                               DoubleBuffer[] rowData, IntBuffer[] colPtr, IntBuffer[] rowInd, DoubleBuffer[] colData) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.size = size;
+        this.rowPtr = rowPtr;
+        this.colInd = colInd;
+        this.rowData = rowData;
+        this.colPtr = colPtr;
+        this.rowInd = rowInd;
+        this.colData = colData;
+    }
+
+    /**
+     * Write a sparse matrix to a file that can be opened by {@link #open}
+     *
+     * @param mat  the matrix to write
+     * @param file the file to write
+     * @throws IOException if the file can not be written
+     */
+    public static void write(SparseMatrix mat, File file) throws IOException {
+        mat = withColumnStorage(mat);
+        int numRows = mat.numRows, numColumns = mat.numColumns, size = mat.rowPtr[numRows];
+        try (FileOutputStream fos = new FileOutputStream(file);
+             FileChannel channel = fos.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BSIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(numRows).putInt(numColumns).putInt(size);
+            buffer.position(HEADER_SIZE);
+
+            writeInts(channel, buffer, mat.rowPtr, numRows + 1);
+            writeInts(channel, buffer, mat.colPtr, numColumns + 1);
+            writeInts(channel, buffer, mat.colInd, size);
+            writeInts(channel, buffer, mat.rowInd, size);
+            if ((numRows + numColumns) % 2 != 0) {
+                // align the doubles
+                buffer.putInt(0);
+            }
+            writeDoubles(channel, buffer, mat.rowData, size);
+            writeDoubles(channel, buffer, mat.colData, size);
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Open a matrix file written by {@link #write} by memory-mapping its arrays
+     *
+     * @param file the file to open
+     * @return the memory-mapped matrix
+     * @throws IOException if the file can not be read or is not a matrix file
+     */
+    public static MappedSparseMatrix open(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel channel = fis.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not a sparse matrix file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a sparse matrix file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sparse matrix file version " + version + " of " + file);
+            }
+            int numRows = header.getInt(), numColumns = header.getInt(), size = header.getInt();
+
+            long position = HEADER_SIZE;
+            long intBytes = 4L * (numRows + 1 + numColumns + 1 + 2L * size);
+            long doubleBytes = 8L * 2 * size;
+            long alignedIntBytes = (intBytes + 7) & ~7L;
+            if (numRows < 0 || numColumns < 0 || size < 0
+                    || channel.size() < position + alignedIntBytes + doubleBytes) {
+                throw new IOException("Truncated sparse matrix file " + file);
+            }
+
+            IntBuffer[] rowPtr = mapInts(channel, position, numRows + 1);
+            position += 4L * (numRows + 1);
+            IntBuffer[] colPtr = mapInts(channel, position, numColumns + 1);
+            position += 4L * (numColumns + 1);
+            IntBuffer[] colInd = mapInts(channel, position, size);
+            position += 4L * size;
+            IntBuffer[] rowInd = mapInts(channel, position, size);
+            position = HEADER_SIZE + alignedIntBytes;
+            DoubleBuffer[] rowData = mapDoubles(channel, position, size);
+            position += 8L * size;
+            DoubleBuffer[] colData = mapDoubles(channel, position, size);
+
+            // the mappings stay valid after the channel is closed
+            return new MappedSparseMatrix(numRows, numColumns, size, rowPtr, colInd, rowData, colPtr, rowInd, colData);
+        }
+    }
+
+    /**
+     * Copy the matrix into the heap
+     *
+     * @return a sparse matrix with the same entries
+     */
+    public SparseMatrix toSparseMatrix() {
+        int[] heapRowPtr = new int[numRows + 1];
+        int[] heapColInd = new int[size];
+        double[] heapRowData = new double[size];
+        copyInts(rowPtr, heapRowPtr);
+        copyInts(colInd, heapColInd);
+        copyDoubles(rowData, heapRowData);
+        return new SparseMatrix(numRows, numColumns, heapRowPtr, heapColInd, heapRowData);
+    }
+
+    /**
+     * Copy the row pointers of the Compressed Row Storage into the heap
+     *
+     * @return the position of the first entry of every row, then the number of entries
+     */
+    public int[] getRowPointers() {
+        int[] heapRowPtr = new int[numRows + 1];
+        copyInts(rowPtr, heapRowPtr);
+        return heapRowPtr;
+    }
+
+    /**
+     * Copy the column indices of the Compressed Row Storage into the heap
+     *
+     * @return the column of every entry, in row order
+     */
+    public int[] getColumnIndices() {
+        int[] heapColInd = new int[size];
+        copyInts(colInd, heapColInd);
+        return heapColInd;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int numColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @return the number of stored entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieve value at entry [row, column]
+     *
+     * @param row    row id
+     * @param column column id
+     * @return value at entry [row, column]
+     */
+    public double get(int row, int column) {
+        int index = getIndex(row, column);
+        return index >= 0 ? getDouble(rowData, index) : 0;
+    }
+
+    /**
+     * Whether entry [row, column] is stored with a non-zero value
+     *
+     * @param row    row id
+     * @param column column id
+     * @return true if the entry is non-zero
+     */
+    public boolean contains(int row, int column) {
+        int index = getIndex(row, column);
+        return index >= 0 && getDouble(rowData, index) != 0.0;
+    }
+
+    /**
+     * get a row sparse vector of a matrix
+     *
+     * @param row row id
+     * @return a sparse vector of {index, value}
+     */
+    public SparseVector row(int row) {
+        if (row >= numRows) {
+            return new SparseVector(numColumns);
+        }
+        int start = getInt(rowPtr, row), end = getInt(rowPtr, row + 1);
+        int[] index = new int[end - start];
+        double[] data = new double[end - start];
+        for (int j = start; j < end; j++) {
+            index[j - start] = getInt(colInd, j);
+            data[j - start] = getDouble(rowData, j);
+        }
+        return new SparseVector(numColumns, index, data);
+    }
+
+    /**
+     * get a col sparse vector of a matrix
+     *
+     * @param col col id
+     * @return a sparse vector of {index, value}
+     */
+    public SparseVector column(int col) {
+        if (col >= numColumns) {
+            return new SparseVector(numRows);
+        }
+        int start = getInt(colPtr, col), end = getInt(colPtr, col + 1);
+        int[] index = new int[end - start];
+        double[] data = new double[end - start];
+        for (int j = start; j < end; j++) {
+            index[j - start] = getInt(rowInd, j);
+            data[j - start] = getDouble(colData, j);
+        }
+        return new SparseVector(numRows, index, data);
+    }
+
+    /**
+     * get columns of a specific row where (row, column) entries are non-zero
+     *
+     * @param row row id
+     * @return a list of column index
+     */
+    public List<Integer> getColumns(int row) {
+        if (row >= numRows) {
+            return new ArrayList<>();
+        }
+        int start = getInt(rowPtr, row), end = getInt(rowPtr, row + 1);
+        List<Integer> res = new ArrayList<>(end - start);
+        for (int j = start; j < end; j++) {
+            if (getDouble(rowData, j) != 0.0)
+                res.add(getInt(colInd, j));
+        }
+        return res;
+    }
+
+    /**
+     * get rows of a specific column where (row, column) entries are non-zero
+     *
+     * @param col column id
+     * @return a list of row index
+     */
+    public List<Integer> getRows(int col) {
+        if (col >= numColumns) {
+            return new ArrayList<>();
+        }
+        int start = getInt(colPtr, col), end = getInt(colPtr, col + 1);
+        List<Integer> res = new ArrayList<>(end - start);
+        for (int j = start; j < end; j++) {
+            if (getDouble(colData, j) != 0.0)
+                res.add(getInt(rowInd, j));
+        }
+        return res;
+    }
+
+    /**
+     * query the size of a specific row
+     *
+     * @param row row id
+     * @return the size of non-zero elements of a row
+     */
+    public int rowSize(int row) {
+        int size = 0;
+        for (int j = getInt(rowPtr, row), end = getInt(rowPtr, row + 1); j < end; j++) {
+            if (getDouble(rowData, j) != 0.0)
+                size++;
+        }
+        return size;
+    }
+
+    /**
+     * query the size of a specific col
+     *
+     * @param col col id
+     * @return the size of non-zero elements of a col
+     */
+    public int columnSize(int col) {
+        int size = 0;
+        for (int j = getInt(colPtr, col), end = getInt(colPtr, col + 1); j < end; j++) {
+            if (getDouble(colData, j) != 0.0)
+                size++;
+        }
+        return size;
+    }
+
+    /**
+     * Iterate over all stored entries in row order
+     *
+     * @return an iterator of the stored entries
+     */
+    public Iterator<MatrixEntry> iterator() {
+        return new MatrixIterator(0, 0, size);
+    }
+
+    /**
+     * Iterate over the stored entries of the rows [fromRow, toRow) in row order,
+     * so that blocks of rows can be read concurrently
+     *
+     * @param fromRow the first row (inclusive)
+     * @param toRow   the last row (exclusive)
+     * @return an iterator of the stored entries of the rows
+     */
+    public Iterator<MatrixEntry> iterator(int fromRow, int toRow) {
+        return new MatrixIterator(fromRow, getInt(rowPtr, fromRow), getInt(rowPtr, toRow));
+    }
+
+    /**
+     * Iterate over the non-zero entries of a row
+     *
+     * @param row row id
+     * @return an iterator of {column, value}
+     */
+    public Iterator<VectorEntry> colIterator(int row) {
+        return new VectorIterator(colInd, rowData, getInt(rowPtr, row), getInt(rowPtr, row + 1));
+    }
+
+    /**
+     * Iterate over the non-zero entries of a column
+     *
+     * @param col column id
+     * @return an iterator of {row, value}
+     */
+    public Iterator<VectorEntry> rowIterator(int col) {
+        return new VectorIterator(rowInd, colData, getInt(colPtr, col), getInt(colPtr, col + 1));
+    }
+
+    /**
+     * Find the CRS position of entry [row, column]
+     *
+     * @return the CRS position, or -1 if the entry is not stored
+     */
+    private int getIndex(int row, int column) {
+        if (row >= numRows) {
+            return -1;
+        }
+        int low = getInt(rowPtr, row), high = getInt(rowPtr, row + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midColumn = getInt(colInd, mid);
+            if (midColumn < column) {
+                low = mid + 1;
+            } else if (midColumn > column) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int getInt(IntBuffer[] segments, int index) {
+        return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+    }
+
+    private static double getDouble(DoubleBuffer[] segments, int index) {
+        return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+    }
+
+    private static int numSegments(int length) {
+        return (int) ((length + (long) SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+
+    /**
+     * Ensure the Compressed Col Storage of a matrix built with CRS only
+     */
+    private static SparseMatrix withColumnStorage(SparseMatrix mat) {
+        if (mat.colPtr != null) {
+            return mat;
+        }
+        int size = mat.rowPtr[mat.numRows];
+        return new SparseMatrix(mat.numRows, mat.numColumns, mat.rowPtr,
+                Arrays.copyOf(mat.colInd, size), Arrays.copyOf(mat.rowData, size));
+    }
+
+    private static IntBuffer[] directInts(int[] values, int length) {
+        IntBuffer[] segments = new IntBuffer[numSegments(length)];
+        for (int seg = 0; seg < segments.length; seg++) {
+            int start = seg << SEGMENT_SHIFT, len = Math.min(SEGMENT_SIZE, length - start);
+            segments[seg] = ByteBuffer.allocateDirect(len * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            segments[seg].put(values, start, len);
+        }
+        return segments;
+    }
+
+    private static DoubleBuffer[] directDoubles(double[] values, int length) {
+        DoubleBuffer[] segments = new DoubleBuffer[numSegments(length)];
+        for (int seg = 0; seg < segments.length; seg++) {
+            int start = seg << SEGMENT_SHIFT, len = Math.min(SEGMENT_SIZE, length - start);
+            segments[seg] = ByteBuffer.allocateDirect(len * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            segments[seg].put(values, start, len);
+        }
+        return segments;
+    }
+
+    private static IntBuffer[] mapInts(FileChannel channel, long position, int length) throws IOException {
+        IntBuffer[] segments = new IntBuffer[numSegments(length)];
+        for (int seg = 0; seg < segments.length; seg++) {
+            int start = seg << SEGMENT_SHIFT, len = Math.min(SEGMENT_SIZE, length - start);
+            segments[seg] = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * start, 4L * len).asIntBuffer();
+        }
+        return segments;
+    }
+
+    private static DoubleBuffer[] mapDoubles(FileChannel channel, long position, int length) throws IOException {
+        DoubleBuffer[] segments = new DoubleBuffer[numSegments(length)];
+        for (int seg = 0; seg < segments.length; seg++) {
+            int start = seg << SEGMENT_SHIFT, len = Math.min(SEGMENT_SIZE, length - start);
+            segments[seg] = channel.map(FileChannel.MapMode.READ_ONLY, position + 8L * start, 8L * len).asDoubleBuffer();
+        }
+        return segments;
+    }
+
+    private static void copyInts(IntBuffer[] segments, int[] values) {
+        for (int seg = 0; seg < segments.length; seg++) {
+            IntBuffer segment = segments[seg].duplicate();
+            segment.clear();
+            segment.get(values, seg << SEGMENT_SHIFT, segment.remaining());
+        }
+    }
+
+    private static void copyDoubles(DoubleBuffer[] segments, double[] values) {
+        for (int seg = 0; seg < segments.length; seg++) {
+            DoubleBuffer segment = segments[seg].duplicate();
+            segment.clear();
+            segment.get(values, seg << SEGMENT_SHIFT, segment.remaining());
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            if (buffer.remaining() < 4) {
+                flush(channel, buffer);
+            }
+            int len = Math.min(length - offset, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, offset, len);
+            buffer.position(buffer.position() + len * 4);
+            offset += len;
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] values, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            if (buffer.remaining() < 8) {
+                flush(channel, buffer);
+            }
+            int len = Math.min(length - offset, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(values, offset, len);
+            buffer.position(buffer.position() + len * 8);
+            offset += len;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Entry of a compressed row matrix
+     */
+    private class MappedMatrixEntry implements MatrixEntry {
+
+        private int row, cursor;
+
+        public void update(int row, int cursor) {
+            this.row = row;
+            this.cursor = cursor;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int column() {
+            return getInt(colInd, cursor);
+        }
+
+        public double get() {
+            return getDouble(rowData, cursor);
+        }
+
+        public void set(double value) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private class MatrixIterator implements Iterator<MatrixEntry> {
+
+        private final int end;
+        private int row, cursor;
+
+        private final MappedMatrixEntry entry = new MappedMatrixEntry();
+
+        private MatrixIterator(int row, int cursor, int end) {
+            this.row = row;
+            this.cursor = cursor;
+            this.end = end;
+        }
+
+        public boolean hasNext() {
+            return cursor < end;
+        }
+
+        public MatrixEntry next() {
+            // skip the rows that end before the cursor
+            while (getInt(rowPtr, row + 1) <= cursor) {
+                row++;
+            }
+            entry.update(row, cursor++);
+            return entry;
+        }
+
+        public void remove() {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Iterator of the non-zero entries of a row or a column
+     */
+    private static class VectorIterator implements Iterator<VectorEntry>, VectorEntry {
+
+        private final IntBuffer[] indices;
+        private final DoubleBuffer[] data;
+        private final int end;
+        private int cursor, current;
+
+        private VectorIterator(IntBuffer[] indices, DoubleBuffer[] data, int start, int end) {
+            this.indices = indices;
+            this.data = data;
+            this.end = end;
+            this.cursor = start;
+            skipZeros();
+        }
+
+        private void skipZeros() {
+            while (cursor < end && getDouble(data, cursor) == 0.0) {
+                cursor++;
+            }
+        }
+
+        public boolean hasNext() {
+            return cursor < end;
+        }
+
+        public VectorEntry next() {
+            current = cursor++;
+            skipZeros();
+            return this;
+        }
+
+        public void remove() {
+            throw new IllegalStateException();
+        }
+
+        public int index() {
+            return getInt(indices, current);
+        }
+
+        public double get() {
+            return getDouble(data, current);
+        }
+
+        public void set(double value) {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.util.Arrays;
+
+/**
+ * Data Structure: the set of non-zero columns of every row of a sparse matrix,
+ * e.g. the items of every user, as a compact membership index.
+ * <p>
+ * Every row keeps its columns as a sorted {@code int} run, and the rows with
+ * many columns additionally keep a bitmap, so that membership is a binary
+ * search on a short row or a bit test on a dense one. Unlike
+ * {@link SparseMatrix#getColumnsSet}, no boxed {@code Integer} is created.
+ * <p>
+ * The sets are immutable; {@link SparseMatrix#getColumnSets()} builds them
+ * once per matrix and shares them among ranking, sampling and evaluation.
+ */
+public class RowColumnSets {
+
+    // matrix dimension
+    private final int numRows, numColumns;
+
+    // sorted non-zero columns, the columns of row r are colInd[rowPtr[r], rowPtr[r + 1])
+    private final int[] rowPtr, colInd;
+
+    // bitmap of the rows at least as dense as 1/32 of the columns, null for the others
+    private final long[][] bitmaps;
+
+    /**
+     * Construct the sets of non-zero columns of a sparse matrix
+     *
+     * @param mat the sparse matrix
+     */
+    public RowColumnSets(SparseMatrix mat) {
+        this.numRows = mat.numRows;
+        this.numColumns = mat.numColumns;
+        this.rowPtr = new int[numRows + 1];
+        for (int row = 0; row < numRows; row++) {
+            int size = 0;
+            for (int j = mat.rowPtr[row]; j < mat.rowPtr[row + 1]; j++) {
+                if (mat.rowData[j] != 0.0)
+                    size++;
+            }
+            rowPtr[row + 1] = rowPtr[row] + size;
+        }
+
+        this.colInd = new int[rowPtr[numRows]];
+        this.bitmaps = new long[numRows][];
+        for (int row = 0; row < numRows; row++) {
+            int index = rowPtr[row];
+            for (int j = mat.rowPtr[row]; j < mat.rowPtr[row + 1]; j++) {
+                if (mat.rowData[j] != 0.0)
+                    colInd[index++] = mat.colInd[j];
+            }
+            if (size(row) * 32L >= numColumns && size(row) > 0) {
+                long[] bitmap = new long[(numColumns + 63) >>> 6];
+                for (int j = rowPtr[row]; j < rowPtr[row + 1]; j++) {
+                    bitmap[colInd[j] >>> 6] |= 1L << colInd[j];
+                }
+                bitmaps[row] = bitmap;
+            }
+        }
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int numColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @param row row id
+     * @return the number of non-zero columns of the row, 0 if the row does not exist
+     */
+    public int size(int row) {
+        return row < numRows ? rowPtr[row + 1] - rowPtr[row] : 0;
+    }
+
+    /**
+     * Whether entry [row, column] is non-zero
+     *
+     * @param row    row id
+     * @param column column id
+     * @return true if the column is in the set of the row
+     */
+    public boolean contains(int row, int column) {
+        if (row >= numRows || column < 0 || column >= numColumns) {
+            return false;
+        }
+        long[] bitmap = bitmaps[row];
+        if (bitmap != null) {
+            return (bitmap[column >>> 6] & (1L << column)) != 0;
+        }
+        return Arrays.binarySearch(colInd, rowPtr[row], rowPtr[row + 1], column) >= 0;
+    }
+
+    /**
+     * Retrieve the k-th smallest non-zero column of a row, the same order as
+     * {@link SparseMatrix#getColumns}
+     *
+     * @param row row id
+     * @param k   position in the set, from 0 to {@code size(row) - 1}
+     * @return the column id
+     */
+    public int get(int row, int k) {
+        return colInd[rowPtr[row] + k];
+    }
+}
@@ -56,6 +56,9 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
     public double[] colData;
     public int[] colPtr, rowInd;
 
+    // sets of non-zero columns of every row, built on first use
+    private transient volatile RowColumnSets columnSets;
+
     // Shuffle 
     public boolean isShuffle;
     public int[] shuffleRow;
@@ -115,6 +118,46 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         copyCCS(mat.colData, mat.colPtr, mat.rowInd);
     }
 
+    /**
+     * Construct a sparse matrix from Compressed Row Storage arrays, the CCS structure is
+     * derived from them. The arrays are used without copying.
+     *
+     * @param rows    number of rows
+     * @param cols    number of columns
+     * @param rowPtr  row pointers of numRows + 1 length
+     * @param colInd  column indices, sorted within each row
+     * @param rowData values of the entries
+     */
+    public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colInd, double[] rowData) {
+        numRows = rows;
+        numColumns = cols;
+        valueSet = new TreeSet<>();
+
+        this.rowPtr = rowPtr;
+        this.colInd = colInd;
+        this.rowData = rowData;
+
+        int nnz = colInd.length;
+        colPtr = new int[numColumns + 1];
+        rowInd = new int[nnz];
+        colData = new double[nnz];
+        for (int j = 0; j < nnz; j++) {
+            colPtr[colInd[j] + 1]++;
+        }
+        for (int i = 1; i <= numColumns; i++) {
+            colPtr[i] += colPtr[i - 1];
+        }
+        int[] cursor = Arrays.copyOf(colPtr, numColumns);
+        for (int row = 0; row < numRows; row++) {
+            for (int j = rowPtr[row]; j < rowPtr[row + 1]; j++) {
+                int index = cursor[colInd[j]]++;
+                rowInd[index] = row;
+                colData[index] = rowData[j];
+                valueSetAdd(rowData[j]);
+            }
+        }
+    }
+
     public SparseMatrix(SparseStringMatrix mat) {
         numRows = mat.numRows;
         numColumns = mat.numColumns;
@@ -333,6 +376,7 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         colData[index] = val;
 
         valueSetAdd(val);
+        columnSets = null;
     }
 
     private void valueSetAdd(double value){
@@ -354,6 +398,7 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
 
         index = getCCSIndex(row, column);
         colData[index] += val;
+        columnSets = null;
     }
 
     /**
@@ -464,6 +509,26 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         return res;
     }
 
+    /**
+     * get the sets of non-zero columns of all rows, built once and shared until
+     * the matrix is changed through {@link #set}, {@link #add} or {@link #reshape(SparseMatrix)}
+     *
+     * @return the sets of non-zero columns
+     */
+    public RowColumnSets getColumnSets() {
+        RowColumnSets sets = columnSets;
+        if (sets == null) {
+            synchronized (this) {
+                sets = columnSets;
+                if (sets == null) {
+                    sets = new RowColumnSets(this);
+                    columnSets = sets;
+                }
+            }
+        }
+        return sets;
+    }
+
     public Set<Integer> getColumnsSetPurchase(int row) {
         Set<Integer> res = new HashSet<>();
 
@@ -651,6 +716,44 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         return list;
     }
 
+    /**
+     * split the rows into at most numBlocks ranges of about the same number of rows plus
+     * entries, e.g. to balance work done per row and per entry over threads
+     *
+     * @param numBlocks the number of ranges
+     * @return the bounds of the ranges, from 0 to numRows
+     */
+    public int[] rowBlocks(int numBlocks) {
+        return balancedBlocks(rowPtr, numRows, numBlocks);
+    }
+
+    /**
+     * split the columns into at most numBlocks ranges of about the same number of columns
+     * plus entries, see {@link #rowBlocks(int)}
+     *
+     * @param numBlocks the number of ranges
+     * @return the bounds of the ranges, from 0 to numColumns
+     */
+    public int[] columnBlocks(int numBlocks) {
+        return balancedBlocks(colPtr, numColumns, numBlocks);
+    }
+
+    private static int[] balancedBlocks(int[] ptr, int size, int numBlocks) {
+        numBlocks = Math.max(1, Math.min(numBlocks, size));
+        int[] bounds = new int[numBlocks + 1];
+        long total = (long) ptr[size] + size;
+        int idx = 0;
+        for (int block = 1; block < numBlocks; block++) {
+            long target = total * block / numBlocks;
+            while (idx < size && (long) ptr[idx] + idx < target) {
+                idx++;
+            }
+            bounds[block] = idx;
+        }
+        bounds[numBlocks] = size;
+        return bounds;
+    }
+
     /**
      * get a col sparse vector of a matrix
      *
@@ -889,6 +992,7 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         mat.colData = res.colData;
         mat.rowInd = res.rowInd;
         mat.colPtr = res.colPtr;
+        mat.columnSets = null;
     }
 
     /**
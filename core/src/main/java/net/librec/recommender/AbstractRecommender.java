@@ -22,12 +22,16 @@ import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvaluationContext;
+import net.librec.eval.FusedRankingEvaluator;
 import net.librec.eval.Measure;
 import net.librec.eval.Measure.MeasureValue;
+import net.librec.eval.SampledRanks;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.*;
 import net.librec.util.ReflectionUtil;
@@ -235,15 +239,8 @@ public abstract class AbstractRecommender implements Recommender {
         }
         globalMean = trainMatrix.mean();
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
-        int maxNumTestItemsByUser = 0; //for idcg
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.rowSize(userIdx);
-            int numTestItemsByUser = testMatrix.rowSize(userIdx);
-            maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
-        }
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
-        conf.setInt("rec.eval.item.test.maxnum", maxNumTestItemsByUser);
+        // dropped items for AUC, max test items for idcg, purchase counts for novelty
+        context.setEvaluationContext(EvaluationContext.valueOf(trainMatrix, testMatrix));
     }
 
     /**
@@ -283,13 +280,53 @@ public abstract class AbstractRecommender implements Recommender {
      */
     protected RecommendedList recommend() throws LibrecException {
         if (isRanking && topN > 0) {
-            recommendedList = recommendRank();
+            if (conf.getInt("rec.eval.sampled.negatives", 0) > 0) {
+                recommendedList = recommendSampled();
+            } else {
+                recommendedList = recommendRank();
+            }
         } else {
             recommendedList = recommendRating();
         }
         return recommendedList;
     }
 
+    /**
+     * recommend
+     * * rank every test item among rec.eval.sampled.negatives items sampled from the
+     * items the user has not rated, instead of all the items, see {@link SampledRanks}.
+     * The items are scored in a single thread, as predict is not required to be
+     * thread-safe. The ranks are put on the evaluation context and the recommended
+     * list is left empty.
+     *
+     * @return empty recommended list
+     * @throws LibrecException if error occurs during recommending
+     */
+    protected RecommendedList recommendSampled() throws LibrecException {
+        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        final RowColumnSets userItemsSet = trainMatrix.getColumnSets();
+        SampledRanks sampledRanks = SampledRanks.build(testMatrix.getColumnSets(), numItems,
+                conf.getInt("rec.eval.sampled.negatives", 0), conf.getLong("rec.random.seed", 1L), 1,
+                new SampledRanks.Scorer() {
+                    @Override
+                    public boolean isCandidate(int userIdx, int itemIdx) {
+                        return !userItemsSet.contains(userIdx, itemIdx);
+                    }
+
+                    @Override
+                    public int numTrained(int userIdx) {
+                        return userItemsSet.size(userIdx);
+                    }
+
+                    @Override
+                    public double score(int userIdx, int itemIdx) throws LibrecException {
+                        return predict(userIdx, itemIdx);
+                    }
+                });
+        context.getEvaluationContext().setSampledRanks(sampledRanks);
+        return recommendedList;
+    }
+
     /**
      * recommend
      * * predict the ranking scores in the test data
@@ -300,10 +337,10 @@ public abstract class AbstractRecommender implements Recommender {
     protected RecommendedList recommendRank() throws LibrecException {
         recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
 
+        RowColumnSets userItemsSet = trainMatrix.getColumnSets();
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            Set<Integer> itemSet = trainMatrix.getColumnsSet(userIdx);
             for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                if (itemSet.contains(itemIdx)) {
+                if (userItemsSet.contains(userIdx, itemIdx)) {
                     continue;
                 }
                 double predictRating = predict(userIdx, itemIdx);
@@ -397,9 +434,27 @@ public abstract class AbstractRecommender implements Recommender {
      */
     public Map<MeasureValue, Double> evaluateMap() {
         Map<MeasureValue, Double> evaluatedMap = new HashMap<>();
-        List<MeasureValue> measureValueList = Measure.getMeasureEnumList(isRanking, topN);
+        // the sampled negatives protocol only has the ranks of the test items, no recommended list
+        boolean isSampled = isRanking && context.getEvaluationContext().getSampledRanks() != null;
+        List<MeasureValue> measureValueList = isSampled ? Measure.getSampledEnumList(topN)
+                : Measure.getMeasureEnumList(isRanking, topN);
         if (measureValueList != null) {
+            // the ranking measures are evaluated together in a single sweep over the users
+            List<MeasureValue> fusedValueList = new ArrayList<>();
+            if (isRanking && conf.getBoolean("rec.eval.fused", true)) {
+                for (MeasureValue measureValue : measureValueList) {
+                    if (FusedRankingEvaluator.isSupported(measureValue.getMeasure())) {
+                        fusedValueList.add(measureValue);
+                    }
+                }
+                if (!fusedValueList.isEmpty()) {
+                    evaluatedMap.putAll(new FusedRankingEvaluator(fusedValueList).evaluate(context, recommendedList));
+                }
+            }
             for (MeasureValue measureValue : measureValueList) {
+                if (fusedValueList.contains(measureValue)) {
+                    continue;
+                }
                 RecommenderEvaluator evaluator = ReflectionUtil
                         .newInstance(measureValue.getMeasure().getEvaluatorClass());
                 if (isRanking && measureValue.getTopN() != null && measureValue.getTopN() > 0) {
@@ -18,21 +18,26 @@
 package net.librec.recommender;
 
 import com.google.common.collect.BiMap;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvaluationContext;
+import net.librec.eval.FusedRankingEvaluator;
 import net.librec.eval.Measure;
 import net.librec.eval.Measure.MeasureValue;
+import net.librec.eval.SampledRanks;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.eval.ranking.*;
 import net.librec.eval.rating.MAEEvaluator;
 import net.librec.eval.rating.RMSEEvaluator;
 import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.ActionMatrix;
 import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.*;
 import net.librec.util.ReflectionUtil;
+import net.librec.util.TopNHeap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +46,8 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Abstract Recommender Methods
@@ -53,6 +60,11 @@ public abstract class AbstractRecommenders implements Recommender {
      */
     protected final Log LOG = LogFactory.getLog(this.getClass());
 
+    /**
+     * the number of scores buffered per ranking worker
+     */
+    private static final int RANKING_BUFFER_SIZE = 1 << 18;
+
     /**
      * is ranking or rating
      */
@@ -143,6 +155,11 @@ public abstract class AbstractRecommenders implements Recommender {
      */
     protected boolean earlyStop;
 
+    /**
+     * in-training validation, null if rec.validation.interval is not set
+     */
+    protected RankingValidator validator;
+
     /**
      * verbose
      */
@@ -165,25 +182,14 @@ public abstract class AbstractRecommenders implements Recommender {
     protected float decay;
 
     /**
-     * Table<userIdx, itemIdx, action>
+     * action counts of {userIdx, itemIdx}
      */
-    protected Table<Integer, Integer, Integer> a1Action;
-    protected Table<Integer, Integer, Integer> a2Action;
-    protected Table<Integer, Integer, Integer> a3Action;
-    protected Table<Integer, Integer, Integer> a4Action;
-    protected Table<Integer, Integer, Integer> a7Action;
-    protected Table<Integer, Integer, Integer> a8Action;
-    protected Table<Integer, Integer, Integer> a9Action;
+    protected ActionMatrix actionMatrix;
 
-    protected Map<Integer, Integer> a1ItemCount;
-    protected Map<Integer, Integer> a2ItemCount;
-    protected Map<Integer, Integer> a3ItemCount;
-    protected Map<Integer, Integer> a4ItemCount;
-    protected Map<Integer, Integer> a7ItemCount;
-    protected Map<Integer, Integer> a8ItemCount;
-    protected Map<Integer, Integer> a9ItemCount;
-
-    protected Map<Integer, Double> itemPops;
+    /**
+     * cached popularity of each item, see rec.popularity.mode
+     */
+    protected ItemPopularityCache itemPopularity;
 //    protected int[] actionCount;
 
     protected int numActions;
@@ -196,6 +202,30 @@ public abstract class AbstractRecommenders implements Recommender {
     protected double Pok;
     protected double Pob;
 
+    /**
+     * experience score of the items without any action, {@code logistic(Eb)}
+     */
+    protected double noActionEUI;
+
+    /**
+     * cached experience score of every action entry, valid where {@link #euiVersions}
+     * equals the weight version of the entry's user; a version is published after its
+     * score, so that a thread reading a valid version reads the score computed for it
+     */
+    private double[] euiCache;
+    private AtomicIntegerArray euiVersions;
+
+    /**
+     * version of the implicit weight of every user from 1, see {@link #implicitWeightChanged(int)},
+     * incremented atomically by the training threads
+     */
+    private AtomicIntegerArray weightVersions;
+
+    /**
+     * implicit weight at the best validation, see {@link #saveBestModel()}
+     */
+    private double[][] bestImplicitWeight;
+
     /**
      * setup
      *
@@ -217,6 +247,14 @@ public abstract class AbstractRecommenders implements Recommender {
         trainMatrix = (SparseMatrix) getDataModel().getTrainDataSet();
         testMatrix = (SparseMatrix) getDataModel().getTestDataSet();
         validMatrix = (SparseMatrix) getDataModel().getValidDataSet();
+        validator = null;
+        if (isRanking && conf.getInt("rec.validation.interval", 0) > 0) {
+            if (validMatrix == null || validMatrix.size() == 0) {
+                LOG.warn("No validation set to validate on, set data.splitter.validset.ratio");
+            } else {
+                validator = new RankingValidator(this, validMatrix, trainMatrix.numColumns(), topN, conf);
+            }
+        }
         userMappingData = getDataModel().getUserMappingData();
         itemMappingData = getDataModel().getItemMappingData();
 
@@ -225,24 +263,14 @@ public abstract class AbstractRecommenders implements Recommender {
         numRates = trainMatrix.size();
         numActions = Integer.parseInt(conf.get("rec.num.action"));
 
+        actionMatrix = getDataModel().getActionMatrix();
+        if (actionMatrix != null && numActions > actionMatrix.numActions()) {
+            throw new IndexOutOfBoundsException("rec.num.action should not be more than the "
+                    + actionMatrix.numActions() + " action levels of the data model!");
+        }
+
         implicitWeight = new double[numUsers][numActions];
-        a1Action = getDataModel().getActionTable(1);
-        a2Action = getDataModel().getActionTable(2);
-        a3Action = getDataModel().getActionTable(3);
-        a4Action = getDataModel().getActionTable(4);
-        a7Action = getDataModel().getActionTable(7);
-        a8Action = getDataModel().getActionTable(8);
-        a9Action = getDataModel().getActionTable(9);
-
-        a1ItemCount = getDataModel().getItemCount(1);
-        a2ItemCount = getDataModel().getItemCount(2);
-        a3ItemCount = getDataModel().getItemCount(3);
-        a4ItemCount = getDataModel().getItemCount(4);
-        a7ItemCount = getDataModel().getItemCount(7);
-        a8ItemCount = getDataModel().getItemCount(8);
-        a9ItemCount = getDataModel().getItemCount(9);
-
-        itemPops = new HashMap<>();
+
 //        actionMean = getArrayMean();
 //        actionMean = 4730;
 
@@ -255,15 +283,8 @@ public abstract class AbstractRecommenders implements Recommender {
         }
         globalMean = trainMatrix.mean();
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
-        int maxNumTestItemsByUser = 0; //for idcg
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.rowSize(userIdx);
-            int numTestItemsByUser = testMatrix.rowSize(userIdx);
-            maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
-        }
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
-        conf.setInt("rec.eval.item.test.maxnum", maxNumTestItemsByUser);
+        // dropped items for AUC, max test items for idcg, purchase counts for novelty
+        context.setEvaluationContext(EvaluationContext.valueOf(trainMatrix, testMatrix));
 
         Ek = conf.getDouble("Ek",17.0);
         Eb = conf.getDouble("Eb",-3.0);
@@ -273,6 +294,19 @@ public abstract class AbstractRecommenders implements Recommender {
 
         Pok = conf.getDouble("Pok",0.04);
         Pob = conf.getDouble("Pob",-9.0);
+
+        noActionEUI = computeEUI(0.0d);
+        if (actionMatrix != null) {
+            ItemPopularityCache.Mode popularityMode = ItemPopularityCache.Mode.valueOf(
+                    conf.get("rec.popularity.mode", "lazy").toUpperCase());
+            itemPopularity = new ItemPopularityCache(popularityMode, actionMatrix, trainMatrix, implicitWeight, Pok, Pob,
+                    conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+            euiCache = new double[actionMatrix.size()];
+            euiVersions = new AtomicIntegerArray(actionMatrix.size());
+            int[] initialVersions = new int[numUsers];
+            Arrays.fill(initialVersions, 1);
+            weightVersions = new AtomicIntegerArray(initialVersions);
+        }
 //
 //
 //        Ek = conf.getDouble("Ek",5.0);
@@ -312,8 +346,12 @@ public abstract class AbstractRecommenders implements Recommender {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        resetEUICache();
         LOG.info("Job Train completed.");
         this.recommendedList = recommend();
+        if (itemPopularity != null && verbose) {
+            LOG.info(itemPopularity);
+        }
         LOG.info("Job End.");
         cleanup();
     }
@@ -327,7 +365,9 @@ public abstract class AbstractRecommenders implements Recommender {
      */
     protected RecommendedList recommend() throws LibrecException {
         if (isRanking && topN > 0) {
-            if (conf.getBoolean("rec.recommender.isOriginal")) {
+            if (conf.getInt("rec.eval.sampled.negatives", 0) > 0) {
+                recommendedList = recommendSampled();
+            } else if (conf.getBoolean("rec.recommender.isOriginal")) {
                 recommendedList = recommendRank();
             } else {
                 recommendedList = recommendRanks();
@@ -339,32 +379,42 @@ public abstract class AbstractRecommenders implements Recommender {
         return recommendedList;
     }
 
-    protected RecommendedList recommendRanks() {
+    /**
+     * recommend
+     * * rank the items of every user with the action-aware prediction. Users are split
+     * into blocks scored in parallel, each worker reusing one score buffer and one
+     * bounded heap, and only the topN items of each user are written into the list.
+     *
+     * @return predictive ranking list
+     * @throws LibrecException if error occurs during recommending
+     */
+    protected RecommendedList recommendRanks() throws LibrecException {
         recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
-        try {
-            for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-
-                //purchased (training positive) data set
-                Set<Integer> itemSet = trainMatrix.getColumnsSetPurchase(userIdx);
+        fillItemPopularity();
 
-                for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                    if (itemSet.contains(itemIdx)) {
-                        continue;
-                    }
-
-                    //iterate all implicit feedback data
-                    double eui = computeEUI(userIdx, itemIdx);
-                    double predictRating = predict(userIdx, itemIdx, eui);
+        int numThreads = conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors());
+        int blockSize = conf.getInt("rec.recommender.ranking.blocksize", 256);
+        List<RankingTask> tasks = new ArrayList<>();
+        for (int fromUser = 0; fromUser < numUsers; fromUser += blockSize) {
+            tasks.add(new RankingTask(fromUser, Math.min(fromUser + blockSize, numUsers)));
+        }
 
-                    if (Double.isNaN(predictRating)) {
-                        continue;
-                    }
-                    recommendedList.addUserItemIdx(userIdx, itemIdx, predictRating);
-                }
-                recommendedList.topNRankItemsByUser(userIdx, topN);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, tasks.size())));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
             }
-        } catch (LibrecException e) {
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw new LibrecException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        for (RankingTask task : tasks) {
+            task.addTo(recommendedList);
         }
 
         if (recommendedList.size() == 0) {
@@ -381,6 +431,187 @@ public abstract class AbstractRecommenders implements Recommender {
         return recommendedList;
     }
 
+    /**
+     * score every item for the users of [fromUser, toUser) into a buffer, purchased
+     * (training positive) items are marked as NaN. Called by recommendRanks after
+     * {@link #fillItemPopularity()}, subclasses may override it with a batch kernel
+     * as long as the scores equal those of {@link #predict(int, int, double)}.
+     *
+     * @param fromUser the first user (inclusive)
+     * @param toUser   the last user (exclusive)
+     * @param scores   row-major buffer of at least (toUser - fromUser) * numItems length,
+     *                 the score of user userIdx on item itemIdx is stored at
+     *                 {@code (userIdx - fromUser) * numItems + itemIdx}
+     * @throws LibrecException if error occurs during predicting
+     */
+    protected void rankScores(int fromUser, int toUser, double[] scores) throws LibrecException {
+        for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+            int offset = (userIdx - fromUser) * numItems;
+            Arrays.fill(scores, offset, offset + numItems, 0.0d);
+            maskPurchased(userIdx, scores, offset);
+
+            // walk the user's action row alongside the item sweep
+            int actionCursor = actionMatrix.rowPtr[userIdx];
+            int actionEnd = actionMatrix.rowPtr[userIdx + 1];
+
+            for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
+                if (Double.isNaN(scores[offset + itemIdx])) {
+                    continue;
+                }
+
+                //iterate all implicit feedback data
+                while (actionCursor < actionEnd && actionMatrix.colInd[actionCursor] < itemIdx) {
+                    actionCursor++;
+                }
+                double eui = actionCursor < actionEnd && actionMatrix.colInd[actionCursor] == itemIdx
+                        ? computeEUIAt(userIdx, actionCursor) : noActionEUI;
+                scores[offset + itemIdx] = predict(userIdx, itemIdx, eui);
+            }
+        }
+    }
+
+    /**
+     * mark the purchased (training positive) items of user userIdx as NaN in a score buffer
+     *
+     * @param userIdx user index
+     * @param scores  score buffer
+     * @param offset  position of the first item of the user in the buffer
+     */
+    protected void maskPurchased(int userIdx, double[] scores, int offset) {
+        for (int idx = trainMatrix.rowPtr[userIdx]; idx < trainMatrix.rowPtr[userIdx + 1]; idx++) {
+            if (trainMatrix.rowData[idx] == 1.0) {
+                scores[offset + trainMatrix.colInd[idx]] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * fill the popularity of every item before the parallel ranking, see
+     * {@link ItemPopularityCache#fill()}
+     *
+     * @throws LibrecException if error occurs during filling
+     */
+    protected void fillItemPopularity() throws LibrecException {
+        itemPopularity.fill();
+    }
+
+    /**
+     * rank the users of [fromUser, toUser) and keep the topN items of each user
+     */
+    private class RankingTask implements Callable<Void> {
+        private final int fromUser, toUser;
+        private final int[] rankedItems;
+        private final double[] rankedScores;
+        private final int[] rankedSizes;
+
+        RankingTask(int fromUser, int toUser) {
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            this.rankedItems = new int[(toUser - fromUser) * topN];
+            this.rankedScores = new double[(toUser - fromUser) * topN];
+            this.rankedSizes = new int[toUser - fromUser];
+        }
+
+        @Override
+        public Void call() throws LibrecException {
+            int batchSize = Math.max(1, Math.min(toUser - fromUser, RANKING_BUFFER_SIZE / Math.max(1, numItems)));
+            double[] scores = new double[batchSize * numItems];
+            TopNHeap heap = new TopNHeap(topN);
+            for (int batchStart = fromUser; batchStart < toUser; batchStart += batchSize) {
+                int batchEnd = Math.min(batchStart + batchSize, toUser);
+                rankScores(batchStart, batchEnd, scores);
+                for (int userIdx = batchStart; userIdx < batchEnd; userIdx++) {
+                    int scoreOffset = (userIdx - batchStart) * numItems;
+                    heap.clear();
+                    for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                        double score = scores[scoreOffset + itemIdx];
+                        if (!Double.isNaN(score)) {
+                            heap.offer(itemIdx, score);
+                        }
+                    }
+                    int size = heap.sort();
+                    int offset = (userIdx - fromUser) * topN;
+                    for (int pos = 0; pos < size; pos++) {
+                        rankedItems[offset + pos] = heap.getIndex(pos);
+                        rankedScores[offset + pos] = heap.getScore(pos);
+                    }
+                    rankedSizes[userIdx - fromUser] = size;
+                }
+            }
+            return null;
+        }
+
+        void addTo(RecommendedList recommendedList) {
+            for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                int offset = (userIdx - fromUser) * topN;
+                for (int pos = 0; pos < rankedSizes[userIdx - fromUser]; pos++) {
+                    recommendedList.addUserItemIdx(userIdx, rankedItems[offset + pos], rankedScores[offset + pos]);
+                }
+            }
+        }
+    }
+
+    /**
+     * recommend
+     * * rank every test item among rec.eval.sampled.negatives items sampled from the
+     * items the user has not purchased, instead of all the items, see {@link SampledRanks}.
+     * The items are scored as by recommendRanks, in parallel over users, or as by
+     * recommendRank in a single thread if rec.recommender.isOriginal is set. The ranks
+     * are put on the evaluation context and the recommended list is left empty.
+     *
+     * @return empty recommended list
+     * @throws LibrecException if error occurs during recommending
+     */
+    protected RecommendedList recommendSampled() throws LibrecException {
+        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        int numNegatives = conf.getInt("rec.eval.sampled.negatives", 0);
+        long seed = conf.getLong("rec.random.seed", 1L);
+
+        SampledRanks sampledRanks;
+        if (conf.getBoolean("rec.recommender.isOriginal")) {
+            final RowColumnSets userItemsSet = trainMatrix.getColumnSets();
+            sampledRanks = SampledRanks.build(testMatrix.getColumnSets(), numItems, numNegatives, seed, 1,
+                    new SampledRanks.Scorer() {
+                        @Override
+                        public boolean isCandidate(int userIdx, int itemIdx) {
+                            return !userItemsSet.contains(userIdx, itemIdx);
+                        }
+
+                        @Override
+                        public int numTrained(int userIdx) {
+                            return userItemsSet.size(userIdx);
+                        }
+
+                        @Override
+                        public double score(int userIdx, int itemIdx) throws LibrecException {
+                            return predict(userIdx, itemIdx);
+                        }
+                    });
+        } else {
+            fillItemPopularity();
+            sampledRanks = SampledRanks.build(testMatrix.getColumnSets(), numItems, numNegatives, seed,
+                    conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()),
+                    new SampledRanks.Scorer() {
+                        @Override
+                        public boolean isCandidate(int userIdx, int itemIdx) {
+                            return trainMatrix.get(userIdx, itemIdx) != 1.0;
+                        }
+
+                        @Override
+                        public int numTrained(int userIdx) {
+                            return trainMatrix.rowPtr[userIdx + 1] - trainMatrix.rowPtr[userIdx];
+                        }
+
+                        @Override
+                        public double score(int userIdx, int itemIdx) throws LibrecException {
+                            return predict(userIdx, itemIdx, computeEUI(userIdx, itemIdx));
+                        }
+                    });
+        }
+        context.getEvaluationContext().setSampledRanks(sampledRanks);
+        return recommendedList;
+    }
+
     /**
      * recommend
      * * predict the ranking scores in the test data
@@ -391,10 +622,10 @@ public abstract class AbstractRecommenders implements Recommender {
     protected RecommendedList recommendRank() throws LibrecException {
         recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
 
+        RowColumnSets userItemsSet = trainMatrix.getColumnSets();
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            Set<Integer> itemSet = trainMatrix.getColumnsSet(userIdx);
             for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                if (itemSet.contains(itemIdx)) {
+                if (userItemsSet.contains(userIdx, itemIdx)) {
                     continue;
                 }
                 double predictRating = predict(userIdx, itemIdx);
@@ -490,9 +721,27 @@ public abstract class AbstractRecommenders implements Recommender {
      */
     public Map<MeasureValue, Double> evaluateMap() {
         Map<MeasureValue, Double> evaluatedMap = new HashMap<>();
-        List<MeasureValue> measureValueList = Measure.getMeasureEnumList(isRanking, topN);
+        // the sampled negatives protocol only has the ranks of the test items, no recommended list
+        boolean isSampled = isRanking && context.getEvaluationContext().getSampledRanks() != null;
+        List<MeasureValue> measureValueList = isSampled ? Measure.getSampledEnumList(topN)
+                : Measure.getMeasureEnumList(isRanking, topN);
         if (measureValueList != null) {
+            // the ranking measures are evaluated together in a single sweep over the users
+            List<MeasureValue> fusedValueList = new ArrayList<>();
+            if (isRanking && conf.getBoolean("rec.eval.fused", true)) {
+                for (MeasureValue measureValue : measureValueList) {
+                    if (FusedRankingEvaluator.isSupported(measureValue.getMeasure())) {
+                        fusedValueList.add(measureValue);
+                    }
+                }
+                if (!fusedValueList.isEmpty()) {
+                    evaluatedMap.putAll(new FusedRankingEvaluator(fusedValueList).evaluate(context, recommendedList));
+                }
+            }
             for (MeasureValue measureValue : measureValueList) {
+                if (fusedValueList.contains(measureValue)) {
+                    continue;
+                }
                 RecommenderEvaluator evaluator = ReflectionUtil
                         .newInstance(measureValue.getMeasure().getEvaluatorClass());
                 if (isRanking && measureValue.getTopN() != null && measureValue.getTopN() > 0) {
@@ -623,92 +872,167 @@ public abstract class AbstractRecommenders implements Recommender {
         return converged;
     }
 
-    protected double computeEUI(int user, int item) {
+    /**
+     * validate the model on the validation set after an iteration, see {@link RankingValidator}
+     *
+     * @param iter current iteration
+     * @return true if the validation measure has stopped improving and training should stop
+     * @throws LibrecException if error occurs during validating
+     */
+    protected boolean isValidationStopped(int iter) throws LibrecException {
+        return validator != null && validator.validate(iter);
+    }
 
-        double eui = 0.0d;
+    /**
+     * keep a copy of the learned parameters, called by {@link RankingValidator} whenever
+     * the validation measure improves. Subclasses add the parameters they learn.
+     */
+    protected void saveBestModel() {
+        bestImplicitWeight = copyRows(implicitWeight, bestImplicitWeight);
+    }
 
-        double[] tempImpWeight = implicitWeight[user];
+    /**
+     * put back the parameters kept by {@link #saveBestModel()}, called by
+     * {@link RankingValidator} when training stops early. The cached experience scores
+     * are invalidated and, in the epoch mode, the item popularity is recomputed.
+     *
+     * @throws LibrecException if the item popularity can not be recomputed
+     */
+    protected void restoreBestModel() throws LibrecException {
+        if (bestImplicitWeight == null) {
+            return;
+        }
+        copyRows(bestImplicitWeight, implicitWeight);
+        resetEUICache();
+        if (itemPopularity != null) {
+            itemPopularity.startEpoch();
+        }
+    }
 
-        int[] implicitActions = getActions(user, item);
-        if (implicitActions != null) {
-            for (int idx = 0; idx < numActions; idx++) {
-                eui += implicitActions[idx] * tempImpWeight[idx];
-//                actionCount[idx] += implicitActions[idx];
+    /**
+     * copy the rows of a matrix into another one of the same shape
+     *
+     * @param source the rows to copy
+     * @param target the rows to copy into, null to allocate them
+     * @return the target rows
+     */
+    protected static double[][] copyRows(double[][] source, double[][] target) {
+        if (target == null) {
+            target = new double[source.length][];
+        }
+        for (int row = 0; row < source.length; row++) {
+            if (target[row] == null) {
+                target[row] = new double[source[row].length];
             }
-        } else {
-            eui += 0.0;
+            System.arraycopy(source[row], 0, target[row], 0, source[row].length);
         }
+        return target;
+    }
 
-        eui = Ek * eui + Eb;
-        eui = Maths.logistic(eui);
-        return eui;
+    /**
+     * compute the experience score of user user on item item, {@link #noActionEUI} if the
+     * user has no action on the item
+     *
+     * @param user user index
+     * @param item item index
+     * @return experience score
+     */
+    protected double computeEUI(int user, int item) {
+        int index = actionMatrix.getIndex(user, item);
+        return index >= 0 ? computeEUIAt(user, index) : noActionEUI;
     }
 
+    /**
+     * get the experience score of an action entry of user user, computed again only after
+     * the implicit weight of the user has changed
+     *
+     * @param user  user index
+     * @param index CRS position of the entry in {@link #actionMatrix}
+     * @return experience score
+     */
+    protected double computeEUIAt(int user, int index) {
+        int version = weightVersions.get(user);
+        if (euiVersions.get(index) != version) {
+            double eui = computeEUI(actionMatrix.dotAt(index, implicitWeight[user]));
+            euiCache[index] = eui;
+            euiVersions.lazySet(index, version);
+            return eui;
+        }
+        return euiCache[index];
+    }
 
-    public int[] getActions(int userIdx, int itemIdx){
-        int[] actions = new int[]{0,0,0,0,0,0,0};
+    /**
+     * invalidate the cached experience scores of user user, to be called whenever
+     * {@code implicitWeight[user]} is rewritten
+     *
+     * @param user user index
+     */
+    protected void implicitWeightChanged(int user) {
+        weightVersions.incrementAndGet(user);
+    }
 
-        if (a1Action.contains(userIdx, itemIdx)){
-            actions[0] = a1Action.get(userIdx, itemIdx);
-        }
-        if (a2Action.contains(userIdx, itemIdx)){
-            actions[1] = a2Action.get(userIdx, itemIdx);
-        }
-        if (a3Action.contains(userIdx, itemIdx)){
-            actions[2] = a3Action.get(userIdx, itemIdx);
-        }
-        if (a4Action.contains(userIdx, itemIdx)){
-            actions[3] = a4Action.get(userIdx, itemIdx);
-        }
-        if (a7Action.contains(userIdx, itemIdx)){
-            actions[4] = a7Action.get(userIdx, itemIdx);
-        }
-        if (a8Action.contains(userIdx, itemIdx)){
-            actions[5] = a8Action.get(userIdx, itemIdx);
-        }
-        if (a9Action.contains(userIdx, itemIdx)){
-            actions[6] = a9Action.get(userIdx, itemIdx);
+    /**
+     * invalidate all the cached experience scores once training has ended. Under lock-free
+     * training, a score may have been computed from a weight being rewritten by another
+     * thread and tagged with the version that followed, it must not outlive training.
+     */
+    protected void resetEUICache() {
+        if (euiVersions != null) {
+            euiVersions = new AtomicIntegerArray(euiVersions.length());
         }
+    }
+
+    /**
+     * compute the experience score from the weighted sum of a user's actions on an item
+     *
+     * @param actions sum of action counts weighted by the user's implicit weight
+     * @return experience score
+     */
+    protected double computeEUI(double actions) {
+        return Maths.logistic(Ek * actions + Eb);
+    }
+
+    /**
+     * copy the action counts of user userIdx on item itemIdx into a buffer
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @param actions buffer of at least numActions length
+     * @return the buffer
+     */
+    public int[] getActions(int userIdx, int itemIdx, int[] actions) {
+        actionMatrix.getActions(userIdx, itemIdx, actions);
         return actions;
     }
 
     public double computePopualrity(int userIdx, int itemIdx) {
-        double popu = 0.0;
-        double[] userWeight = implicitWeight[userIdx];
-        int[] itemCount = getItemCount(itemIdx);
-
-        for (int i = 0; i < numActions; i++){
-            popu += itemCount[i] * userWeight[i];
-        }
+        double popu = actionMatrix.columnDot(itemIdx, implicitWeight[userIdx]);
 
         popu =Pok * popu + Pob;
         popu = Maths.logistic(popu);
         return popu;
     }
 
-    public int[] getItemCount(int itemIdx) {
-        int[] itemCount = new int[]{0, 0, 0, 0, 0, 0, 0};
-        if (a1ItemCount.containsKey(itemIdx)) {
-            itemCount[0] = a1ItemCount.get(itemIdx);
-        }
-        if (a2ItemCount.containsKey(itemIdx)) {
-            itemCount[1] = a2ItemCount.get(itemIdx);
-        }
-        if (a3ItemCount.containsKey(itemIdx)) {
-            itemCount[2] = a3ItemCount.get(itemIdx);
-        }
-        if (a4ItemCount.containsKey(itemIdx)) {
-            itemCount[3] = a4ItemCount.get(itemIdx);
-        }
-        if (a7ItemCount.containsKey(itemIdx)) {
-            itemCount[4] = a7ItemCount.get(itemIdx);
-        }
-        if (a8ItemCount.containsKey(itemIdx)) {
-            itemCount[5] = a8ItemCount.get(itemIdx);
-        }
-        if (a9ItemCount.containsKey(itemIdx)) {
-            itemCount[6] = a9ItemCount.get(itemIdx);
-        }
+    /**
+     * get the cached popularity of item itemIdx, computing it with the weight of user userIdx on a miss
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return popularity of item itemIdx
+     */
+    protected double getItemPopularity(int userIdx, int itemIdx) throws LibrecException {
+        return itemPopularity.get(userIdx, itemIdx);
+    }
+
+    /**
+     * copy the action totals of item itemIdx into a buffer
+     *
+     * @param itemIdx   item index
+     * @param itemCount buffer of at least numActions length
+     * @return the buffer
+     */
+    public int[] getItemCount(int itemIdx, int[] itemCount) {
+        actionMatrix.getColumnCounts(itemIdx, itemCount);
         return itemCount;
     }
 
@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.ActionMatrix;
+import net.librec.math.structure.SparseMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Cache of the item popularity {@code logistic(Pok * sum(count(item, action) * weight(action)) + Pob)}
+ * of the action-aware recommenders, where the weight is the implicit weight of a user.
+ * <p>
+ * The cache runs in one of three modes, see {@link Mode}, and may be read by several
+ * training threads at once. Lookups, misses and items recomputed in bulk are counted per
+ * thread and reported by {@link #toString()}.
+ */
+public class ItemPopularityCache {
+
+    /**
+     * How the popularity of an item is computed and kept
+     */
+    public enum Mode {
+        /**
+         * an item is computed with the weight of the first user asking for it and kept for
+         * the rest of the run, the behaviour of the original model; the popularity is never
+         * updated as the weights are learned and, with several training threads, which user
+         * comes first depends on the scheduling
+         */
+        LAZY,
+
+        /**
+         * all items are computed in bulk with the mean weight of the users at every
+         * {@link #startEpoch()}, lookups never compute; the mode that keeps the popularity
+         * consistent with the learned weights
+         */
+        EPOCH,
+
+        /**
+         * popularity is user-weighted, every lookup is computed with the weight of the
+         * asking user and nothing is kept
+         */
+        USER
+    }
+
+    /**
+     * the number of items below which a bulk recomputation runs in the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * states of a cached item
+     */
+    private static final int MISSING = 0, COMPUTING = 1, VALID = 2;
+
+    /**
+     * indices of the counters
+     */
+    private static final int HITS = 0, MISSES = 1, RECOMPUTES = 2;
+
+    private final Mode mode;
+    private final ActionMatrix actionMatrix;
+    private final SparseMatrix trainMatrix;
+    private final double[][] implicitWeight;
+    private final int numItems;
+    private final double Pok, Pob;
+    private final int numThreads;
+
+    /**
+     * popularity of each item, valid only where its state is {@link #VALID}, the state is
+     * claimed by a compare-and-set so that every item is written once in {@link Mode#LAZY} mode
+     */
+    private final double[] values;
+    private final AtomicIntegerArray states;
+
+    /**
+     * whether the items have been computed in bulk at least once
+     */
+    private volatile boolean recomputed;
+
+    /**
+     * whether the lookups of missing items leave them missing, see {@link #setReadOnly(boolean)}
+     */
+    private volatile boolean readOnly;
+
+    /**
+     * counters of every thread that used the cache, a thread only writes its own
+     */
+    private final List<long[]> threadCounters = new ArrayList<>();
+    private final ThreadLocal<long[]> counters = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            long[] threadCounter = new long[3];
+            synchronized (threadCounters) {
+                threadCounters.add(threadCounter);
+            }
+            return threadCounter;
+        }
+    };
+
+    /**
+     * @param mode           the cache mode
+     * @param actionMatrix   action counts, whose column totals give the popularity
+     * @param trainMatrix    training matrix, used to choose the users of a lazy fill
+     * @param implicitWeight implicit weight of every user, read when computing
+     * @param Pok            popularity scale
+     * @param Pob            popularity bias
+     * @param numThreads     the number of threads of a bulk recomputation
+     */
+    public ItemPopularityCache(Mode mode, ActionMatrix actionMatrix, SparseMatrix trainMatrix,
+                               double[][] implicitWeight, double Pok, double Pob, int numThreads) {
+        this.mode = mode;
+        this.actionMatrix = actionMatrix;
+        this.trainMatrix = trainMatrix;
+        this.implicitWeight = implicitWeight;
+        this.numItems = trainMatrix.numColumns();
+        this.Pok = Pok;
+        this.Pob = Pob;
+        this.numThreads = Math.max(1, numThreads);
+        this.values = new double[numItems];
+        this.states = new AtomicIntegerArray(numItems);
+    }
+
+    /**
+     * @return the cache mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Make the lookups read only or not. While read only, the missing items of
+     * {@link Mode#LAZY} mode are computed with the weight of the asking user and not
+     * kept, so that lookups out of training, e.g. by a validation, do not fix them.
+     *
+     * @param readOnly whether the lookups are read only
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * compute the popularity of an item with a weight
+     *
+     * @param itemIdx item index
+     * @param weight  implicit weight
+     * @return popularity of the item
+     */
+    public double compute(int itemIdx, double[] weight) {
+        return Maths.logistic(Pok * actionMatrix.columnDot(itemIdx, weight) + Pob);
+    }
+
+    /**
+     * get the popularity of item itemIdx for user userIdx
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return popularity of the item
+     * @throws LibrecException if a bulk recomputation fails
+     */
+    public double get(int userIdx, int itemIdx) throws LibrecException {
+        switch (mode) {
+            case USER:
+                counters.get()[MISSES]++;
+                return compute(itemIdx, implicitWeight[userIdx]);
+            case EPOCH:
+                if (!recomputed) {
+                    recomputeOnce();
+                }
+                counters.get()[HITS]++;
+                return values[itemIdx];
+            default:
+                if (states.get(itemIdx) == VALID) {
+                    counters.get()[HITS]++;
+                    return values[itemIdx];
+                }
+                if (readOnly) {
+                    counters.get()[MISSES]++;
+                    return compute(itemIdx, implicitWeight[userIdx]);
+                }
+                return computeOnce(userIdx, itemIdx);
+        }
+    }
+
+    /**
+     * compute a missing item with the weight of user userIdx in {@link Mode#LAZY} mode, the
+     * user that claims the item first wins and the other users read its value
+     */
+    private double computeOnce(int userIdx, int itemIdx) {
+        double value = compute(itemIdx, implicitWeight[userIdx]);
+        if (states.compareAndSet(itemIdx, MISSING, COMPUTING)) {
+            values[itemIdx] = value;
+            // the volatile write publishes the value to the threads reading the state
+            states.set(itemIdx, VALID);
+            counters.get()[MISSES]++;
+            return value;
+        }
+        while (states.get(itemIdx) != VALID) {
+            Thread.yield();
+        }
+        counters.get()[HITS]++;
+        return values[itemIdx];
+    }
+
+    /**
+     * get the popularity of every item for user userIdx, after {@link #fill()} unless
+     * the lookups are read only
+     *
+     * @param userIdx user index
+     * @param buffer  buffer of numItems length filled in {@link Mode#USER} mode or by read
+     *                only lookups in {@link Mode#LAZY} mode, allocated if null
+     * @return the shared popularity of the items, or the buffer when it is filled
+     */
+    public double[] getAll(int userIdx, double[] buffer) {
+        boolean lazyReadOnly = mode == Mode.LAZY && readOnly;
+        if (mode != Mode.USER && !lazyReadOnly) {
+            counters.get()[HITS] += numItems;
+            return values;
+        }
+        if (buffer == null || buffer == values) {
+            buffer = new double[numItems];
+        }
+        double[] weight = implicitWeight[userIdx];
+        int numComputed = 0;
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            if (lazyReadOnly && states.get(itemIdx) == VALID) {
+                buffer[itemIdx] = values[itemIdx];
+            } else {
+                buffer[itemIdx] = compute(itemIdx, weight);
+                numComputed++;
+            }
+        }
+        counters.get()[HITS] += numItems - numComputed;
+        counters.get()[MISSES] += numComputed;
+        return buffer;
+    }
+
+    /**
+     * mark an epoch boundary: in {@link Mode#EPOCH} mode every item is recomputed in bulk
+     * with the current weights, the other modes are left as they are
+     *
+     * @throws LibrecException if the recomputation fails
+     */
+    public void startEpoch() throws LibrecException {
+        if (mode == Mode.EPOCH) {
+            recompute();
+        }
+    }
+
+    /**
+     * make the shared popularity of every item available to {@link #getAll}: in
+     * {@link Mode#LAZY} mode the missing items are computed with the weight of the first
+     * user that has not purchased the item, the same user that a sequential sweep over the
+     * users would compute it with; in {@link Mode#EPOCH} mode all items are recomputed
+     *
+     * @throws LibrecException if the recomputation fails
+     */
+    public void fill() throws LibrecException {
+        if (mode == Mode.EPOCH) {
+            recompute();
+        } else if (mode == Mode.LAZY) {
+            int numUsers = trainMatrix.numRows();
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                if (states.get(itemIdx) == VALID) {
+                    continue;
+                }
+                int userIdx = 0;
+                for (int idx = trainMatrix.colPtr[itemIdx]; idx < trainMatrix.colPtr[itemIdx + 1]; idx++) {
+                    if (trainMatrix.rowInd[idx] != userIdx || trainMatrix.colData[idx] != 1.0) {
+                        break;
+                    }
+                    userIdx++;
+                }
+                if (userIdx < numUsers) {
+                    get(userIdx, itemIdx);
+                }
+            }
+        }
+    }
+
+    /**
+     * recompute every item unless another thread already has, before the first epoch
+     */
+    private synchronized void recomputeOnce() throws LibrecException {
+        if (!recomputed) {
+            recompute();
+        }
+    }
+
+    /**
+     * recompute every item with the mean weight of the users, in parallel over items
+     */
+    private synchronized void recompute() throws LibrecException {
+        double[] meanWeight = new double[implicitWeight.length > 0 ? implicitWeight[0].length : 0];
+        for (double[] weight : implicitWeight) {
+            for (int idx = 0; idx < meanWeight.length; idx++) {
+                meanWeight[idx] += weight[idx];
+            }
+        }
+        for (int idx = 0; idx < meanWeight.length; idx++) {
+            meanWeight[idx] /= Math.max(1, implicitWeight.length);
+        }
+
+        int numTasks = numItems < PARALLEL_THRESHOLD ? 1 : numThreads;
+        List<RecomputeTask> tasks = new ArrayList<>();
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            tasks.add(new RecomputeTask((int) ((long) numItems * taskIdx / numTasks),
+                    (int) ((long) numItems * (taskIdx + 1) / numTasks), meanWeight));
+        }
+        if (numTasks == 1) {
+            tasks.get(0).call();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(numTasks);
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LibrecException(e);
+            } catch (ExecutionException e) {
+                throw new LibrecException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+        counters.get()[RECOMPUTES] += numItems;
+        recomputed = true;
+    }
+
+    /**
+     * recompute the items of [fromItem, toItem)
+     */
+    private class RecomputeTask implements Callable<Void> {
+        private final int fromItem, toItem;
+        private final double[] weight;
+
+        RecomputeTask(int fromItem, int toItem, double[] weight) {
+            this.fromItem = fromItem;
+            this.toItem = toItem;
+            this.weight = weight;
+        }
+
+        @Override
+        public Void call() {
+            for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+                values[itemIdx] = compute(itemIdx, weight);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the mode and the counters of the cache
+     */
+    @Override
+    public String toString() {
+        long[] total = new long[3];
+        synchronized (threadCounters) {
+            for (long[] threadCounter : threadCounters) {
+                for (int idx = 0; idx < total.length; idx++) {
+                    total[idx] += threadCounter[idx];
+                }
+            }
+        }
+        return "item popularity cache (" + mode.name().toLowerCase() + "): " + total[HITS] + " hits, "
+                + total[MISSES] + " misses, " + total[RECOMPUTES] + " items recomputed in bulk";
+    }
+}
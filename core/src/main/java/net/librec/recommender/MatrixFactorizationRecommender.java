@@ -2,6 +2,7 @@ package net.librec.recommender;
 
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
+import net.librec.recommender.item.RecommendedList;
 
 /**
  * Matrix Factorization Recommender
@@ -85,6 +86,19 @@ public abstract class MatrixFactorizationRecommender extends AbstractRecommender
         itemFactors.init(initMean, initStd);
     }
 
+    /**
+     * recommend, with the learned item factors put on the evaluation context for
+     * {@link net.librec.eval.ranking.IntraListDiversityEvaluator}
+     *
+     * @return predictive ranking score or rating matrix
+     * @throws LibrecException if error occurs during recommending
+     */
+    @Override
+    protected RecommendedList recommend() throws LibrecException {
+        context.getEvaluationContext().setItemFactors(itemFactors);
+        return super.recommend();
+    }
+
     /**
      * predict a specific rating for user userIdx on item itemIdx.
      *
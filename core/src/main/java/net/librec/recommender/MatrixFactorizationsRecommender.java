@@ -4,6 +4,7 @@ import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
+import net.librec.recommender.item.RecommendedList;
 
 import java.util.*;
 
@@ -66,6 +67,11 @@ public abstract class MatrixFactorizationsRecommender extends AbstractRecommende
 
     protected float a;
 
+    /**
+     * user and item latent factors at the best validation, see {@link #saveBestModel()}
+     */
+    private double[][] bestUserFactors, bestItemFactors;
+
     /**
      * setup
      * init member method
@@ -75,8 +81,6 @@ public abstract class MatrixFactorizationsRecommender extends AbstractRecommende
     protected void setup() throws LibrecException {
         super.setup();
 
-        itemPops = new HashMap<>();
-
         numIterations = conf.getInt("rec.iterator.maximum", 100);
         learnRate = conf.getFloat("rec.iterator.learnrate", 0.01f);
         maxLearnRate = conf.getFloat("rec.iterator.learnrate.maximum", 0.01f);
@@ -124,6 +128,35 @@ public abstract class MatrixFactorizationsRecommender extends AbstractRecommende
     }
 
 
+    /**
+     * recommend, with the learned item factors put on the evaluation context for
+     * {@link net.librec.eval.ranking.IntraListDiversityEvaluator}
+     *
+     * @return predictive ranking score or rating matrix
+     * @throws LibrecException if error occurs during recommending
+     */
+    @Override
+    protected RecommendedList recommend() throws LibrecException {
+        context.getEvaluationContext().setItemFactors(itemFactors);
+        return super.recommend();
+    }
+
+    @Override
+    protected void saveBestModel() {
+        super.saveBestModel();
+        bestUserFactors = copyRows(userFactors.data, bestUserFactors);
+        bestItemFactors = copyRows(itemFactors.data, bestItemFactors);
+    }
+
+    @Override
+    protected void restoreBestModel() throws LibrecException {
+        if (bestUserFactors != null) {
+            copyRows(bestUserFactors, userFactors.data);
+            copyRows(bestItemFactors, itemFactors.data);
+        }
+        super.restoreBestModel();
+    }
+
     /**
      * predict a specific rating for user userIdx on item itemIdx.
      *
@@ -140,22 +173,46 @@ public abstract class MatrixFactorizationsRecommender extends AbstractRecommende
     }
 
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-
-        if (!itemPops.containsKey(itemIdx)) {
-            double itemPopularity = computePopualrity(itemIdx, userIdx);
-            itemPops.put(itemIdx, itemPopularity);
-        }
-
-        return 0;
+        return predict(userIdx, itemIdx, computeEUI(userIdx, itemIdx));
     }
 
     @Override
     protected double predict(int userIdx, int itemIdx, double eui) throws LibrecException {
-        if (!itemPops.containsKey(itemIdx)) {
-            double itemPopularity = computePopualrity(userIdx, itemIdx);
-            itemPops.put(itemIdx, itemPopularity);
+        return a * getItemPopularity(userIdx, itemIdx) + mfPredict(userIdx, itemIdx) + (1 - a) * eui;
+    }
+
+    /**
+     * batch version of {@link #predict(int, int, double)}: the factor products of the users
+     * are computed against all items as one blocked matrix multiply into the buffer, then
+     * the logistic, popularity and experience terms are applied over it.
+     *
+     * @param fromUser the first user (inclusive)
+     * @param toUser   the last user (exclusive)
+     * @param scores   row-major buffer of at least (toUser - fromUser) * numItems length
+     * @throws LibrecException if error occurs during predicting
+     */
+    @Override
+    protected void rankScores(int fromUser, int toUser, double[] scores) throws LibrecException {
+        DenseMatrix.rowMult(userFactors, fromUser, toUser, itemFactors, scores);
+
+        // experience term of the items without any action
+        double noActionEui = (1 - a) * noActionEUI;
+        double[] popularity = null;
+        for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+            int offset = (userIdx - fromUser) * numItems;
+            popularity = itemPopularity.getAll(userIdx, popularity);
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                scores[offset + itemIdx] = a * popularity[itemIdx] + Maths.logistic(Pk * scores[offset + itemIdx] + Pb) + noActionEui;
+            }
+
+            // items with actions get their own experience term
+            for (int idx = actionMatrix.rowPtr[userIdx]; idx < actionMatrix.rowPtr[userIdx + 1]; idx++) {
+                int itemIdx = actionMatrix.colInd[idx];
+                double eui = computeEUIAt(userIdx, idx);
+                scores[offset + itemIdx] = a * popularity[itemIdx] + mfPredict(userIdx, itemIdx) + (1 - a) * eui;
+            }
+            maskPurchased(userIdx, scores, offset);
         }
-        return a * itemPops.get(itemIdx) + mfPredict(userIdx, itemIdx) + (1 - a) * eui;
     }
 
 
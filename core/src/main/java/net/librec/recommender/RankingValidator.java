@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.RowColumnSets;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.util.TopNHeap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * In-training validation of the action-aware recommenders on the validation set,
+ * with early stopping when the validation measure stops improving.
+ * <p>
+ * Every rec.validation.interval iterations, a fixed sample of the users with
+ * validation items is ranked with {@link AbstractRecommenders#rankScores} and the
+ * NDCG or recall of their top items against the validation set is computed, in
+ * parallel over blocks of the sampled users, each block reusing its own score
+ * buffer and heap. Training stops once the measure has not improved by more than
+ * rec.validation.min.delta for rec.validation.patience validations in a row, and the
+ * learned parameters of the best validation are then put back, so that the final model
+ * is the best iterate rather than the last one.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>rec.validation.interval: the number of iterations between validations, 0 for none</li>
+ * <li>rec.validation.users: the number of sampled users, 1000 by default, 0 for all of them</li>
+ * <li>rec.validation.measure: ndcg (default) or recall</li>
+ * <li>rec.validation.patience: the number of validations without improvement before stopping, 3 by default</li>
+ * <li>rec.validation.min.delta: the minimum improvement, 0 by default</li>
+ * <li>rec.validation.restore.best: whether to keep a copy of the parameters at the best
+ * validation and put it back on stopping, true by default; otherwise the final model is
+ * the last iterate</li>
+ * </ul>
+ * The users are sampled with rec.random.seed. The validation set is the validation
+ * subset of the data splitter, e.g. data.splitter.validset.ratio of the action split.
+ */
+public class RankingValidator {
+
+    private static final Log LOG = LogFactory.getLog(RankingValidator.class);
+
+    /**
+     * the number of sampled users below which the validation runs in the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final AbstractRecommenders recommender;
+    private final RowColumnSets validSets;
+    private final int numItems, topN;
+    private final int interval, patience;
+    private final double minDelta;
+    private final boolean isNDCG, restoreBest;
+
+    // the sampled validation users, in increasing order
+    private final int[] users;
+
+    // the ideal DCG of every number of hits
+    private final double[] idcgs;
+
+    // the value of every sampled user at the last validation
+    private final double[] values;
+
+    private final List<ValidationTask> tasks;
+
+    private double bestValue = Double.NEGATIVE_INFINITY;
+    private int bestIteration, numStaleValidations;
+
+    /**
+     * @param recommender the recommender to validate, whose scores are read between iterations
+     * @param validMatrix the validation set
+     * @param numItems    the number of items
+     * @param topN        the number of ranked items
+     * @param conf        configuration
+     * @throws LibrecException if the validation measure is unknown
+     */
+    public RankingValidator(AbstractRecommenders recommender, SparseMatrix validMatrix, int numItems, int topN,
+                            Configuration conf) throws LibrecException {
+        this.recommender = recommender;
+        this.validSets = validMatrix.getColumnSets();
+        this.numItems = numItems;
+        this.topN = topN;
+        this.interval = Math.max(1, conf.getInt("rec.validation.interval", 1));
+        this.patience = Math.max(1, conf.getInt("rec.validation.patience", 3));
+        this.minDelta = conf.getDouble("rec.validation.min.delta", 0.0d);
+        this.restoreBest = conf.getBoolean("rec.validation.restore.best", true);
+
+        String measure = conf.get("rec.validation.measure", "ndcg").toLowerCase();
+        if (!"ndcg".equals(measure) && !"recall".equals(measure)) {
+            throw new LibrecException("Unknown validation measure: " + measure + ", use ndcg or recall");
+        }
+        this.isNDCG = "ndcg".equals(measure);
+
+        this.users = sampleUsers(conf.getInt("rec.validation.users", 1000), conf.getLong("rec.random.seed", 1L));
+        this.values = new double[users.length];
+        this.idcgs = new double[topN + 1];
+        for (int index = 0; index < topN; index++) {
+            idcgs[index + 1] = 1.0d / Maths.log(index + 2, 2) + idcgs[index];
+        }
+
+        int numTasks = users.length < PARALLEL_THRESHOLD ? 1
+                : Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+        this.tasks = new ArrayList<>();
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            tasks.add(new ValidationTask((int) ((long) users.length * taskIdx / numTasks),
+                    (int) ((long) users.length * (taskIdx + 1) / numTasks)));
+        }
+    }
+
+    /**
+     * sample numSampledUsers of the users with validation items, all of them if there are not as many
+     */
+    private int[] sampleUsers(int numSampledUsers, long seed) {
+        int numUsers = validSets.numRows();
+        int[] candidates = new int[numUsers];
+        int numCandidates = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            if (validSets.size(userIdx) > 0) {
+                candidates[numCandidates++] = userIdx;
+            }
+        }
+        int size = numSampledUsers > 0 ? Math.min(numSampledUsers, numCandidates) : numCandidates;
+        if (size < numCandidates) {
+            // partial Fisher-Yates shuffle
+            Random random = new Random(seed);
+            for (int idx = 0; idx < size; idx++) {
+                int swapIdx = idx + random.nextInt(numCandidates - idx);
+                int userIdx = candidates[swapIdx];
+                candidates[swapIdx] = candidates[idx];
+                candidates[idx] = userIdx;
+            }
+        }
+        int[] sampledUsers = Arrays.copyOf(candidates, size);
+        Arrays.sort(sampledUsers);
+        return sampledUsers;
+    }
+
+    /**
+     * Validate the recommender at every interval-th iteration, keeping a copy of its
+     * parameters whenever the measure improves and putting the best ones back on stopping
+     *
+     * @param iter current iteration
+     * @return true if the validation measure has stopped improving and training should stop
+     * @throws LibrecException if error occurs during validating
+     */
+    public boolean validate(int iter) throws LibrecException {
+        if (iter % interval != 0) {
+            return false;
+        }
+        double value = evaluate();
+        if (value > bestValue + minDelta) {
+            bestValue = value;
+            bestIteration = iter;
+            numStaleValidations = 0;
+            if (restoreBest) {
+                recommender.saveBestModel();
+            }
+        } else {
+            numStaleValidations++;
+        }
+        LOG.info(recommender.getClass().getSimpleName() + " iter " + iter + ": valid " + (isNDCG ? "NDCG" : "Recall")
+                + "@" + topN + " = " + value + ", best = " + bestValue + " at iter " + bestIteration);
+
+        if (numStaleValidations >= patience) {
+            if (restoreBest) {
+                recommender.restoreBestModel();
+            }
+            LOG.info(recommender.getClass().getSimpleName() + " stops at iter " + iter + ": no improvement for "
+                    + patience + " validations, the final model is the one of iter "
+                    + (restoreBest ? bestIteration : iter));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluate the validation measure on the sampled users
+     *
+     * @return the mean value of the sampled users, 0 if there is none
+     * @throws LibrecException if error occurs during predicting
+     */
+    public double evaluate() throws LibrecException {
+        if (users.length == 0) {
+            return 0.0d;
+        }
+        // the lazy popularity of the items must not be fixed by the validation users
+        ItemPopularityCache itemPopularity = recommender.itemPopularity;
+        if (itemPopularity != null) {
+            itemPopularity.setReadOnly(true);
+        }
+        try {
+            if (tasks.size() == 1) {
+                tasks.get(0).call();
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+                try {
+                    for (Future<Void> future : executor.invokeAll(tasks)) {
+                        future.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LibrecException(e);
+                } catch (ExecutionException e) {
+                    throw new LibrecException(e.getCause());
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        } finally {
+            if (itemPopularity != null) {
+                itemPopularity.setReadOnly(false);
+            }
+        }
+
+        double total = 0.0d;
+        for (double value : values) {
+            total += value;
+        }
+        return total / users.length;
+    }
+
+    /**
+     * @return the best value of the validation measure so far
+     */
+    public double getBestValue() {
+        return bestValue;
+    }
+
+    /**
+     * @return the iteration of the best value of the validation measure
+     */
+    public int getBestIteration() {
+        return bestIteration;
+    }
+
+    /**
+     * validate the sampled users of [fromPos, toPos)
+     */
+    private class ValidationTask implements Callable<Void> {
+        private final int fromPos, toPos;
+        private final double[] scores;
+        private final TopNHeap heap;
+
+        ValidationTask(int fromPos, int toPos) {
+            this.fromPos = fromPos;
+            this.toPos = toPos;
+            this.scores = new double[numItems];
+            this.heap = new TopNHeap(topN);
+        }
+
+        @Override
+        public Void call() throws LibrecException {
+            for (int pos = fromPos; pos < toPos; pos++) {
+                int userIdx = users[pos];
+                recommender.rankScores(userIdx, userIdx + 1, scores);
+                heap.clear();
+                for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                    if (!Double.isNaN(scores[itemIdx])) {
+                        heap.offer(itemIdx, scores[itemIdx]);
+                    }
+                }
+                int topK = heap.sort();
+                int validSize = validSets.size(userIdx);
+
+                int numHits = 0;
+                double dcg = 0.0d;
+                for (int rank = 0; rank < topK; rank++) {
+                    if (validSets.contains(userIdx, heap.getIndex(rank))) {
+                        numHits++;
+                        dcg += 1.0d / Maths.log(rank + 2, 2);
+                    }
+                }
+                if (isNDCG) {
+                    int idealHits = Math.min(validSize, topK);
+                    values[pos] = idealHits > 0 ? dcg / idcgs[idealHits] : 0.0d;
+                } else {
+                    values[pos] = (double) numHits / validSize;
+                }
+            }
+            return null;
+        }
+    }
+}
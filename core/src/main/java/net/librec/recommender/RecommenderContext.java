@@ -23,6 +23,8 @@ import java.util.Map;
 import net.librec.common.AbstractContext;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvaluationContext;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.similarity.RecommenderSimilarity;
 
 /**
@@ -38,6 +40,8 @@ public class RecommenderContext extends AbstractContext {
 
     protected Map<String, RecommenderSimilarity> similarities;
 
+    protected EvaluationContext evaluationContext;
+
     public RecommenderContext(Configuration conf) {
         this.conf = conf;
     }
@@ -84,4 +88,26 @@ public class RecommenderContext extends AbstractContext {
         }
         this.similarities.put(similarityKey, similarity);
     }
+
+    /**
+     * Return the side data of the evaluators, computed from the split of the data
+     * model if the recommender has not set it.
+     *
+     * @return the evaluation context
+     */
+    public synchronized EvaluationContext getEvaluationContext() {
+        if (evaluationContext == null && dataModel != null) {
+            evaluationContext = EvaluationContext.valueOf((SparseMatrix) dataModel.getTrainDataSet(),
+                    (SparseMatrix) dataModel.getTestDataSet());
+        }
+        return evaluationContext;
+    }
+
+    /**
+     * @param evaluationContext
+     *            the side data of the evaluators
+     */
+    public synchronized void setEvaluationContext(EvaluationContext evaluationContext) {
+        this.evaluationContext = evaluationContext;
+    }
 }
@@ -20,14 +20,10 @@ package net.librec.recommender.cf;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.KNNSimilarityMatrix;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.SymmMatrix;
-import net.librec.math.structure.VectorEntry;
 import net.librec.recommender.AbstractRecommender;
-import net.librec.util.Lists;
-
-import java.util.*;
-import java.util.Map.Entry;
 
 /**
  * ItemKNNRecommender
@@ -38,10 +34,7 @@ import java.util.Map.Entry;
 public class ItemKNNRecommender extends AbstractRecommender {
     private int knn;
     private DenseVector itemMeans;
-    private SymmMatrix similarityMatrix;
-    private List<Map.Entry<Integer, Double>>[] itemSimilarityList;
-    private int currentUserIdx = -1;
-    private Set<Integer> currentItemIdxSet;
+    private KNNSimilarityMatrix similarityMatrix;
 
     /**
      * (non-Javadoc)
@@ -52,7 +45,7 @@ public class ItemKNNRecommender extends AbstractRecommender {
     protected void setup() throws LibrecException {
         super.setup();
         knn = conf.getInt("rec.neighbors.knn.number",50);
-        similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        similarityMatrix = context.getSimilarity().toKNNSimilarityMatrix();
     }
 
     /**
@@ -77,77 +70,37 @@ public class ItemKNNRecommender extends AbstractRecommender {
      * @see net.librec.recommender.AbstractRecommender#predict(int, int)
      */
     public double predict(int userIdx, int itemIdx) throws LibrecException {
-        //create itemSimilarityList if not exists
-        if (!(null != itemSimilarityList && itemSimilarityList.length > 0)) {
-            createItemSimilarityList();
-        }
-
-        if (currentUserIdx != userIdx) {
-            currentItemIdxSet = trainMatrix.getColumnsSet(userIdx);
-            currentUserIdx = userIdx;
-        }
-
-        // find a number of similar items
-        List<Map.Entry<Integer, Double>> nns = new ArrayList<>();
-        List<Map.Entry<Integer, Double>> simList = itemSimilarityList[itemIdx];
+        RowColumnSets itemIdxSets = trainMatrix.getColumnSets();
 
+        // find a number of similar items, rated by the user
+        double sum = 0.0d, ws = 0.0d;
         int count = 0;
-        for (Map.Entry<Integer, Double> itemRatingEntry : simList) {
-            int similarItemIdx = itemRatingEntry.getKey();
-            if (!currentItemIdxSet.contains(similarItemIdx)) {
+        for (int pos = 0, size = similarityMatrix.size(itemIdx); pos < size && (knn <= 0 || count < knn); pos++) {
+            int similarItemIdx = similarityMatrix.getNeighbor(itemIdx, pos);
+            if (!itemIdxSets.contains(userIdx, similarItemIdx)) {
                 continue;
             }
 
-            double sim = itemRatingEntry.getValue();
+            double sim = similarityMatrix.getValue(itemIdx, pos);
             if (isRanking) {
-                nns.add(itemRatingEntry);
+                sum += sim;
                 count++;
             } else if (sim > 0) {
-                nns.add(itemRatingEntry);
+                // for rating prediction
+                double rate = trainMatrix.get(userIdx, similarItemIdx);
+                sum += sim * (rate - itemMeans.get(similarItemIdx));
+                ws += Math.abs(sim);
                 count++;
             }
-            if (count == knn) {
-                break;
-            }
         }
-        if (nns.size() == 0) {
+        if (count == 0) {
             return isRanking ? 0 : globalMean;
         }
         if (isRanking) {
-            double sum = 0.0d;
-            for (Entry<Integer, Double> itemRatingEntry : nns) {
-                sum += itemRatingEntry.getValue();
-            }
             return sum;
         } else {
-            // for rating prediction
-            double sum = 0, ws = 0;
-            for (Entry<Integer, Double> itemRatingEntry : nns) {
-                int similarItemIdx = itemRatingEntry.getKey();
-                double sim = itemRatingEntry.getValue();
-                double rate = trainMatrix.get(userIdx, similarItemIdx);
-                sum += sim * (rate - itemMeans.get(similarItemIdx));
-                ws += Math.abs(sim);
-            }
             return ws > 0 ? itemMeans.get(itemIdx) + sum / ws : globalMean;
         }
     }
 
-    /**
-     * Create itemSimilarityList.
-     */
-    public void createItemSimilarityList() {
-        itemSimilarityList = new ArrayList[numItems];
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            SparseVector similarityVector = similarityMatrix.row(itemIdx);
-            itemSimilarityList[itemIdx] = new ArrayList<>(similarityVector.size());
-            Iterator<VectorEntry> simItr = similarityVector.iterator();
-            while (simItr.hasNext()) {
-                VectorEntry simVectorEntry = simItr.next();
-                itemSimilarityList[itemIdx].add(new AbstractMap.SimpleImmutableEntry<>(simVectorEntry.index(), simVectorEntry.get()));
-            }
-            Lists.sortList(itemSimilarityList[itemIdx], true);
-        }
-    }
-
 }
@@ -20,14 +20,11 @@ package net.librec.recommender.cf;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.KNNSimilarityMatrix;
 import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.SymmMatrix;
-import net.librec.math.structure.VectorEntry;
 import net.librec.recommender.AbstractRecommender;
-import net.librec.util.Lists;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * UserKNNRecommender
@@ -38,8 +35,7 @@ import java.util.Map.Entry;
 public class UserKNNRecommender extends AbstractRecommender {
     private int knn;
     private DenseVector userMeans;
-    private SymmMatrix similarityMatrix;
-    private List<Map.Entry<Integer, Double>>[] userSimilarityList;
+    private KNNSimilarityMatrix similarityMatrix;
 
     /**
      * (non-Javadoc)
@@ -50,7 +46,7 @@ public class UserKNNRecommender extends AbstractRecommender {
     protected void setup() throws LibrecException {
         super.setup();
         knn = conf.getInt("rec.neighbors.knn.number");
-        similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        similarityMatrix = context.getSimilarity().toKNNSimilarityMatrix();
     }
 
     /**
@@ -74,70 +70,35 @@ public class UserKNNRecommender extends AbstractRecommender {
      */
     @Override
     public double predict(int userIdx, int itemIdx) throws LibrecException {
-        //create userSimilarityList if not exists
-        if (!(null != userSimilarityList && userSimilarityList.length > 0)) {
-            createUserSimilarityList();
-        }
-        // find a number of similar users
-        List<Map.Entry<Integer, Double>> nns = new ArrayList<>();
-        List<Map.Entry<Integer, Double>> simList = userSimilarityList[userIdx];
-
+        // find a number of similar users, who rated the item
+        double sum = 0.0d, ws = 0.0d;
         int count = 0;
         Set<Integer> userSet = trainMatrix.getRowsSet(itemIdx);
-        for (Map.Entry<Integer, Double> userRatingEntry : simList) {
-            int similarUserIdx = userRatingEntry.getKey();
+        for (int pos = 0, size = similarityMatrix.size(userIdx); pos < size && (knn <= 0 || count < knn); pos++) {
+            int similarUserIdx = similarityMatrix.getNeighbor(userIdx, pos);
             if (!userSet.contains(similarUserIdx)) {
                 continue;
             }
-            double sim = userRatingEntry.getValue();
+
+            double sim = similarityMatrix.getValue(userIdx, pos);
             if (isRanking) {
-                nns.add(userRatingEntry);
+                sum += sim;
                 count++;
             } else if (sim > 0) {
-                nns.add(userRatingEntry);
+                // for rating prediction
+                double rate = trainMatrix.get(similarUserIdx, itemIdx);
+                sum += sim * (rate - userMeans.get(similarUserIdx));
+                ws += Math.abs(sim);
                 count++;
             }
-            if (count == knn) {
-                break;
-            }
         }
-        if (nns.size() == 0) {
+        if (count == 0) {
             return isRanking ? 0 : globalMean;
         }
         if (isRanking) {
-            double sum = 0.0d;
-            for (Entry<Integer, Double> userRatingEntry : nns) {
-                sum += userRatingEntry.getValue();
-            }
             return sum;
         } else {
-            // for rating prediction
-            double sum = 0, ws = 0;
-            for (Entry<Integer, Double> userRatingEntry : nns) {
-                int similarUserIdx = userRatingEntry.getKey();
-                double sim = userRatingEntry.getValue();
-                double rate = trainMatrix.get(similarUserIdx, itemIdx);
-                sum += sim * (rate - userMeans.get(similarUserIdx));
-                ws += Math.abs(sim);
-            }
             return ws > 0 ? userMeans.get(userIdx) + sum / ws : globalMean;
         }
     }
-
-    /**
-     * Create userSimilarityList.
-     */
-    public void createUserSimilarityList() {
-        userSimilarityList = new ArrayList[numUsers];
-        for (int userIndex = 0; userIndex < numUsers; ++userIndex) {
-            SparseVector similarityVector = similarityMatrix.row(userIndex);
-            userSimilarityList[userIndex] = new ArrayList<>(similarityVector.size());
-            Iterator<VectorEntry> simItr = similarityVector.iterator();
-            while (simItr.hasNext()) {
-                VectorEntry simVectorEntry = simItr.next();
-                userSimilarityList[userIndex].add(new AbstractMap.SimpleImmutableEntry<>(simVectorEntry.index(), simVectorEntry.get()));
-            }
-            Lists.sortList(userSimilarityList[userIndex], true);
-        }
-    }
 }
@@ -19,15 +19,18 @@ package net.librec.recommender.cf.ranking;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
+import net.librec.data.model.AbstractDataModel;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.ItemPopularityCache;
 import net.librec.recommender.MatrixFactorizationsRecommender;
+import net.librec.recommender.sampler.TripleSampler;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Rendle et al., <strong>BPR: Bayesian Personalized Ranking from Implicit Feedback</strong>, UAI 2009.
@@ -36,47 +39,211 @@ import java.util.Set;
  */
 @ModelData({"isRanking", "bprplus", "userFactors", "itemFactors"})
 public class BPRPlusRecommender extends MatrixFactorizationsRecommender {
-    private List<Set<Integer>> userItemsSet;
+    /**
+     * draws the (user, positive item, negative item) triples
+     */
+    private TripleSampler sampler;
+
+    /**
+     * the number of samples whose implicitWeight gradients are summed per user and applied together
+     */
+    private int batchSize;
 
     @Override
     protected void setup() throws LibrecException {
         super.setup();
+        batchSize = Math.max(1, conf.getInt("rec.bprplus.batch.size", 1));
     }
 
     @Override
     protected void trainModel() throws Exception {
 
-        userItemsSet = getUserItemsSet(trainMatrix);
+        sampler = TripleSampler.create(conf.get("rec.bprplus.sampler", TripleSampler.USER), trainMatrix.getColumnSets());
+        sampler.setNegativeWeights(getNegativeWeights(conf.get("rec.bprplus.sampler.negative", "uniform")));
 //        userImpItemsSet = getUserImpItemsSet(trainMatrix);
 
-        for (int iter = 1; iter <= numIterations; iter++) {
+        int numThreads = Math.max(1, conf.getInt("rec.bprplus.thread.count", 1));
+        List<SampleWorker> workers = new ArrayList<>();
+        for (int threadIdx = 0, smax = numUsers * 10; threadIdx < numThreads; threadIdx++) {
+            int numSamples = smax / numThreads + (threadIdx < smax % numThreads ? 1 : 0);
+            // a single worker keeps drawing from the global generator
+            Random random = numThreads > 1 ? new Random(Randoms.uniform(Integer.MAX_VALUE)) : null;
+            workers.add(new SampleWorker(numSamples, random));
+        }
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+
+        try {
+            for (int iter = 1; iter <= numIterations; iter++) {
+
+                loss = 0.0d;
+                loss_train = 0.0d;
+                loss_reg = 0.0d;
+                itemPopularity.startEpoch();
+                if (executor == null) {
+                    workers.get(0).call();
+                } else {
+                    for (Future<Void> future : executor.invokeAll(workers)) {
+                        future.get();
+                    }
+                }
+                for (SampleWorker worker : workers) {
+                    loss += worker.loss;
+                    loss_train += worker.lossTrain;
+                    loss_reg += worker.lossReg;
+                }
 
-            loss = 0.0d;
-            loss_train=0.0d;
-            loss_reg=0.0d;
-            for (int sampleCount = 0, smax = numUsers * 10; sampleCount < smax; sampleCount++) {
+                if (isConverged(iter) && earlyStop) {
+                    break;
+                }
+                if (isValidationStopped(iter)) {
+                    break;
+                }
+                updateLRate(iter);
+//            printTrainInfo();
 
-                // randomly draw (userIdx)
-                int userIdx, posItemIdx, negItemIdx;
+//            if (iter == 47){
 
-                while (true) {
-                    userIdx = Randoms.uniform(numUsers);
+//            }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+//        for (int u = 0; u < numUsers; u++) {
+//            System.out.print("\n");
+//            for (int impWeightIdx = 0; impWeightIdx < numActions; impWeightIdx++) {
+//                System.out.print(implicitWeight[u][impWeightIdx]+",");
+//            }
+//        }
+//        System.out.println("A");
 
-                    //purchased item set for the user
-                    Set<Integer> itemSet = userItemsSet.get(userIdx);
-                    if (itemSet.size() == 0 || itemSet.size() == numItems)
-                        continue;
+    }
 
-                    //random draw posItemIdx
-                    List<Integer> itemList = trainMatrix.getColumns(userIdx);
-                    posItemIdx = itemList.get(Randoms.uniform(itemList.size()));
+    /**
+     * Weights of the negative items, raised to the power of rec.bprplus.sampler.exponent:
+     * <ul>
+     * <li>uniform: none, every unconsumed item is as likely</li>
+     * <li>popularity: the item popularity, filled once with the initial implicit weight</li>
+     * <li>action: the action totals of the item, over all action levels or only the level
+     * rec.bprplus.sampler.action, one of data.action.levels</li>
+     * </ul>
+     *
+     * @param name the name of the weights
+     * @return the weight of every item, null for uniform negatives
+     * @throws LibrecException if the name is unknown
+     */
+    private double[] getNegativeWeights(String name) throws LibrecException {
+        if ("uniform".equals(name)) {
+            return null;
+        }
+        double exponent = conf.getDouble("rec.bprplus.sampler.exponent", 1.0d);
+        double[] weights = new double[numItems];
+        if ("popularity".equals(name)) {
+            if (itemPopularity.getMode() == ItemPopularityCache.Mode.USER) {
+                throw new LibrecException("popularity negatives need a shared item popularity, set rec.popularity.mode to lazy or epoch");
+            }
+            fillItemPopularity();
+            double[] popularity = itemPopularity.getAll(0, null);
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                weights[itemIdx] = Math.pow(popularity[itemIdx], exponent);
+            }
+        } else if ("action".equals(name)) {
+            int level = conf.getInt("rec.bprplus.sampler.action", 0);
+            int slot = -1;
+            if (level != 0) {
+                // the slot of the level in the action counts
+                int[] actionLevels = AbstractDataModel.getActionLevels(conf);
+                for (int levelIdx = 0; levelIdx < Math.min(actionLevels.length, numActions); levelIdx++) {
+                    if (actionLevels[levelIdx] == level) {
+                        slot = levelIdx;
+                    }
+                }
+                if (slot < 0) {
+                    throw new LibrecException("rec.bprplus.sampler.action should be one of the first " + numActions
+                            + " levels of data.action.levels " + Arrays.toString(actionLevels) + ", or 0 for all levels");
+                }
+            }
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                double count = 0.0d;
+                for (int actionIdx = 0; actionIdx < numActions; actionIdx++) {
+                    if (slot < 0 || slot == actionIdx) {
+                        count += actionMatrix.getColumnCount(itemIdx, actionIdx);
+                    }
+                }
+                weights[itemIdx] = Math.pow(count, exponent);
+            }
+        } else {
+            throw new LibrecException("Unknown negative sampler: " + name);
+        }
+        return weights;
+    }
 
-                    do {
-                        negItemIdx = Randoms.uniform(numItems);
-                    } while (itemSet.contains(negItemIdx));
+    /**
+     * Runs a share of the samples of an epoch. With more than one worker the updates of
+     * userFactors, itemFactors and implicitWeight are applied without locking (Hogwild!,
+     * Niu et al., NIPS 2011), each worker drawing from its own random stream and
+     * accumulating its own loss.
+     * <p>
+     * The factors are updated per sample, while the implicitWeight updates are made by
+     * mini-batches of rec.bprplus.batch.size samples: the experience and popularity
+     * gradient factors of a sample are kept in flat buffers, and when the batch is
+     * applied the gradients of every user of the batch are summed, with the action counts
+     * read in place from the packed storage of the action matrix, then the user's weight
+     * takes a single step and a single softmax. A batch of 1 is plain SGD.
+     */
+    private class SampleWorker implements Callable<Void> {
+        private final int numSamples;
+        private final Random random;
+        private final int[] triple = new int[3];
+
+        // the samples of the current batch: the user, the action entries of the positive
+        // and negative items (-1 if none), the items, and the gradient factors
+        private final int[] batchUsers, batchPosIndices, batchNegIndices, batchPosItems, batchNegItems;
+        private final double[] batchDerivatives, batchPosPops, batchNegPops, batchPosEus, batchNegEus;
+        private int batchLength;
+
+        // the distinct users of the current batch, with their number of samples and their
+        // summed gradients, and the position of every user among them, -1 if not in the batch
+        private final int[] slotUsers, slotCounts, userSlots;
+        private final double[] slotGradients;
+
+        // the updated implicit weights of a user before the softmax
+        private final double[] weightBuffer = new double[numActions];
+        private double loss, lossTrain, lossReg;
+
+        SampleWorker(int numSamples, Random random) {
+            this.numSamples = numSamples;
+            this.random = random;
+            batchUsers = new int[batchSize];
+            batchPosIndices = new int[batchSize];
+            batchNegIndices = new int[batchSize];
+            batchPosItems = new int[batchSize];
+            batchNegItems = new int[batchSize];
+            batchDerivatives = new double[batchSize];
+            batchPosPops = new double[batchSize];
+            batchNegPops = new double[batchSize];
+            batchPosEus = new double[batchSize];
+            batchNegEus = new double[batchSize];
+            slotUsers = new int[batchSize];
+            slotCounts = new int[batchSize];
+            slotGradients = new double[batchSize * numActions];
+            userSlots = new int[numUsers];
+            Arrays.fill(userSlots, -1);
+        }
 
-                    break;
-                }
+        @Override
+        public Void call() throws Exception {
+            Random random = this.random != null ? this.random : Randoms.getRandom();
+            loss = 0.0d;
+            lossTrain = 0.0d;
+            lossReg = 0.0d;
+            batchLength = 0;
+            for (int sampleCount = 0; sampleCount < numSamples; sampleCount++) {
+
+                // randomly draw (userIdx, posItemIdx, negItemIdx)
+                sampler.sample(random, triple);
+                int userIdx = triple[0], posItemIdx = triple[1], negItemIdx = triple[2];
 
                 // update parameters
 
@@ -92,7 +259,7 @@ public class BPRPlusRecommender extends MatrixFactorizationsRecommender {
 
                 double lossValue = -Math.log(Maths.logistic(diffValue));
                 loss += lossValue;
-                loss_train+=lossValue;
+                lossTrain += lossValue;
                 double deriValue = Maths.logistic(-diffValue);
 
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
@@ -108,84 +275,90 @@ public class BPRPlusRecommender extends MatrixFactorizationsRecommender {
                     itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * negitemFactorUpdate - regItem * negItemFactorValue));
 
                     loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
-                    loss_reg += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
+                    lossReg += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
                 }
 
-                double[] tempImpWeight = new double[numActions];
-
-                int[] posAction = getActions(userIdx, posItemIdx);
-                int[] negAction = getActions(userIdx, negItemIdx);
-
-                double posPopularity;
-                double negPopularity;
-
-                int[] posItemCount = getItemCount(posItemIdx);
-                int[] negItemCount = getItemCount(negItemIdx);
-
-                for (int impWeightIdx = 0; impWeightIdx < numActions; impWeightIdx++) {
-                    double impWeightValue = implicitWeight[userIdx][impWeightIdx];
-
-                    if (itemPops.containsKey(posItemIdx)){
-                        posPopularity = itemPops.get(posItemIdx);
-                    }else {
-                        posPopularity = computePopualrity(userIdx, posItemIdx);
-                        itemPops.put(posItemIdx, posPopularity);
-                    }
-
-                    if (itemPops.containsKey(negItemIdx)) {
-                        negPopularity = itemPops.get(negItemIdx);
-                    }else{
-                        negPopularity = computePopualrity(userIdx, negItemIdx);
-                        itemPops.put(negItemIdx, negPopularity);
-                    }
-
-                    double aPartUpdate = a * (posPopularity * (1 - posPopularity) * posItemCount[impWeightIdx] * Pok - posEu * (1 - posEu) * posAction[impWeightIdx] * Ek - negPopularity * (1 - negPopularity) * negItemCount[impWeightIdx] * Pok + negEu * (1 - negEu) * negAction[impWeightIdx] * Ek);
-                    double otherPartUpdate = posEu * (1 - posEu) * posAction[impWeightIdx] * Ek - negEu * (1 - negEu) * negAction[impWeightIdx] * Ek;
-//                    double popUpdate = a * Pok * (posPopularity * (1 - posPopularity) * posItemCount[impWeightIdx] - negPopularity * (1 - negPopularity) * negItemCount[impWeightIdx]);
-//                    double experUpdate = Ek * (posEu * (1 - posEu) * posAction[impWeightIdx] - negEu * (1 - negEu) * negAction[impWeightIdx]);
-                    double impWeightUpdate =  aPartUpdate + otherPartUpdate;
-                    impWeightValue += learnRate * (deriValue * impWeightUpdate - regWeight * impWeightValue);
-
-                    tempImpWeight[impWeightIdx] = impWeightValue;
-
-                    loss += regWeight * impWeightValue * impWeightValue;
-                    loss_reg += regWeight * impWeightValue * impWeightValue;
-                }
-
-                tempImpWeight = Maths.softmax(tempImpWeight);
-
-                for (int impWeightIdx = 0; impWeightIdx < numActions; impWeightIdx++) {
-                    implicitWeight[userIdx][impWeightIdx] = tempImpWeight[impWeightIdx];
-//                    loss += regWeight * tempImpWeight[impWeightIdx] * tempImpWeight[impWeightIdx];
+                // the popularity does not depend on the action slot, compute it once per sample
+                double posPopularity = getItemPopularity(userIdx, posItemIdx);
+                double negPopularity = getItemPopularity(userIdx, negItemIdx);
+
+                batchUsers[batchLength] = userIdx;
+                batchPosIndices[batchLength] = actionMatrix.getIndex(userIdx, posItemIdx);
+                batchNegIndices[batchLength] = actionMatrix.getIndex(userIdx, negItemIdx);
+                batchPosItems[batchLength] = posItemIdx;
+                batchNegItems[batchLength] = negItemIdx;
+                batchDerivatives[batchLength] = deriValue;
+                batchPosPops[batchLength] = posPopularity * (1 - posPopularity);
+                batchNegPops[batchLength] = negPopularity * (1 - negPopularity);
+                batchPosEus[batchLength] = posEu * (1 - posEu);
+                batchNegEus[batchLength] = negEu * (1 - negEu);
+                if (++batchLength == batchSize) {
+                    updateImplicitWeight();
                 }
             }
+            updateImplicitWeight();
+            return null;
+        }
 
-            if (isConverged(iter) && earlyStop) {
-                break;
+        /**
+         * apply the implicitWeight updates of the current batch: sum the gradients of every
+         * user, then step and take the softmax of the user's weight once
+         */
+        private void updateImplicitWeight() {
+            int[] actionData = actionMatrix.actionData;
+            int[] columnData = actionMatrix.columnData;
+            int stride = actionMatrix.numActions;
+            int numSlots = 0;
+            for (int sampleIdx = 0; sampleIdx < batchLength; sampleIdx++) {
+                int userIdx = batchUsers[sampleIdx];
+                int slot = userSlots[userIdx];
+                if (slot < 0) {
+                    slot = userSlots[userIdx] = numSlots++;
+                    slotUsers[slot] = userIdx;
+                    slotCounts[slot] = 0;
+                    Arrays.fill(slotGradients, slot * numActions, (slot + 1) * numActions, 0.0d);
+                }
+                slotCounts[slot]++;
+
+                int posIndex = batchPosIndices[sampleIdx], negIndex = batchNegIndices[sampleIdx];
+                int posCountBase = batchPosItems[sampleIdx] * stride, negCountBase = batchNegItems[sampleIdx] * stride;
+                double deriValue = batchDerivatives[sampleIdx];
+                double posPop = batchPosPops[sampleIdx], negPop = batchNegPops[sampleIdx];
+                double posEu = batchPosEus[sampleIdx], negEu = batchNegEus[sampleIdx];
+
+                for (int impWeightIdx = 0, gradientIdx = slot * numActions; impWeightIdx < numActions; impWeightIdx++, gradientIdx++) {
+                    int posAction = posIndex >= 0 ? actionData[posIndex * stride + impWeightIdx] : 0;
+                    int negAction = negIndex >= 0 ? actionData[negIndex * stride + impWeightIdx] : 0;
+                    int posItemCount = columnData[posCountBase + impWeightIdx];
+                    int negItemCount = columnData[negCountBase + impWeightIdx];
+
+                    double aPartUpdate = a * (posPop * posItemCount * Pok - posEu * posAction * Ek - negPop * negItemCount * Pok + negEu * negAction * Ek);
+                    double otherPartUpdate = posEu * posAction * Ek - negEu * negAction * Ek;
+                    double impWeightUpdate =  aPartUpdate + otherPartUpdate;
+                    slotGradients[gradientIdx] += deriValue * impWeightUpdate;
+                }
             }
-            updateLRate(iter);
-//            printTrainInfo();
 
-//            if (iter == 47){
+            for (int slot = 0; slot < numSlots; slot++) {
+                int userIdx = slotUsers[slot];
+                double[] userWeight = implicitWeight[userIdx];
+                // the regularization of every sample of the user
+                double userRegWeight = slotCounts[slot] * regWeight;
+                for (int impWeightIdx = 0, gradientIdx = slot * numActions; impWeightIdx < numActions; impWeightIdx++, gradientIdx++) {
+                    double impWeightValue = userWeight[impWeightIdx];
+                    impWeightValue += learnRate * (slotGradients[gradientIdx] - userRegWeight * impWeightValue);
 
-//            }
-        }
-//        for (int u = 0; u < numUsers; u++) {
-//            System.out.print("\n");
-//            for (int impWeightIdx = 0; impWeightIdx < numActions; impWeightIdx++) {
-//                System.out.print(implicitWeight[u][impWeightIdx]+",");
-//            }
-//        }
-//        System.out.println("A");
+                    weightBuffer[impWeightIdx] = impWeightValue;
 
-    }
+                    loss += userRegWeight * impWeightValue * impWeightValue;
+                    lossReg += userRegWeight * impWeightValue * impWeightValue;
+                }
 
-    private List<Set<Integer>> getUserItemsSet(SparseMatrix sparseMatrix) {
-        List<Set<Integer>> userItemsSet = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsSet.add(new HashSet(sparseMatrix.getColumns(userIdx)));
+                Maths.softmax(weightBuffer, userWeight);
+                implicitWeightChanged(userIdx);
+                userSlots[userIdx] = -1;
+            }
+            batchLength = 0;
         }
-        return userItemsSet;
     }
-
 }
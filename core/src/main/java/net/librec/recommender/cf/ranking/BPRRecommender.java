@@ -22,14 +22,9 @@ import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.RowColumnSets;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
 /**
  * Rendle et al., <strong>BPR: Bayesian Personalized Ranking from Implicit Feedback</strong>, UAI 2009.
  *
@@ -37,7 +32,7 @@ import java.util.Set;
  */
 @ModelData({"isRanking", "bpr", "userFactors", "itemFactors"})
 public class BPRRecommender extends MatrixFactorizationRecommender {
-    private List<Set<Integer>> userItemsSet;
+    private RowColumnSets userItemsSet;
 
     @Override
     protected void setup() throws LibrecException {
@@ -47,7 +42,7 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
     @Override
     protected void trainModel() throws LibrecException {
 
-        userItemsSet = getUserItemsSet(trainMatrix);
+        userItemsSet = trainMatrix.getColumnSets();
 
         for (int iter = 1; iter <= numIterations; iter++) {
 
@@ -58,15 +53,13 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
                 int userIdx, posItemIdx, negItemIdx;
                 while (true) {
                     userIdx = Randoms.uniform(numUsers);
-                    Set<Integer> itemSet = userItemsSet.get(userIdx);
-                    if (itemSet.size() == 0 || itemSet.size() == numItems)
+                    if (userItemsSet.size(userIdx) == 0 || userItemsSet.size(userIdx) == numItems)
                         continue;
 
-                    List<Integer> itemList = trainMatrix.getColumns(userIdx);
-                    posItemIdx = itemList.get(Randoms.uniform(itemList.size()));
+                    posItemIdx = userItemsSet.get(userIdx, Randoms.uniform(userItemsSet.size(userIdx)));
                     do {
                         negItemIdx = Randoms.uniform(numItems);
-                    } while (itemSet.contains(negItemIdx));
+                    } while (userItemsSet.contains(userIdx, negItemIdx));
 
                     break;
                 }
@@ -100,11 +93,4 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
-    private List<Set<Integer>> getUserItemsSet(SparseMatrix sparseMatrix) {
-        List<Set<Integer>> userItemsSet = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsSet.add(new HashSet(sparseMatrix.getColumns(userIdx)));
-        }
-        return userItemsSet;
-    }
 }
@@ -3,12 +3,11 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * <h3>EALS: efficient Alternating Least Square for Weighted Regularized Matrix Factorization.</h3>
@@ -49,9 +48,15 @@ public class EALSRecommender extends MatrixFactorizationRecommender {
     private double[] confidences;
 
     /**
-     * weights of all user-item pair (u,i)
+     * weights of all user-item pair (u,i), aligned with the CRS and the CCS positions of trainMatrix
      */
-    private SparseMatrix weights;
+    private double[] rowWeights, columnWeights;
+
+    /**
+     * the number of rows of a block of the Gram matrix kernel, fixed so that the sums do not
+     * depend on the number of threads
+     */
+    private static final int GRAM_BLOCK_SIZE = 4096;
 
     @Override
     protected void setup() throws LibrecException {
@@ -62,7 +67,8 @@ public class EALSRecommender extends MatrixFactorizationRecommender {
         WRMFJudge = conf.getInt("rec.eals.wrmf.judge", 1);
 
         confidences = new double[numItems];
-        weights = new SparseMatrix(trainMatrix);
+        rowWeights = new double[trainMatrix.rowData.length];
+        columnWeights = new double[trainMatrix.colData.length];
 
         initConfidencesAndWeights();
     }
@@ -87,126 +93,284 @@ public class EALSRecommender extends MatrixFactorizationRecommender {
         }
 
         // By default, the weight for positive instance is uniformly 1.
-        for (MatrixEntry matrixEntry : trainMatrix) {
-            int userIdx = matrixEntry.row(); // user
-            int itemIdx = matrixEntry.column(); // item
-            if (WRMFJudge == 1 || WRMFJudge == 2) {
-                weights.set(userIdx, itemIdx, 1.0 + weightCoefficient * matrixEntry.get());
-//                w.set(u, i, 1.0 + Math.log(1.0 + Math.pow(10, alpha) * me.get())); maybe better for poi recommender
-            } else {
-                weights.set(userIdx, itemIdx, 1.0);
-            }
+        for (int idx = 0; idx < rowWeights.length; idx++) {
+            rowWeights[idx] = getWeight(trainMatrix.rowData[idx]);
+        }
+        for (int idx = 0; idx < columnWeights.length; idx++) {
+            columnWeights[idx] = getWeight(trainMatrix.colData[idx]);
+        }
+    }
+
+    private double getWeight(double rating) {
+        if (WRMFJudge == 1 || WRMFJudge == 2) {
+            return 1.0 + weightCoefficient * rating;
+//            return 1.0 + Math.log(1.0 + Math.pow(10, alpha) * rating); maybe better for poi recommender
+        } else {
+            return 1.0;
         }
     }
 
     @Override
     protected void trainModel() throws LibrecException {
-        List<List<Integer>> userItemsList = getUserItemsList(trainMatrix);
-        List<List<Integer>> itemUsersList = getItemUsersList(trainMatrix);
-
-        double[] usersPredictions = new double[numUsers];
-        double[] itemsPredictions = new double[numItems];
-        double[] usersWeights = new double[numUsers];
-        double[] itemsWeights = new double[numItems];
-
-        // Init item factors cache Sq
-        DenseMatrix itemFactorsCache = new DenseMatrix(numFactors, numFactors);
-        //Init user factors cache Sp
-        DenseMatrix userFactorsCache;
-
-        for (int iter = 1; iter <= numIterations; iter++) {
-            // Update the Sq cache
-            for (int factorIdx1 = 0; factorIdx1 < numFactors; factorIdx1++) {
-                for (int factorIdx2 = 0; factorIdx2 <= factorIdx1; factorIdx2++) {
-                    double value = 0;
-                    for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                        value += confidences[itemIdx] * itemFactors.get(itemIdx, factorIdx1) * itemFactors.get(itemIdx, factorIdx2);
-                    }
-                    itemFactorsCache.set(factorIdx1, factorIdx2, value);
-                    itemFactorsCache.set(factorIdx2, factorIdx1, value);
+        int numThreads = Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+
+        List<UserTask> userTasks = new ArrayList<>();
+        int[] userBounds = trainMatrix.rowBlocks(numThreads);
+        for (int taskIdx = 0; taskIdx + 1 < userBounds.length; taskIdx++) {
+            userTasks.add(new UserTask(userBounds[taskIdx], userBounds[taskIdx + 1]));
+        }
+        List<ItemTask> itemTasks = new ArrayList<>();
+        int[] itemBounds = trainMatrix.columnBlocks(numThreads);
+        for (int taskIdx = 0; taskIdx + 1 < itemBounds.length; taskIdx++) {
+            itemTasks.add(new ItemTask(itemBounds[taskIdx], itemBounds[taskIdx + 1]));
+        }
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+
+        try {
+            for (int iter = 1; iter <= numIterations; iter++) {
+                // Update the Sq cache
+                double[] itemFactorsCache = gram(executor, itemFactors, confidences);
+                // Step 1: update user factors;
+                for (UserTask task : userTasks) {
+                    task.itemFactorsCache = itemFactorsCache;
                 }
+                runTasks(executor, userTasks);
+
+                // Update the Sp cache
+                double[] userFactorsCache = gram(executor, userFactors, null);
+                // Step 2: update item factors;
+                for (ItemTask task : itemTasks) {
+                    task.userFactorsCache = userFactorsCache;
+                }
+                runTasks(executor, itemTasks);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
             }
-            // Step 1: update user factors;
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-                for (int itemIdx : userItemsList.get(userIdx)) {
-                    itemsPredictions[itemIdx] = DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
-                    itemsWeights[itemIdx] = weights.get(userIdx, itemIdx);
+        }
+    }
+
+    /**
+     * compute the weighted Gram matrix {@code sum_r w_r * row_r^T * row_r} of a factor matrix,
+     * in parallel over fixed blocks of rows whose partial sums are added in block order
+     *
+     * @param executor   executor of the blocks, null to run them in the calling thread
+     * @param factors    factor matrix
+     * @param rowWeights weight of every row, null for 1
+     * @return the symmetric numFactors * numFactors result, row-major
+     * @throws LibrecException if a block fails
+     */
+    private double[] gram(ExecutorService executor, DenseMatrix factors, double[] rowWeights) throws LibrecException {
+        List<GramTask> tasks = new ArrayList<>();
+        for (int fromRow = 0; fromRow < factors.numRows; fromRow += GRAM_BLOCK_SIZE) {
+            tasks.add(new GramTask(factors, fromRow, Math.min(fromRow + GRAM_BLOCK_SIZE, factors.numRows), rowWeights));
+        }
+        runTasks(executor, tasks);
+
+        double[] cache = new double[numFactors * numFactors];
+        for (GramTask task : tasks) {
+            for (int idx = 0; idx < cache.length; idx++) {
+                cache[idx] += task.result[idx];
+            }
+        }
+        for (int factorIdx1 = 0; factorIdx1 < numFactors; factorIdx1++) {
+            for (int factorIdx2 = 0; factorIdx2 < factorIdx1; factorIdx2++) {
+                cache[factorIdx2 * numFactors + factorIdx1] = cache[factorIdx1 * numFactors + factorIdx2];
+            }
+        }
+        return cache;
+    }
+
+    private void runTasks(ExecutorService executor, List<? extends Callable<Void>> tasks) throws LibrecException {
+        try {
+            if (executor == null || tasks.size() == 1) {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+                return;
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw new LibrecException(e.getCause());
+        } catch (LibrecException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LibrecException(e);
+        }
+    }
+
+    /**
+     * maximum number of non-zeros of the rows (or columns) in [from, to) of compressed storage
+     */
+    private static int maxSize(int[] ptr, int from, int to) {
+        int maxSize = 0;
+        for (int idx = from; idx < to; idx++) {
+            maxSize = Math.max(maxSize, ptr[idx + 1] - ptr[idx]);
+        }
+        return maxSize;
+    }
+
+    /**
+     * the partial Gram matrix of a block of rows
+     */
+    private class GramTask implements Callable<Void> {
+        private final DenseMatrix factors;
+        private final int fromRow, toRow;
+        private final double[] rowWeights;
+        private final double[] result = new double[numFactors * numFactors];
+
+        GramTask(DenseMatrix factors, int fromRow, int toRow, double[] rowWeights) {
+            this.factors = factors;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowWeights = rowWeights;
+        }
+
+        @Override
+        public Void call() {
+            factors.gram(fromRow, toRow, rowWeights, result);
+            return null;
+        }
+    }
+
+    /**
+     * Updates the factors of the users of [fromUser, toUser) by coordinate descent. The
+     * predictions and weights of a user's items are kept in scratch arrays of the task,
+     * indexed by the position of the item in the user's row.
+     */
+    private class UserTask implements Callable<Void> {
+        private final int fromUser, toUser;
+        private final int[] items;
+        private final double[] itemsPredictions, itemsWeights;
+
+        // the Sq cache of the current iteration
+        private double[] itemFactorsCache;
+
+        UserTask(int fromUser, int toUser) {
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            int maxSize = maxSize(trainMatrix.rowPtr, fromUser, toUser);
+            this.items = new int[maxSize];
+            this.itemsPredictions = new double[maxSize];
+            this.itemsWeights = new double[maxSize];
+        }
+
+        @Override
+        public Void call() {
+            for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                double[] userFactor = userFactors.data[userIdx];
+                int size = 0;
+                for (int idx = trainMatrix.rowPtr[userIdx]; idx < trainMatrix.rowPtr[userIdx + 1]; idx++) {
+                    if (trainMatrix.rowData[idx] == 0.0) {
+                        continue;
+                    }
+                    int itemIdx = trainMatrix.colInd[idx];
+                    items[size] = itemIdx;
+                    itemsPredictions[size] = DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
+                    itemsWeights[size] = rowWeights[idx];
+                    size++;
                 }
 
                 for (int factorCacheIdx = 0; factorCacheIdx < numFactors; factorCacheIdx++) {
-                    double numer = 0, denom = regUser + itemFactorsCache.get(factorCacheIdx, factorCacheIdx);
+                    int cacheOffset = factorCacheIdx * numFactors;
+                    double numer = 0, denom = regUser + itemFactorsCache[cacheOffset + factorCacheIdx];
 
                     for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
                         if (factorCacheIdx != factorIdx) {
-                            numer -= userFactors.get(userIdx, factorIdx) * itemFactorsCache.get(factorCacheIdx, factorIdx);
+                            numer -= userFactor[factorIdx] * itemFactorsCache[cacheOffset + factorIdx];
                         }
                     }
 
-                    for (int itemIdx : userItemsList.get(userIdx)) {
-                        itemsPredictions[itemIdx] -= userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
-                        numer += (itemsWeights[itemIdx] - (itemsWeights[itemIdx] - confidences[itemIdx]) * itemsPredictions[itemIdx])
-                                * itemFactors.get(itemIdx, factorCacheIdx);
-                        denom += (itemsWeights[itemIdx] - confidences[itemIdx]) * itemFactors.get(itemIdx, factorCacheIdx)
-                                * itemFactors.get(itemIdx, factorCacheIdx);
+                    for (int pos = 0; pos < size; pos++) {
+                        double itemFactorValue = itemFactors.data[items[pos]][factorCacheIdx];
+                        double confidence = confidences[items[pos]];
+                        itemsPredictions[pos] -= userFactor[factorCacheIdx] * itemFactorValue;
+                        numer += (itemsWeights[pos] - (itemsWeights[pos] - confidence) * itemsPredictions[pos])
+                                * itemFactorValue;
+                        denom += (itemsWeights[pos] - confidence) * itemFactorValue * itemFactorValue;
                     }
 
                     //update puf
-                    userFactors.set(userIdx, factorCacheIdx, numer / denom);
-                    for (int itemIdx : userItemsList.get(userIdx)) {
-                        itemsPredictions[itemIdx] += userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
+                    userFactor[factorCacheIdx] = numer / denom;
+                    for (int pos = 0; pos < size; pos++) {
+                        itemsPredictions[pos] += userFactor[factorCacheIdx] * itemFactors.data[items[pos]][factorCacheIdx];
                     }
                 }
             }
-            // Update the Sp cache
-            userFactorsCache = userFactors.transpose().mult(userFactors);
-            // Step 2: update item factors;
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                for (int userIdx : itemUsersList.get(itemIdx)) {
-                    usersPredictions[userIdx] = DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
-                    usersWeights[userIdx] = weights.get(userIdx, itemIdx);
+            return null;
+        }
+    }
+
+    /**
+     * Updates the factors of the items of [fromItem, toItem) by coordinate descent, see
+     * {@link UserTask}.
+     */
+    private class ItemTask implements Callable<Void> {
+        private final int fromItem, toItem;
+        private final int[] users;
+        private final double[] usersPredictions, usersWeights;
+
+        // the Sp cache of the current iteration
+        private double[] userFactorsCache;
+
+        ItemTask(int fromItem, int toItem) {
+            this.fromItem = fromItem;
+            this.toItem = toItem;
+            int maxSize = maxSize(trainMatrix.colPtr, fromItem, toItem);
+            this.users = new int[maxSize];
+            this.usersPredictions = new double[maxSize];
+            this.usersWeights = new double[maxSize];
+        }
+
+        @Override
+        public Void call() {
+            for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+                double[] itemFactor = itemFactors.data[itemIdx];
+                double confidence = confidences[itemIdx];
+                int size = 0;
+                for (int idx = trainMatrix.colPtr[itemIdx]; idx < trainMatrix.colPtr[itemIdx + 1]; idx++) {
+                    if (trainMatrix.colData[idx] == 0.0) {
+                        continue;
+                    }
+                    int userIdx = trainMatrix.rowInd[idx];
+                    users[size] = userIdx;
+                    usersPredictions[size] = DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
+                    usersWeights[size] = columnWeights[idx];
+                    size++;
                 }
 
                 for (int factorCacheIdx = 0; factorCacheIdx < numFactors; factorCacheIdx++) {
-                    double numer = 0, denom = confidences[itemIdx] * userFactorsCache.get(factorCacheIdx, factorCacheIdx) + regItem;
+                    double numer = 0, denom = confidence * userFactorsCache[factorCacheIdx * numFactors + factorCacheIdx] + regItem;
 
                     for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
                         if (factorCacheIdx != factorIdx) {
-                            numer -= itemFactors.get(itemIdx, factorIdx) * userFactorsCache.get(factorIdx, factorCacheIdx);
+                            numer -= itemFactor[factorIdx] * userFactorsCache[factorIdx * numFactors + factorCacheIdx];
                         }
                     }
-                    numer *= confidences[itemIdx];
-
-                    for (int userIdx : itemUsersList.get(itemIdx)) {
-                        usersPredictions[userIdx] -= userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
-                        numer += (usersWeights[userIdx] - (usersWeights[userIdx] - confidences[itemIdx]) * usersPredictions[userIdx])
-                                * userFactors.get(userIdx, factorCacheIdx);
-                        denom += (usersWeights[userIdx] - confidences[itemIdx]) * userFactors.get(userIdx, factorCacheIdx)
-                                * userFactors.get(userIdx, factorCacheIdx);
+                    numer *= confidence;
+
+                    for (int pos = 0; pos < size; pos++) {
+                        double userFactorValue = userFactors.data[users[pos]][factorCacheIdx];
+                        usersPredictions[pos] -= userFactorValue * itemFactor[factorCacheIdx];
+                        numer += (usersWeights[pos] - (usersWeights[pos] - confidence) * usersPredictions[pos])
+                                * userFactorValue;
+                        denom += (usersWeights[pos] - confidence) * userFactorValue * userFactorValue;
                     }
 
                     //update qif
-                    itemFactors.set(itemIdx, factorCacheIdx, numer / denom);
-                    for (int userIdx : itemUsersList.get(itemIdx)) {
-                        usersPredictions[userIdx] += userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
+                    itemFactor[factorCacheIdx] = numer / denom;
+                    for (int pos = 0; pos < size; pos++) {
+                        usersPredictions[pos] += userFactors.data[users[pos]][factorCacheIdx] * itemFactor[factorCacheIdx];
                     }
                 }
             }
+            return null;
         }
     }
-
-    private List<List<Integer>> getUserItemsList(SparseMatrix sparseMatrix) {
-        List<List<Integer>> userItemsList = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsList.add(sparseMatrix.getColumns(userIdx));
-        }
-        return userItemsList;
-    }
-
-    private List<List<Integer>> getItemUsersList(SparseMatrix sparseMatrix) {
-        List<List<Integer>> itemUsersList = new ArrayList<>();
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemUsersList.add(sparseMatrix.getRows(itemIdx));
-        }
-        return itemUsersList;
-    }
 }
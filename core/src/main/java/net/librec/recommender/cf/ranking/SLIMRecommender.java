@@ -20,11 +20,9 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.SymmMatrix;
+import net.librec.math.structure.KNNSimilarityMatrix;
 import net.librec.math.structure.VectorEntry;
 import net.librec.recommender.AbstractRecommender;
-import net.librec.util.Lists;
 
 import java.util.*;
 
@@ -71,7 +69,7 @@ public class SLIMRecommender extends AbstractRecommender {
     /**
      * item similarity matrix
      */
-    private SymmMatrix similarityMatrix;
+    private KNNSimilarityMatrix similarityMatrix;
 
     /**
      * item's nearest neighbors for kNN <=0, i.e., all other items
@@ -94,7 +92,7 @@ public class SLIMRecommender extends AbstractRecommender {
         coefficientMatrix = new DenseMatrix(numItems, numItems);
         // initial guesses: make smaller guesses (e.g., W.init(0.01)) to speed up training
         coefficientMatrix.init();
-        similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        similarityMatrix = context.getSimilarity().toKNNSimilarityMatrix();
 
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
             coefficientMatrix.set(itemIdx, itemIdx, 0.0d);
@@ -249,24 +247,12 @@ public class SLIMRecommender extends AbstractRecommender {
         itemNNs = new HashSet[numItems];
 
         // find the nearest neighbors for each item based on item similarity
-        List<Map.Entry<Integer, Double>> tempItemSimList;
         if (knn > 0) {
             for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                SparseVector similarityVector = similarityMatrix.row(itemIdx);
-                if (knn < similarityVector.size()) {
-                    tempItemSimList = new ArrayList<>(similarityVector.size() + 1);
-                    Iterator<VectorEntry> simItr = similarityVector.iterator();
-                    while (simItr.hasNext()) {
-                        VectorEntry simVectorEntry = simItr.next();
-                        tempItemSimList.add(new AbstractMap.SimpleImmutableEntry<>(simVectorEntry.index(), simVectorEntry.get()));
-                    }
-                    tempItemSimList = Lists.sortListTopK(tempItemSimList, true, knn);
-                    itemNNs[itemIdx] = new HashSet<>((int) (tempItemSimList.size() / 0.5));
-                    for (Map.Entry<Integer, Double> tempItemSimEntry : tempItemSimList) {
-                        itemNNs[itemIdx].add(tempItemSimEntry.getKey());
-                    }
-                } else {
-                    itemNNs[itemIdx] = similarityVector.getIndexSet();
+                int numNeighbors = Math.min(knn, similarityMatrix.size(itemIdx));
+                itemNNs[itemIdx] = new HashSet<>((int) (numNeighbors / 0.5));
+                for (int pos = 0; pos < numNeighbors; pos++) {
+                    itemNNs[itemIdx].add(similarityMatrix.getNeighbor(itemIdx, pos));
                 }
             }
         } else {
@@ -19,11 +19,14 @@ package net.librec.recommender.cf.ranking;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.CholeskySolver;
 import net.librec.math.structure.*;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * <h3>WRMF: Weighted Regularized Matrix Factorization.</h3>
@@ -71,106 +74,133 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
+        int numThreads = Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+
+        // the half-step of users reads the CRS arrays, the one of items the CCS arrays
+        List<SolveTask> userTasks = new ArrayList<>();
+        List<SolveTask> itemTasks = new ArrayList<>();
+        int[] userBounds = trainMatrix.rowBlocks(numThreads);
+        for (int taskIdx = 0; taskIdx + 1 < userBounds.length; taskIdx++) {
+            userTasks.add(new SolveTask(userBounds[taskIdx], userBounds[taskIdx + 1], trainMatrix.rowPtr,
+                    trainMatrix.colInd, trainMatrix.rowData, confindenceMinusIdentityMatrix.rowData,
+                    preferenceMatrix.rowData, userFactors, itemFactors));
+        }
+        int[] itemBounds = trainMatrix.columnBlocks(numThreads);
+        for (int taskIdx = 0; taskIdx + 1 < itemBounds.length; taskIdx++) {
+            itemTasks.add(new SolveTask(itemBounds[taskIdx], itemBounds[taskIdx + 1], trainMatrix.colPtr,
+                    trainMatrix.rowInd, trainMatrix.colData, confindenceMinusIdentityMatrix.colData,
+                    preferenceMatrix.colData, itemFactors, userFactors));
+        }
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
 
-        SparseMatrix userIdentityMatrix = DiagMatrix.eye(numFactors).scale(regUser);
-        SparseMatrix itemIdentityMatrix = DiagMatrix.eye(numFactors).scale(regItem);
-
-        // To be consistent with the symbols in the paper
-        DenseMatrix X = userFactors, Y = itemFactors;
         // Updating by using alternative least square (ALS)
         // due to large amount of entries to be processed (SGD will be too slow)
-        for (int iter = 1; iter <= numIterations; iter++) {
-            // Step 1: update user factors;
-            DenseMatrix Yt = Y.transpose();
-            DenseMatrix YtY = Yt.mult(Y);
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-
-                DenseMatrix YtCuI = new DenseMatrix(numFactors, numItems);//actually YtCuI is a sparse matrix
-                //Yt * (Cu-itemIdx)
-                List<Integer> itemList = trainMatrix.getColumns(userIdx);
-                for (int itemIdx : itemList) {
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        YtCuI.set(factorIdx, itemIdx, Y.get(itemIdx, factorIdx) * confindenceMinusIdentityMatrix.get(userIdx, itemIdx));
-                    }
-                }
+        try {
+            for (int iter = 1; iter <= numIterations; iter++) {
+                // Step 1: update user factors with YtY + lambda * I as the base of every system;
+                runTasks(executor, userTasks, gram(itemFactors, regUser));
 
-                // YtY + Yt * (Cu - itemIdx) * Y
-                DenseMatrix YtCuY = new DenseMatrix(numFactors, numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int factorIdxIn = 0; factorIdxIn < numFactors; factorIdxIn++) {
-                        double value = 0.0;
-                        for (int itemIdx : itemList) {
-                            value += YtCuI.get(factorIdx, itemIdx) * Y.get(itemIdx, factorIdxIn);
-                        }
-                        YtCuY.set(factorIdx, factorIdxIn, value);
-                    }
-                }
-                YtCuY.addEqual(YtY);
-                // (YtCuY + lambda * itemIdx)^-1
-                //lambda * itemIdx can be pre-difined because every time is the same.
-                DenseMatrix Wu = (YtCuY.add(userIdentityMatrix)).inv();
-                // Yt * (Cu - itemIdx) * Pu + Yt * Pu
-                DenseVector YtCuPu = new DenseVector(numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int itemIdx : itemList) {
-                        YtCuPu.add(factorIdx, preferenceMatrix.get(userIdx, itemIdx) * (YtCuI.get(factorIdx, itemIdx) + Yt.get(factorIdx, itemIdx)));
-                    }
-                }
+                // Step 2: update item factors with XtX + lambda * I as the base of every system;
+                runTasks(executor, itemTasks, gram(userFactors, regItem));
 
-                DenseVector xu = Wu.mult(YtCuPu);
-                // udpate user factors
-                X.setRow(userIdx, xu);
+                if (verbose) {
+                    LOG.info(getClass()+" runs at iteration = "+iter+" "+new Date());
+                }
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
 
-            // Step 2: update item factors;
-            DenseMatrix Xt = X.transpose();
-            DenseMatrix XtX = Xt.mult(X);
-
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+    /**
+     * compute FtF + lambda * I of a factor matrix F
+     *
+     * @param factors factor matrix
+     * @param lambda  regularization
+     * @return the lower triangle of the numFactors * numFactors result, row-major
+     */
+    private double[] gram(DenseMatrix factors, double lambda) {
+        double[] base = new double[numFactors * numFactors];
+        factors.gram(0, factors.numRows, null, base);
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            base[factorIdx * numFactors + factorIdx] += lambda;
+        }
+        return base;
+    }
 
+    private void runTasks(ExecutorService executor, List<SolveTask> tasks, double[] base) throws LibrecException {
+        for (SolveTask task : tasks) {
+            task.base = base;
+        }
+        if (executor == null) {
+            for (SolveTask task : tasks) {
+                task.call();
+            }
+            return;
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw new LibrecException(e.getCause());
+        }
+    }
 
-                DenseMatrix XtCiI = new DenseMatrix(numFactors, numUsers);
-                //actually XtCiI is a sparse matrix
-                //Xt * (Ci-itemIdx)
-                List<Integer> userList = trainMatrix.getRows(itemIdx);
-                for (int userIdx : userList) {
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        XtCiI.set(factorIdx, userIdx, X.get(userIdx, factorIdx) * confindenceMinusIdentityMatrix.get(userIdx, itemIdx));
-                    }
-                }
+    /**
+     * Solves the factors of a range of users (or items) against the fixed factors of the
+     * other side. The system of user u is
+     * {@code (YtY + Yt * (Cu - I) * Y + lambda * I) * xu = Yt * Cu * Pu}, where only the
+     * items of user u contribute to the middle term and to the right side, so that it is
+     * accumulated over the non-zeros of the user into the reused workspace of the task.
+     */
+    private class SolveTask implements Callable<Void> {
+        private final int from, to;
+        private final int[] ptr, ind;
+        private final double[] values, confidences, preferences;
+        private final DenseMatrix factors, otherFactors;
+        private final CholeskySolver solver = new CholeskySolver(numFactors);
+
+        // FtF + lambda * I of the other side, set before every half-step
+        private double[] base;
+
+        SolveTask(int from, int to, int[] ptr, int[] ind, double[] values, double[] confidences,
+                  double[] preferences, DenseMatrix factors, DenseMatrix otherFactors) {
+            this.from = from;
+            this.to = to;
+            this.ptr = ptr;
+            this.ind = ind;
+            this.values = values;
+            this.confidences = confidences;
+            this.preferences = preferences;
+            this.factors = factors;
+            this.otherFactors = otherFactors;
+        }
 
-                // XtX + Xt * (Ci - itemIdx) * X
-                DenseMatrix XtCiX = new DenseMatrix(numFactors, numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int factorIdxIn = 0; factorIdxIn < numFactors; factorIdxIn++) {
-                        double value = 0.0;
-                        for (int userIdx : userList) {
-                            value += XtCiI.get(factorIdx, userIdx) * X.get(userIdx, factorIdxIn);
-                        }
-                        XtCiX.set(factorIdx, factorIdxIn, value);
+        @Override
+        public Void call() throws LibrecException {
+            for (int idx = from; idx < to; idx++) {
+                solver.reset(base);
+                for (int entryIdx = ptr[idx]; entryIdx < ptr[idx + 1]; entryIdx++) {
+                    // zeros of the training matrix are not observed
+                    if (values[entryIdx] == 0.0) {
+                        continue;
                     }
+                    double[] otherFactor = otherFactors.data[ind[entryIdx]];
+                    double confidence = confidences[entryIdx];
+                    solver.addOuter(otherFactor, confidence);
+                    solver.addVector(otherFactor, preferences[entryIdx] * (confidence + 1.0));
                 }
-                XtCiX.addEqual(XtX);
-
-                // (XtCuX + lambda * itemIdx)^-1
-                //lambda * itemIdx can be pre-difined because every time is the same.
-                DenseMatrix Wi = (XtCiX.add(itemIdentityMatrix)).inv();
-                // Xt * (Ci - itemIdx) * Pu + Xt * Pu
-                DenseVector XtCiPu = new DenseVector(numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int userIdx : userList) {
-                        XtCiPu.add(factorIdx, preferenceMatrix.get(userIdx, itemIdx) * (XtCiI.get(factorIdx, userIdx) + Xt.get(factorIdx, userIdx)));
-                    }
+                if (!solver.solve(factors.data[idx])) {
+                    throw new LibrecException("WRMF system is not positive definite, increase the regularization");
                 }
-
-                DenseVector yi = Wi.mult(XtCiPu);
-                // udpate item factors
-                Y.setRow(itemIdx, yi);
-            }
-
-            if (verbose) {
-                LOG.info(getClass()+" runs at iteration = "+iter+" "+new Date());
             }
+            return null;
         }
     }
 }
@@ -89,7 +89,7 @@ public class PRankDRecommender extends RankSGDRecommender {
         }
 
         // compute item correlations by cosine similarity
-        itemCorrs = context.getSimilarity().getSimilarityMatrix();
+        itemCorrs = context.getSimilarity().toSymmMatrix();
     }
 
     /**
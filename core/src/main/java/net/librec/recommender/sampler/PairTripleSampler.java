@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.common.LibrecException;
+import net.librec.math.structure.RowColumnSets;
+
+import java.util.Random;
+
+/**
+ * Draws a (user, item) pair uniformly from the flat array of all training
+ * pairs, so that users are drawn in proportion to their number of items and
+ * a draw is a single array read.
+ */
+public class PairTripleSampler extends TripleSampler {
+
+    // the user and the item of every pair, in user order
+    private final int[] pairUsers, pairItems;
+
+    /**
+     * @param userItemsSet the training items of every user
+     * @throws LibrecException if no user has both items and missing items
+     */
+    public PairTripleSampler(RowColumnSets userItemsSet) throws LibrecException {
+        super(userItemsSet);
+
+        // users without items or with all of them have no pair
+        int numPairs = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int size = userItemsSet.size(userIdx);
+            if (size < numItems) {
+                numPairs += size;
+            }
+        }
+        if (numPairs == 0) {
+            throw new LibrecException("No (user, item) pair to sample from");
+        }
+
+        pairUsers = new int[numPairs];
+        pairItems = new int[numPairs];
+        int pairIdx = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int size = userItemsSet.size(userIdx);
+            if (size < numItems) {
+                for (int k = 0; k < size; k++) {
+                    pairUsers[pairIdx] = userIdx;
+                    pairItems[pairIdx] = userItemsSet.get(userIdx, k);
+                    pairIdx++;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void samplePositive(Random random, int[] triple) {
+        int pairIdx = random.nextInt(pairUsers.length);
+        triple[0] = pairUsers[pairIdx];
+        triple[1] = pairItems[pairIdx];
+    }
+}
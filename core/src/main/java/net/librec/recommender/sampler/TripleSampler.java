@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.common.LibrecException;
+import net.librec.math.algorithm.AliasTable;
+import net.librec.math.structure.RowColumnSets;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Draws (user, positive item, negative item) triples for pairwise ranking
+ * from the training items of every user.
+ * <p>
+ * Subclasses choose how the user and the positive item are drawn. The
+ * negative item is drawn uniformly among the items the user has not
+ * consumed, or, once {@link #setNegativeWeights(double[])} is given, from an
+ * alias table of item weights, e.g. popularity or action counts.
+ * <p>
+ * A sampler only reads its state while drawing, so it can be shared by
+ * several workers, each with its own random generator.
+ */
+public abstract class TripleSampler {
+
+    /**
+     * name of {@link UserTripleSampler}
+     */
+    public static final String USER = "uniform";
+
+    /**
+     * name of {@link PairTripleSampler}
+     */
+    public static final String PAIR = "pair";
+
+    /**
+     * the training items of every user
+     */
+    protected final RowColumnSets userItemsSet;
+
+    protected final int numUsers, numItems;
+
+    /**
+     * weighted negative items, null for uniform negatives
+     */
+    private AliasTable negativeTable;
+
+    /**
+     * users who have consumed every item of positive weight, they draw negatives uniformly
+     */
+    private BitSet uniformUsers;
+
+    /**
+     * @param userItemsSet the training items of every user
+     */
+    protected TripleSampler(RowColumnSets userItemsSet) {
+        this.userItemsSet = userItemsSet;
+        this.numUsers = userItemsSet.numRows();
+        this.numItems = userItemsSet.numColumns();
+    }
+
+    /**
+     * Create a sampler by its name
+     *
+     * @param name         {@link #USER} or {@link #PAIR}
+     * @param userItemsSet the training items of every user
+     * @return the sampler
+     * @throws LibrecException if the name is unknown or no triple can be drawn
+     */
+    public static TripleSampler create(String name, RowColumnSets userItemsSet) throws LibrecException {
+        if (USER.equals(name)) {
+            return new UserTripleSampler(userItemsSet);
+        } else if (PAIR.equals(name)) {
+            return new PairTripleSampler(userItemsSet);
+        }
+        throw new LibrecException("Unknown triple sampler: " + name);
+    }
+
+    /**
+     * Draw a triple
+     *
+     * @param random the random generator
+     * @param triple buffer of at least 3 length, filled with the user, the positive item and the negative item
+     */
+    public void sample(Random random, int[] triple) {
+        samplePositive(random, triple);
+        triple[2] = sampleNegative(random, triple[0]);
+    }
+
+    /**
+     * Draw a user who has at least one item but not all of them, and one of the user's items
+     *
+     * @param random the random generator
+     * @param triple buffer filled with the user and the positive item
+     */
+    protected abstract void samplePositive(Random random, int[] triple);
+
+    /**
+     * Draw an item the user has not consumed
+     *
+     * @param random  the random generator
+     * @param userIdx user index
+     * @return the negative item
+     */
+    protected int sampleNegative(Random random, int userIdx) {
+        int negItemIdx;
+        if (negativeTable == null || uniformUsers.get(userIdx)) {
+            do {
+                negItemIdx = random.nextInt(numItems);
+            } while (userItemsSet.contains(userIdx, negItemIdx));
+        } else {
+            do {
+                negItemIdx = negativeTable.sample(random);
+            } while (userItemsSet.contains(userIdx, negItemIdx));
+        }
+        return negItemIdx;
+    }
+
+    /**
+     * Draw the negative items with probability proportional to a weight per item
+     * instead of uniformly. Items of weight 0 are never drawn, except for the users
+     * who have consumed every item of positive weight, who keep drawing uniformly.
+     *
+     * @param weights the weight of every item, or null for uniform negatives
+     * @throws LibrecException if the weights are not valid
+     */
+    public void setNegativeWeights(double[] weights) throws LibrecException {
+        if (weights == null) {
+            negativeTable = null;
+            uniformUsers = null;
+            return;
+        }
+        if (weights.length != numItems) {
+            throw new LibrecException("Expected " + numItems + " negative weights, got " + weights.length);
+        }
+
+        int numPositive = 0;
+        for (double weight : weights) {
+            if (weight > 0.0d) {
+                numPositive++;
+            }
+        }
+        BitSet users = new BitSet(numUsers);
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int userPositive = 0;
+            for (int k = 0, size = userItemsSet.size(userIdx); k < size; k++) {
+                if (weights[userItemsSet.get(userIdx, k)] > 0.0d) {
+                    userPositive++;
+                }
+            }
+            if (userPositive == numPositive) {
+                users.set(userIdx);
+            }
+        }
+
+        try {
+            negativeTable = new AliasTable(weights);
+        } catch (IllegalArgumentException e) {
+            throw new LibrecException(e);
+        }
+        uniformUsers = users;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.math.structure.RowColumnSets;
+
+import java.util.Random;
+
+/**
+ * Draws a user uniformly, then one of the user's items uniformly, the
+ * sampling of Rendle et al., BPR, UAI 2009. Every user is drawn as often,
+ * whatever the number of items.
+ */
+public class UserTripleSampler extends TripleSampler {
+
+    /**
+     * @param userItemsSet the training items of every user
+     */
+    public UserTripleSampler(RowColumnSets userItemsSet) {
+        super(userItemsSet);
+    }
+
+    @Override
+    protected void samplePositive(Random random, int[] triple) {
+        while (true) {
+            int userIdx = random.nextInt(numUsers);
+
+            // users without items or with all of them have no pair
+            int size = userItemsSet.size(userIdx);
+            if (size == 0 || size == numItems)
+                continue;
+
+            triple[0] = userIdx;
+            triple[1] = userItemsSet.get(userIdx, random.nextInt(size));
+            return;
+        }
+    }
+}
@@ -20,13 +20,17 @@ package net.librec.similarity;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
 import net.librec.data.convertor.appender.SocialDataAppender;
+import net.librec.math.structure.KNNSimilarityMatrix;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseVector;
 import net.librec.math.structure.SymmMatrix;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Calculate Recommender Similarity, such as cosine, Pearson, Jaccard
@@ -37,6 +41,12 @@ import java.util.List;
 
 public abstract class AbstractRecommenderSimilarity implements RecommenderSimilarity {
 
+    /**
+     * the number of blocks of rows per thread, small blocks spread the first rows,
+     * which have the most candidates, over the threads
+     */
+    private static final int BLOCKS_PER_THREAD = 16;
+
     /**
      * Configuration
      */
@@ -45,6 +55,14 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
      * Similarity Matrix
      */
     protected SymmMatrix similarityMatrix;
+    /**
+     * Nearest neighbours of every row of the similarity matrix
+     */
+    protected KNNSimilarityMatrix knnSimilarityMatrix;
+    /**
+     * shrinkage of the similarity to the number of common entries
+     */
+    protected int shrinkage;
 
     /**
      * Build social similarity matrix with trainMatrix in dataModel.
@@ -64,30 +82,7 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
                 // items.
                 boolean isUser = StringUtils.equals(similarityKey, "user");
                 SparseMatrix trainMatrix = dataModel.getDataSplitter().getTrainData();
-                int numUsers = trainMatrix.numRows();
-                int numItems = trainMatrix.numColumns();
-                int count = isUser ? numUsers : numItems;
-                
-                similarityMatrix = new SymmMatrix(count);
-                
-                for (int i = 0; i < count; i++) {
-                    SparseVector thisVector = isUser ? trainMatrix.row(i) : trainMatrix.column(i);
-                    if (thisVector.getCount() == 0) {
-                        continue;
-                    }
-                    // user/item itself exclusive
-                    for (int j = i + 1; j < count; j++) {
-                        SparseVector thatVector = isUser ? trainMatrix.row(j) : trainMatrix.column(j);
-                        if (thatVector.getCount() == 0) {
-                            continue;
-                        }
-                        
-                        double sim = getCorrelation(thisVector, thatVector);
-                        if (!Double.isNaN(sim) && sim != 0) {
-                            similarityMatrix.set(i, j, sim);
-                        }
-                    }
-                }
+                buildSimilarityMatrix(new SparseRows(trainMatrix, isUser));
             }
         }
 
@@ -127,6 +122,223 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         }
     }
 
+    /**
+     * Build the similarity matrix of the given rows, in parallel over blocks of rows.
+     * <p>
+     * Only the pairs of rows sharing a key are compared, found through the inverted
+     * lists of the keys, see {@link #getKeys(SparseRows, int)}. By default the keys
+     * are the indices of the rows, e.g. the items of every user when comparing users:
+     * the pairs sharing nothing have no similarity under the metrics of this package,
+     * a metric giving them one has to override this method.
+     * <p>
+     * If {@code rec.similarity.knn.number} is positive, only the k nearest neighbours
+     * of every row are kept, in {@link #knnSimilarityMatrix}, and the full symmetric
+     * matrix is never built.
+     *
+     * @param rows the rows to compare
+     */
+    protected void buildSimilarityMatrix(SparseRows rows) {
+        shrinkage = conf.getInt("rec.similarity.shrinkage", 0);
+        int numNeighbors = conf.getInt("rec.similarity.knn.number", 0);
+        int numThreads = Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
+
+        int maxSize = 0;
+        for (int row = 0; row < rows.numRows(); row++) {
+            maxSize = Math.max(maxSize, rows.size(row));
+        }
+        SparseRows keys = getKeys(rows, numThreads);
+        SparseRows invertedKeys = keys.transpose();
+        int[] bounds = rows.blocks(numThreads * BLOCKS_PER_THREAD);
+        SimilarityBlock[] blocks = new SimilarityBlock[bounds.length - 1];
+        AtomicInteger nextBlock = new AtomicInteger();
+        KNNSimilarityMatrix knnMatrix = numNeighbors > 0 ? new KNNSimilarityMatrix(rows.numRows(), numNeighbors) : null;
+
+        List<SimilarityTask> tasks = new ArrayList<>();
+        for (int taskIdx = 0; taskIdx < Math.min(numThreads, blocks.length); taskIdx++) {
+            tasks.add(new SimilarityTask(rows, keys, invertedKeys, bounds, nextBlock, blocks, knnMatrix, maxSize));
+        }
+        if (tasks.size() == 1) {
+            tasks.get(0).call();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        if (knnMatrix != null) {
+            knnSimilarityMatrix = knnMatrix;
+            similarityMatrix = null;
+            return;
+        }
+
+        // the table of the matrix is not thread-safe, it is filled in row order at the end
+        similarityMatrix = new SymmMatrix(rows.numRows());
+        for (SimilarityBlock block : blocks) {
+            if (block == null) {
+                continue;
+            }
+            for (int idx = 0; idx < block.size; idx++) {
+                similarityMatrix.set(block.thisRows[idx], block.thatRows[idx], block.values[idx]);
+            }
+        }
+    }
+
+    /**
+     * Get the keys of the rows, the rows sharing a key being compared when building
+     * the similarity matrix. By default the keys are the indices of the rows, so that
+     * every pair of rows sharing an index is compared.
+     *
+     * @param rows       the rows to compare
+     * @param numThreads the number of threads computing the keys
+     * @return the sorted keys of every row
+     */
+    protected SparseRows getKeys(SparseRows rows, int numThreads) {
+        return rows;
+    }
+
+    /**
+     * the similarities of a block of rows
+     */
+    private static class SimilarityBlock {
+        private int size;
+        private int[] thisRows = new int[16];
+        private int[] thatRows = new int[16];
+        private double[] values = new double[16];
+
+        private void add(int thisRow, int thatRow, double value) {
+            if (size == values.length) {
+                thisRows = Arrays.copyOf(thisRows, 2 * size);
+                thatRows = Arrays.copyOf(thatRows, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            thisRows[size] = thisRow;
+            thatRows[size] = thatRow;
+            values[size] = value;
+            size++;
+        }
+    }
+
+    /**
+     * compare every row of the blocks it takes with the following rows sharing a key,
+     * or with all the rows sharing a key when keeping the nearest neighbours, each
+     * row then being filled by the task of its block only
+     */
+    private class SimilarityTask implements Callable<Void> {
+        private final SparseRows rows, keys, invertedKeys;
+        private final int[] bounds;
+        private final AtomicInteger nextBlock;
+        private final SimilarityBlock[] blocks;
+        private final KNNSimilarityMatrix knnMatrix;
+
+        // the last row each row was found a candidate of, and the candidates of a row
+        private final int[] marks;
+        private final int[] candidates;
+
+        // values of two rows at their common indices
+        private final double[] thisValues, thatValues;
+
+        SimilarityTask(SparseRows rows, SparseRows keys, SparseRows invertedKeys, int[] bounds, AtomicInteger nextBlock,
+                       SimilarityBlock[] blocks, KNNSimilarityMatrix knnMatrix, int maxSize) {
+            this.rows = rows;
+            this.keys = keys;
+            this.invertedKeys = invertedKeys;
+            this.bounds = bounds;
+            this.nextBlock = nextBlock;
+            this.blocks = blocks;
+            this.knnMatrix = knnMatrix;
+            this.marks = new int[rows.numRows()];
+            this.candidates = new int[rows.numRows()];
+            this.thisValues = new double[maxSize];
+            this.thatValues = new double[maxSize];
+            Arrays.fill(marks, -1);
+        }
+
+        @Override
+        public Void call() {
+            int[] keyIndex = keys.getIndex();
+            int[] invertedIndex = invertedKeys.getIndex();
+            for (int blockIdx = nextBlock.getAndIncrement(); blockIdx < blocks.length; blockIdx = nextBlock.getAndIncrement()) {
+                SimilarityBlock block = new SimilarityBlock();
+                for (int thisRow = bounds[blockIdx]; thisRow < bounds[blockIdx + 1]; thisRow++) {
+                    // the following rows sharing a key, or all of them, each found once
+                    int numCandidates = 0;
+                    marks[thisRow] = thisRow;
+                    for (int idx = keys.start(thisRow); idx < keys.end(thisRow); idx++) {
+                        int key = keyIndex[idx];
+                        int start = invertedKeys.start(key), end = invertedKeys.end(key);
+                        if (knnMatrix == null) {
+                            int pos = Arrays.binarySearch(invertedIndex, start, end, thisRow);
+                            start = pos >= 0 ? pos + 1 : -pos - 1;
+                        }
+                        for (int k = start; k < end; k++) {
+                            int thatRow = invertedIndex[k];
+                            if (marks[thatRow] != thisRow) {
+                                marks[thatRow] = thisRow;
+                                candidates[numCandidates++] = thatRow;
+                            }
+                        }
+                    }
+                    Arrays.sort(candidates, 0, numCandidates);
+
+                    for (int k = 0; k < numCandidates; k++) {
+                        // always compared the same way round, whichever row is filled
+                        int lowRow = Math.min(thisRow, candidates[k]);
+                        int highRow = Math.max(thisRow, candidates[k]);
+                        int numCommon = rows.common(lowRow, highRow, thisValues, thatValues);
+                        double sim = getCorrelation(rows, lowRow, highRow, thisValues, thatValues, numCommon);
+                        if (!Double.isNaN(sim) && sim != 0) {
+                            if (knnMatrix != null) {
+                                knnMatrix.offer(thisRow, candidates[k], sim);
+                            } else {
+                                block.add(thisRow, candidates[k], sim);
+                            }
+                        }
+                    }
+                    if (knnMatrix != null) {
+                        knnMatrix.sort(thisRow);
+                    }
+                }
+                blocks[blockIdx] = block;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compute the similarity of two rows from their values at their common indices,
+     * the counterpart of {@link #getCorrelation(SparseVector, SparseVector)} used
+     * when building the similarity matrix. Called concurrently, it must only read
+     * the state of the similarity.
+     *
+     * @param rows       the compared rows
+     * @param thisRow    this row
+     * @param thatRow    that row
+     * @param thisValues values of this row at the common indices, in increasing index order
+     * @param thatValues values of that row at the common indices, in increasing index order
+     * @param numCommon  the number of common indices
+     * @return similarity
+     */
+    protected double getCorrelation(SparseRows rows, int thisRow, int thatRow,
+                                    double[] thisValues, double[] thatValues, int numCommon) {
+        double sim = getSimilarity(thisValues, thatValues, numCommon);
+
+        // shrink to account for vector size
+        if (!Double.isNaN(sim) && shrinkage > 0) {
+            sim *= numCommon / (numCommon + shrinkage + 0.0);
+        }
+        return sim;
+    }
+
     /**
      * Find the common rated items by this user and that user, or the common
      * users have rated this item or that item. And then return the similarity.
@@ -175,13 +387,74 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
     protected abstract double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList);
 
     /**
-     * Return the similarity matrix.
+     * Calculate the similarity between the first size values of thisValues and
+     * thatValues, by default through {@link #getSimilarity(List, List)}.
      *
-     * @return the similarity matrix
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        List<Double> thisList = new ArrayList<Double>(size);
+        List<Double> thatList = new ArrayList<Double>(size);
+        for (int idx = 0; idx < size; idx++) {
+            thisList.add(thisValues[idx]);
+            thatList.add(thatValues[idx]);
+        }
+        return getSimilarity(thisList, thatList);
+    }
+
+    /**
+     * Return the similarity matrix as it was built.
+     *
+     * @return the similarity matrix, or null if {@code rec.similarity.knn.number}
+     * was positive and only the nearest neighbours were kept
      */
     @Override
     public SymmMatrix getSimilarityMatrix() {
         return similarityMatrix;
     }
 
+    /**
+     * Return the nearest neighbours of every row as they were built.
+     *
+     * @return the nearest neighbours matrix, or null unless
+     * {@code rec.similarity.knn.number} was positive
+     */
+    @Override
+    public KNNSimilarityMatrix getKNNSimilarityMatrix() {
+        return knnSimilarityMatrix;
+    }
+
+    /**
+     * Return the similarity matrix. When only the nearest neighbours were kept, it
+     * is converted from them once and made of their similarities only; both are
+     * kept afterwards.
+     *
+     * @return the similarity matrix
+     */
+    @Override
+    public synchronized SymmMatrix toSymmMatrix() {
+        if (similarityMatrix == null && knnSimilarityMatrix != null) {
+            similarityMatrix = knnSimilarityMatrix.toSymmMatrix();
+        }
+        return similarityMatrix;
+    }
+
+    /**
+     * Return the nearest neighbours of every row of the similarity matrix, all of
+     * them unless {@code rec.similarity.knn.number} was positive. When the full
+     * matrix was built, they are converted from it once; both are kept afterwards.
+     *
+     * @return the nearest neighbours matrix
+     */
+    @Override
+    public synchronized KNNSimilarityMatrix toKNNSimilarityMatrix() {
+        if (knnSimilarityMatrix == null && similarityMatrix != null) {
+            knnSimilarityMatrix = KNNSimilarityMatrix.valueOf(similarityMatrix, 0);
+        }
+        return knnSimilarityMatrix;
+    }
+
 }
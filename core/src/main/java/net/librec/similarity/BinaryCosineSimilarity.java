@@ -43,4 +43,24 @@ public class BinaryCosineSimilarity extends AbstractRecommenderSimilarity {
     protected double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList) {
         return 0.0;
     }
+
+    /**
+     * Get the binary cosine similarity of two rows of the similarity matrix.
+     *
+     * @param rows       the compared rows
+     * @param thisRow    this row
+     * @param thatRow    that row
+     * @param thisValues values of this row at the common indices
+     * @param thatValues values of that row at the common indices
+     * @param numCommon  the number of common indices
+     * @return similarity
+     */
+    protected double getCorrelation(SparseRows rows, int thisRow, int thatRow,
+                                    double[] thisValues, double[] thatValues, int numCommon) {
+        double innerProduct = 0.0;
+        for (int i = 0; i < numCommon; i++) {
+            innerProduct += thisValues[i] * thatValues[i];
+        }
+        return innerProduct / (Math.sqrt(rows.norm(thisRow)) * Math.sqrt(rows.norm(thatRow)));
+    }
 }
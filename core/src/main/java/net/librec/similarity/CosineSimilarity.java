@@ -46,4 +46,26 @@ public class CosineSimilarity extends AbstractRecommenderSimilarity {
         }
         return innerProduct / Math.sqrt(thisPower2 * thatPower2);
     }
+
+    /**
+     * calculate the similarity between the first size values of thisValues and thatValues.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        if (size < 1) {
+            return Double.NaN;
+        }
+
+        double innerProduct = 0.0, thisPower2 = 0.0, thatPower2 = 0.0;
+        for (int i = 0; i < size; i++) {
+            innerProduct += thisValues[i] * thatValues[i];
+            thisPower2 += thisValues[i] * thisValues[i];
+            thatPower2 += thatValues[i] * thatValues[i];
+        }
+        return innerProduct / Math.sqrt(thisPower2 * thatPower2);
+    }
 }
@@ -49,4 +49,22 @@ public class ExJaccardSimilarity extends AbstractRecommenderSimilarity {
 
         return innerProduct / (thisPower2 + thatPower2 - innerProduct);
     }
+
+    /**
+     * calculate the similarity between the first size values of thisValues and thatValues.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        double innerProduct = 0.0, thisPower2 = 0.0, thatPower2 = 0.0;
+        for (int i = 0; i < size; i++) {
+            innerProduct += thisValues[i] * thatValues[i];
+            thisPower2 += thisValues[i] * thisValues[i];
+            thatPower2 += thatValues[i] * thatValues[i];
+        }
+        return innerProduct / (thisPower2 + thatPower2 - innerProduct);
+    }
 }
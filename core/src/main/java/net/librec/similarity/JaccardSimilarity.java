@@ -58,4 +58,21 @@ public class JaccardSimilarity extends AbstractRecommenderSimilarity {
     protected double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList) {
         return 0.0;
     }
+
+    /**
+     * Get the Jaccard similarity of two rows of the similarity matrix.
+     *
+     * @param rows       the compared rows
+     * @param thisRow    this row
+     * @param thatRow    that row
+     * @param thisValues values of this row at the common indices
+     * @param thatValues values of that row at the common indices
+     * @param numCommon  the number of common indices
+     * @return similarity
+     */
+    protected double getCorrelation(SparseRows rows, int thisRow, int thatRow,
+                                    double[] thisValues, double[] thatValues, int numCommon) {
+        int numAllElements = rows.size(thisRow) + rows.size(thatRow) - numCommon;
+        return (numCommon + 0.0) / numAllElements;
+    }
 }
@@ -103,4 +103,61 @@ public class KRCCSimilarity extends AbstractRecommenderSimilarity {
 
         return 1.0 - 4.0 * sum / (numCommonIndices * (numCommonIndices - 1));
     }
+
+    /**
+     * Get the Kendall rank correlation of two rows of the similarity matrix.
+     *
+     * @param rows       the compared rows
+     * @param thisRow    this row
+     * @param thatRow    that row
+     * @param thisValues values of this row at the common indices
+     * @param thatValues values of that row at the common indices
+     * @param numCommon  the number of common indices
+     * @return similarity
+     */
+    protected double getCorrelation(SparseRows rows, int thisRow, int thatRow,
+                                    double[] thisValues, double[] thatValues, int numCommon) {
+        if (rows.size(thisRow) != rows.size(thatRow)) {
+            return Double.NaN;
+        }
+        return getSimilarity(thisValues, thatValues, numCommon);
+    }
+
+    /**
+     * calculate the similarity between the first size values of thisValues and thatValues.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        if (size < 2) {
+            return Double.NaN;
+        }
+
+        int numCommonIndices = 0;
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            if (!(thisValues[i] > 0.0 && thatValues[i] > 0.0)) {
+                continue;
+            }
+            numCommonIndices++;
+            for (int j = i + 1; j < size; j++) {
+                if (!(thisValues[j] > 0.0 && thatValues[j] > 0.0)) {
+                    continue;
+                }
+                double thisDiff = thisValues[i] - thisValues[j];
+                double thatDiff = thatValues[i] - thatValues[j];
+                if (thisDiff * thatDiff < 0.0) {
+                    sum += 1.0;
+                }
+            }
+        }
+        if (numCommonIndices < 2) {
+            return Double.NaN;
+        }
+
+        return 1.0 - 4.0 * sum / (numCommonIndices * (numCommonIndices - 1));
+    }
 }
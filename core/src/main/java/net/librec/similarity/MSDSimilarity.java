@@ -58,4 +58,29 @@ public class MSDSimilarity extends AbstractRecommenderSimilarity {
 
         return sim;
     }
+
+    /**
+     * calculate the similarity between the first size values of thisValues and thatValues.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        if (size < 1) {
+            return Double.NaN;
+        }
+
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += Math.pow(thisValues[i] - thatValues[i], 2);
+        }
+
+        double sim = size / sum;
+        if (Double.isInfinite(sim))
+            sim = 1.0;
+
+        return sim;
+    }
 }
@@ -47,4 +47,24 @@ public class MSESimilarity extends AbstractRecommenderSimilarity {
         }
         return mse / thisList.size();
     }
+
+    /**
+     * calculate the similarity between the first size values of thisValues and thatValues.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        if (size < 1) {
+            return Double.NaN;
+        }
+
+        double mse = 0.0;
+        for (int i = 0; i < size; i++) {
+            mse += Math.pow(thisValues[i] - thatValues[i], 2);
+        }
+        return mse / size;
+    }
 }
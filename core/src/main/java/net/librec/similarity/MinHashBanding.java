@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Locality sensitive hashing of the index sets of rows by MinHash banding, giving
+ * the keys through which the candidate pairs of an approximate similarity are found.
+ * <p>
+ * The signature of a row is made of bands * rows min-hashes of its indices. Two rows
+ * whose signatures agree on all the min-hashes of a band fall in the same bucket of
+ * that band, which happens with probability {@code 1 - (1 - s^rows)^bands} for
+ * rows of Jaccard similarity s: more bands raise the recall, more rows per band
+ * raise the precision and lower the number of candidates. Buckets of a single row
+ * are dropped, as are the buckets larger than the maximum bucket size if any.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>rec.similarity.minhash.bands: the number of bands, 20 by default</li>
+ * <li>rec.similarity.minhash.rows: the number of min-hashes per band, 5 by default</li>
+ * <li>rec.similarity.minhash.bucket.size: the maximum number of rows of a bucket, 0 for no limit</li>
+ * </ul>
+ */
+public class MinHashBanding {
+
+    private final int numBands, bandRows, maxBucketSize;
+
+    // seed of every min-hash function, then of every band
+    private final long[] hashSeeds, bandSeeds;
+
+    /**
+     * @param numBands      the number of bands
+     * @param bandRows      the number of min-hashes per band
+     * @param maxBucketSize the maximum number of rows of a bucket, 0 or less for no limit
+     * @param seed          the seed of the hash functions
+     */
+    public MinHashBanding(int numBands, int bandRows, int maxBucketSize, long seed) {
+        if (numBands <= 0 || bandRows <= 0) {
+            throw new IllegalArgumentException("MinHash needs positive bands and rows, got "
+                    + numBands + " bands of " + bandRows + " rows");
+        }
+        this.numBands = numBands;
+        this.bandRows = bandRows;
+        this.maxBucketSize = maxBucketSize;
+
+        Random random = new Random(seed);
+        this.hashSeeds = new long[numBands * bandRows];
+        this.bandSeeds = new long[numBands];
+        for (int idx = 0; idx < hashSeeds.length; idx++) {
+            hashSeeds[idx] = random.nextLong();
+        }
+        for (int band = 0; band < numBands; band++) {
+            bandSeeds[band] = random.nextLong();
+        }
+    }
+
+    /**
+     * @param conf configuration
+     * @return the banding configured by rec.similarity.minhash.*, seeded by rec.random.seed
+     */
+    public static MinHashBanding valueOf(Configuration conf) {
+        return new MinHashBanding(conf.getInt("rec.similarity.minhash.bands", 20),
+                conf.getInt("rec.similarity.minhash.rows", 5),
+                conf.getInt("rec.similarity.minhash.bucket.size", 0),
+                conf.getLong("rec.random.seed", 1L));
+    }
+
+    /**
+     * Hash the rows into the buckets of every band, in parallel over blocks of rows
+     *
+     * @param rows       the rows to hash
+     * @param numThreads the number of threads
+     * @return the sorted buckets of every row, numbered band after band
+     */
+    public SparseRows getBuckets(SparseRows rows, int numThreads) {
+        int numRows = rows.numRows();
+        int[] bounds = rows.blocks(Math.max(1, numThreads));
+
+        // the bucket of every row in every band, -1 for none
+        int[] rowBuckets = new int[numRows * numBands];
+        long[] hashes = new long[numRows];
+        int numBuckets = 0;
+
+        ExecutorService executor = bounds.length > 2 ? Executors.newFixedThreadPool(bounds.length - 1) : null;
+        try {
+            for (int band = 0; band < numBands; band++) {
+                List<BandTask> tasks = new ArrayList<>();
+                for (int block = 0; block + 1 < bounds.length; block++) {
+                    tasks.add(new BandTask(rows, band, bounds[block], bounds[block + 1], hashes));
+                }
+                if (executor == null) {
+                    tasks.get(0).call();
+                } else {
+                    for (Future<Void> future : executor.invokeAll(tasks)) {
+                        future.get();
+                    }
+                }
+                numBuckets = addBuckets(rows, band, hashes, rowBuckets, numBuckets);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        int[] ptr = new int[numRows + 1];
+        int size = 0;
+        for (int bucket : rowBuckets) {
+            if (bucket >= 0) {
+                size++;
+            }
+        }
+        int[] ind = new int[size];
+        double[] values = new double[size];
+        Arrays.fill(values, 1.0d);
+        int pos = 0;
+        for (int row = 0; row < numRows; row++) {
+            for (int band = 0; band < numBands; band++) {
+                int bucket = rowBuckets[row * numBands + band];
+                if (bucket >= 0) {
+                    ind[pos++] = bucket;
+                }
+            }
+            ptr[row + 1] = pos;
+        }
+        return new SparseRows(numRows, numBuckets, ptr, ind, values);
+    }
+
+    /**
+     * number the buckets of a band, from numBuckets on, and set the bucket of every row
+     *
+     * @return the number of buckets of all bands so far
+     */
+    private int addBuckets(SparseRows rows, int band, long[] hashes, int[] rowBuckets, int numBuckets) {
+        int numRows = rows.numRows();
+        long[] sorted = new long[numRows];
+        int size = 0;
+        for (int row = 0; row < numRows; row++) {
+            if (rows.size(row) > 0) {
+                sorted[size++] = hashes[row];
+            }
+        }
+        Arrays.sort(sorted, 0, size);
+
+        // the distinct hashes of the band, and their buckets
+        long[] distinct = new long[size];
+        int[] buckets = new int[size];
+        int numDistinct = 0;
+        for (int start = 0, end; start < size; start = end) {
+            end = start + 1;
+            while (end < size && sorted[end] == sorted[start]) {
+                end++;
+            }
+            int count = end - start;
+            distinct[numDistinct] = sorted[start];
+            buckets[numDistinct] = count > 1 && (maxBucketSize <= 0 || count <= maxBucketSize) ? numBuckets++ : -1;
+            numDistinct++;
+        }
+
+        for (int row = 0; row < numRows; row++) {
+            int bucket = -1;
+            if (rows.size(row) > 0) {
+                bucket = buckets[Arrays.binarySearch(distinct, 0, numDistinct, hashes[row])];
+            }
+            rowBuckets[row * numBands + band] = bucket;
+        }
+        return numBuckets;
+    }
+
+    /**
+     * hash the rows of [fromRow, toRow) in one band
+     */
+    private class BandTask implements Callable<Void> {
+        private final SparseRows rows;
+        private final int band, fromRow, toRow;
+        private final long[] hashes;
+
+        BandTask(SparseRows rows, int band, int fromRow, int toRow, long[] hashes) {
+            this.rows = rows;
+            this.band = band;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.hashes = hashes;
+        }
+
+        @Override
+        public Void call() {
+            int[] index = rows.getIndex();
+            long[] minHashes = new long[bandRows];
+            for (int row = fromRow; row < toRow; row++) {
+                Arrays.fill(minHashes, Long.MAX_VALUE);
+                for (int idx = rows.start(row); idx < rows.end(row); idx++) {
+                    for (int k = 0; k < bandRows; k++) {
+                        long hash = mix(hashSeeds[band * bandRows + k] + index[idx]);
+                        if (hash < minHashes[k]) {
+                            minHashes[k] = hash;
+                        }
+                    }
+                }
+                long hash = bandSeeds[band];
+                for (int k = 0; k < bandRows; k++) {
+                    hash = mix(hash ^ minHashes[k]);
+                }
+                hashes[row] = hash;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * the finalizer of SplitMix64, a bijection of the longs
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
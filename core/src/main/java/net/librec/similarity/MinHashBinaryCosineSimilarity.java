@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+/**
+ * Approximate binary cosine similarity, computed exactly for the candidate pairs of rows found by
+ * MinHash banding only, see {@link MinHashBanding} for its configuration. The
+ * similar pairs missed by the banding have no similarity, as opposed to
+ * {@link BinaryCosineSimilarity} which compares every pair of rows sharing an index.
+ */
+public class MinHashBinaryCosineSimilarity extends BinaryCosineSimilarity {
+
+    /**
+     * Get the MinHash buckets of the rows.
+     *
+     * @param rows       the rows to compare
+     * @param numThreads the number of threads computing the keys
+     * @return the buckets of every row
+     */
+    @Override
+    protected SparseRows getKeys(SparseRows rows, int numThreads) {
+        return MinHashBanding.valueOf(conf).getBuckets(rows, numThreads);
+    }
+}
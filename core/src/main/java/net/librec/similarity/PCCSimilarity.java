@@ -59,4 +59,38 @@ public class PCCSimilarity extends AbstractRecommenderSimilarity {
 
         return num / (Math.sqrt(thisPow2) * Math.sqrt(thatPow2));
     }
+
+    /**
+     * calculate the similarity between the first size values of thisValues and thatValues.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param size       the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int size) {
+        if (size < 2) {
+            return Double.NaN;
+        }
+
+        double thisSum = 0.0, thatSum = 0.0;
+        for (int i = 0; i < size; i++) {
+            thisSum += thisValues[i];
+            thatSum += thatValues[i];
+        }
+        double thisMu = thisSum / size;
+        double thatMu = thatSum / size;
+
+        double num = 0.0, thisPow2 = 0.0, thatPow2 = 0.0;
+        for (int i = 0; i < size; i++) {
+            double thisMinusMu = thisValues[i] - thisMu;
+            double thatMinusMu = thatValues[i] - thatMu;
+
+            num += thisMinusMu * thatMinusMu;
+            thisPow2 += thisMinusMu * thisMinusMu;
+            thatPow2 += thatMinusMu * thatMinusMu;
+        }
+
+        return num / (Math.sqrt(thisPow2) * Math.sqrt(thatPow2));
+    }
 }
@@ -18,6 +18,7 @@
 package net.librec.similarity;
 
 import net.librec.data.DataModel;
+import net.librec.math.structure.KNNSimilarityMatrix;
 import net.librec.math.structure.SymmMatrix;
 
 /**
@@ -37,7 +38,30 @@ public interface RecommenderSimilarity {
     /**
      * get similarity matrix as a SymmMatrix
      * 
-     * @return Similarity Matrix
+     * @return Similarity Matrix, or null if only the nearest neighbours were built
      */
     SymmMatrix getSimilarityMatrix();
+
+    /**
+     * get the nearest neighbours of every row of the similarity matrix
+     *
+     * @return nearest neighbours matrix, or null if the full similarity matrix was built
+     */
+    KNNSimilarityMatrix getKNNSimilarityMatrix();
+
+    /**
+     * get similarity matrix as a SymmMatrix, converted from the nearest
+     * neighbours if only they were built
+     *
+     * @return Similarity Matrix
+     */
+    SymmMatrix toSymmMatrix();
+
+    /**
+     * get the nearest neighbours of every row of the similarity matrix,
+     * converted from the full similarity matrix if it was built
+     *
+     * @return nearest neighbours matrix
+     */
+    KNNSimilarityMatrix toKNNSimilarityMatrix();
 }
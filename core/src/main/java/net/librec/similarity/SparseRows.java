@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.math.structure.SparseMatrix;
+
+import java.util.Arrays;
+
+/**
+ * The rows (users) or the columns (items) of a training matrix compared by a
+ * similarity, as compressed rows of sorted indices and values.
+ * <p>
+ * Zero entries are dropped, as {@link net.librec.math.structure.SparseVector#getIndex()}
+ * does. The transposed rows are the inverted lists, e.g. the users of every item
+ * when comparing users, through which the rows sharing an index are found.
+ */
+public class SparseRows {
+
+    private final int numRows, numColumns;
+
+    // entries of row r are [rowPtr[r], rowPtr[r + 1])
+    private final int[] rowPtr;
+    private final int[] index;
+    private final double[] data;
+
+    // sum of squares of every row
+    private final double[] norms;
+
+    /**
+     * @param matrix training matrix
+     * @param isUser true to compare the rows of the matrix, false to compare its columns
+     */
+    public SparseRows(SparseMatrix matrix, boolean isUser) {
+        this(isUser ? matrix.numRows() : matrix.numColumns(), isUser ? matrix.numColumns() : matrix.numRows(),
+                isUser ? matrix.rowPtr : matrix.colPtr, isUser ? matrix.colInd : matrix.rowInd,
+                isUser ? matrix.rowData : matrix.colData);
+    }
+
+    /**
+     * @param numRows    the number of rows
+     * @param numColumns the number of columns
+     * @param ptr        entries of row r are [ptr[r], ptr[r + 1]) of ind and values
+     * @param ind        column of every entry, sorted in every row
+     * @param values     value of every entry
+     */
+    public SparseRows(int numRows, int numColumns, int[] ptr, int[] ind, double[] values) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.rowPtr = new int[numRows + 1];
+
+        int size = 0;
+        for (int idx = 0; idx < ptr[numRows]; idx++) {
+            if (values[idx] != 0.0) {
+                size++;
+            }
+        }
+        this.index = new int[size];
+        this.data = new double[size];
+        this.norms = new double[numRows];
+
+        int pos = 0;
+        for (int row = 0; row < numRows; row++) {
+            for (int idx = ptr[row]; idx < ptr[row + 1]; idx++) {
+                if (values[idx] != 0.0) {
+                    index[pos] = ind[idx];
+                    data[pos] = values[idx];
+                    norms[row] += values[idx] * values[idx];
+                    pos++;
+                }
+            }
+            rowPtr[row + 1] = pos;
+        }
+    }
+
+    /**
+     * @return the transposed rows, with the indices of every row sorted
+     */
+    public SparseRows transpose() {
+        int[] ptr = new int[numColumns + 1];
+        for (int idx = 0; idx < index.length; idx++) {
+            ptr[index[idx] + 1]++;
+        }
+        for (int col = 0; col < numColumns; col++) {
+            ptr[col + 1] += ptr[col];
+        }
+
+        int[] next = Arrays.copyOf(ptr, numColumns);
+        int[] ind = new int[index.length];
+        double[] values = new double[index.length];
+        for (int row = 0; row < numRows; row++) {
+            for (int idx = rowPtr[row]; idx < rowPtr[row + 1]; idx++) {
+                int pos = next[index[idx]]++;
+                ind[pos] = row;
+                values[pos] = data[idx];
+            }
+        }
+        return new SparseRows(numColumns, numRows, ptr, ind, values);
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int numColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @param row row index
+     * @return the number of entries of the row
+     */
+    public int size(int row) {
+        return rowPtr[row + 1] - rowPtr[row];
+    }
+
+    /**
+     * @param row row index
+     * @return the sum of squares of the row
+     */
+    public double norm(int row) {
+        return norms[row];
+    }
+
+    /**
+     * @param row row index
+     * @return the position of the first entry of the row in {@link #getIndex()}
+     */
+    public int start(int row) {
+        return rowPtr[row];
+    }
+
+    /**
+     * @param row row index
+     * @return the position after the last entry of the row in {@link #getIndex()}
+     */
+    public int end(int row) {
+        return rowPtr[row + 1];
+    }
+
+    /**
+     * @return the indices of all entries, row after row
+     */
+    public int[] getIndex() {
+        return index;
+    }
+
+    /**
+     * split the rows into at most numBlocks ranges of about the same number of rows plus
+     * entries
+     *
+     * @param numBlocks the number of ranges
+     * @return the bounds of the ranges, from 0 to numRows
+     */
+    public int[] blocks(int numBlocks) {
+        numBlocks = Math.max(1, Math.min(numBlocks, numRows));
+        int[] bounds = new int[numBlocks + 1];
+        long total = (long) rowPtr[numRows] + numRows;
+        int row = 0;
+        for (int block = 1; block < numBlocks; block++) {
+            long target = total * block / numBlocks;
+            while (row < numRows && (long) rowPtr[row] + row < target) {
+                row++;
+            }
+            bounds[block] = row;
+        }
+        bounds[numBlocks] = numRows;
+        return bounds;
+    }
+
+    /**
+     * Collect the values of two rows at their common indices, in increasing index
+     * order. The rows are merged, or when one is much longer, the entries of the
+     * shorter one are searched in the longer one.
+     *
+     * @param thisRow    this row
+     * @param thatRow    that row
+     * @param thisValues buffer receiving the values of this row, at least as long as the shorter row
+     * @param thatValues buffer receiving the values of that row, at least as long as the shorter row
+     * @return the number of common indices
+     */
+    public int common(int thisRow, int thatRow, double[] thisValues, double[] thatValues) {
+        int thisIdx = rowPtr[thisRow], thisEnd = rowPtr[thisRow + 1];
+        int thatIdx = rowPtr[thatRow], thatEnd = rowPtr[thatRow + 1];
+        int numCommon = 0;
+
+        if ((thatEnd - thatIdx) > 8 * (thisEnd - thisIdx)) {
+            for (; thisIdx < thisEnd && thatIdx < thatEnd; thisIdx++) {
+                int pos = Arrays.binarySearch(index, thatIdx, thatEnd, index[thisIdx]);
+                if (pos >= 0) {
+                    thisValues[numCommon] = data[thisIdx];
+                    thatValues[numCommon] = data[pos];
+                    numCommon++;
+                    thatIdx = pos + 1;
+                } else {
+                    thatIdx = -pos - 1;
+                }
+            }
+        } else if ((thisEnd - thisIdx) > 8 * (thatEnd - thatIdx)) {
+            for (; thatIdx < thatEnd && thisIdx < thisEnd; thatIdx++) {
+                int pos = Arrays.binarySearch(index, thisIdx, thisEnd, index[thatIdx]);
+                if (pos >= 0) {
+                    thisValues[numCommon] = data[pos];
+                    thatValues[numCommon] = data[thatIdx];
+                    numCommon++;
+                    thisIdx = pos + 1;
+                } else {
+                    thisIdx = -pos - 1;
+                }
+            }
+        } else {
+            while (thisIdx < thisEnd && thatIdx < thatEnd) {
+                int thisCol = index[thisIdx], thatCol = index[thatIdx];
+                if (thisCol < thatCol) {
+                    thisIdx++;
+                } else if (thisCol > thatCol) {
+                    thatIdx++;
+                } else {
+                    thisValues[numCommon] = data[thisIdx++];
+                    thatValues[numCommon] = data[thatIdx++];
+                    numCommon++;
+                }
+            }
+        }
+        return numCommon;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.util;
+
+/**
+ * A bounded min-heap of (index, score) pairs keeping the N highest scores.
+ * <p>
+ * The heap is backed by primitive arrays and can be reused through {@link #clear()}.
+ * As with {@link Lists#sortItemEntryListTopK}, an offered pair only replaces the
+ * current minimum when its score is strictly greater, so among equal scores the
+ * index offered first is kept.
+ */
+public class TopNHeap {
+
+    // the maximum number of pairs kept
+    private final int capacity;
+
+    // heap of indices and their scores
+    private final int[] indices;
+    private final double[] scores;
+
+    // the number of pairs in the heap
+    private int size;
+
+    /**
+     * Construct an empty heap
+     *
+     * @param capacity the maximum number of pairs kept
+     */
+    public TopNHeap(int capacity) {
+        if (capacity <= 0) {
+            throw new IndexOutOfBoundsException("capacity should be more than 0!");
+        }
+        this.capacity = capacity;
+        this.indices = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    /**
+     * @return the maximum number of pairs kept
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of pairs in the heap
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all pairs
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Offer a pair to the heap
+     *
+     * @param index index
+     * @param score score of the index
+     * @return true if the pair is kept
+     */
+    public boolean offer(int index, double score) {
+        if (size < capacity) {
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (!lower(score, index, scores[parent], indices[parent])) {
+                    break;
+                }
+                indices[pos] = indices[parent];
+                scores[pos] = scores[parent];
+                pos = parent;
+            }
+            indices[pos] = index;
+            scores[pos] = score;
+            return true;
+        }
+        if (score > scores[0]) {
+            siftDown(0, index, score, size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sort the pairs by descending score, ties by ascending index. The heap order is
+     * destroyed, so the heap must be cleared before it is offered again.
+     *
+     * @return the number of sorted pairs
+     */
+    public int sort() {
+        for (int end = size - 1; end > 0; end--) {
+            int index = indices[end];
+            double score = scores[end];
+            indices[end] = indices[0];
+            scores[end] = scores[0];
+            siftDown(0, index, score, end);
+        }
+        return size;
+    }
+
+    /**
+     * @param pos position in the heap
+     * @return the index at the given position
+     */
+    public int getIndex(int pos) {
+        return indices[pos];
+    }
+
+    /**
+     * @param pos position in the heap
+     * @return the score at the given position
+     */
+    public double getScore(int pos) {
+        return scores[pos];
+    }
+
+    /**
+     * Place a pair at position pos and restore the heap order of the first n pairs
+     */
+    private void siftDown(int pos, int index, double score, int n) {
+        int half = n >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            int right = child + 1;
+            if (right < n && lower(scores[right], indices[right], scores[child], indices[child])) {
+                child = right;
+            }
+            if (!lower(scores[child], indices[child], score, index)) {
+                break;
+            }
+            indices[pos] = indices[child];
+            scores[pos] = scores[child];
+            pos = child;
+        }
+        indices[pos] = index;
+        scores[pos] = score;
+    }
+
+    /**
+     * @return true if pair (index1, score1) ranks below pair (index2, score2)
+     */
+    private static boolean lower(double score1, int index1, double score2, int index2) {
+        return score1 < score2 || (score1 == score2 && index1 > index2);
+    }
+}
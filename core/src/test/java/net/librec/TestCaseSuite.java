@@ -40,6 +40,7 @@ import net.librec.recommender.ext.*;
 import net.librec.recommender.hybrid.HybridTestCase;
 import net.librec.recommender.item.RecommendedItemListTestCase;
 import net.librec.similarity.BinaryCosineSimilarityTestCase;
+import net.librec.similarity.MinHashSimilarityTestCase;
 import net.librec.tool.driver.DataDriverTestCase;
 import net.librec.tool.driver.RecDriverTestCase;
 import org.junit.runner.RunWith;
@@ -147,6 +148,7 @@ import org.junit.runners.Suite.SuiteClasses;
 	HybridTestCase.class,
 	//similarity
 	BinaryCosineSimilarityTestCase.class,
+	MinHashSimilarityTestCase.class,
 	//tool.driver
 	DataDriverTestCase.class,
 	RecDriverTestCase.class
@@ -70,4 +70,20 @@ public class ItemKNNTestCase extends BaseTestCase {
 		job.runJob();
 	}
 
+	/**
+	 * test the ranking process of ItemKNN Recommender evaluated by the intra-list
+	 * diversity of its item similarities
+	 *
+	 * @throws ClassNotFoundException
+	 * @throws LibrecException
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecommenderIntraListDiversity() throws ClassNotFoundException, LibrecException, IOException {
+		Resource resource = new Resource("rec/cf/itemknn-testranking-ild.properties");
+		conf.addResource(resource);
+		RecommenderJob job = new RecommenderJob(conf);
+		job.runJob();
+	}
+
 }
@@ -77,4 +77,49 @@ public class BPRPlusTestCase extends BaseTestCase {
 //        job = new RecommenderJob(conf);
 //        job.runJob();
     }
+
+    /**
+     * test BPRPlus evaluated by ranking the test items among sampled negatives
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testRecommenderSampledEvaluation() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/cf/ranking/bprplus-test-sampled.properties");
+        conf.addResource(resource);
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
+
+    /**
+     * test BPRPlus validated on a validation set every iteration, with early stopping
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testRecommenderValidation() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/cf/ranking/bprplus-test-validation.properties");
+        conf.addResource(resource);
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
+
+    /**
+     * test BPRPlus evaluated by the intra-list diversity of the cosine of its item factors
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testRecommenderIntraListDiversity() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/cf/ranking/bprplus-test-ild.properties");
+        conf.addResource(resource);
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.BaseTestCase;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SymmMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MinHash Similarity Test Case corresponds to MinHashJaccardSimilarity
+ * {@link net.librec.similarity.MinHashJaccardSimilarity} and
+ * MinHashBinaryCosineSimilarity {@link net.librec.similarity.MinHashBinaryCosineSimilarity},
+ * each compared with the exact similarity it approximates
+ */
+public class MinHashSimilarityTestCase extends BaseTestCase {
+
+    private DataModel dataModel;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        conf.set("data.appender.class", "social");
+        conf.set("data.appender.path", "filmtrust/trust/trust.txt");
+        dataModel = new TextDataModel(conf);
+    }
+
+    @Test
+    public void test1BuildUserSimilarityMatrix() throws Exception {
+        dataModel.buildDataModel();
+        conf.set("rec.recommender.similarity.key", "user");
+        for (RecommenderSimilarity similarity : new RecommenderSimilarity[]{
+                new MinHashJaccardSimilarity(), new MinHashBinaryCosineSimilarity()}) {
+            similarity.buildSimilarityMatrix(dataModel);
+            assertEquals(1508, similarity.getSimilarityMatrix().getDim());
+        }
+    }
+
+    @Test
+    public void test2BuildItemSimilarityMatrix() throws Exception {
+        dataModel.buildDataModel();
+        conf.set("rec.recommender.similarity.key", "item");
+        for (RecommenderSimilarity similarity : new RecommenderSimilarity[]{
+                new MinHashJaccardSimilarity(), new MinHashBinaryCosineSimilarity()}) {
+            similarity.buildSimilarityMatrix(dataModel);
+            assertEquals(2071, similarity.getSimilarityMatrix().getDim());
+        }
+    }
+
+    @Test
+    public void test3CandidatePairsAreExact() throws Exception {
+        dataModel.buildDataModel();
+        conf.set("rec.recommender.similarity.key", "user");
+        assertCandidatePairsAreExact(new MinHashJaccardSimilarity(), new JaccardSimilarity());
+        assertCandidatePairsAreExact(new MinHashBinaryCosineSimilarity(), new BinaryCosineSimilarity());
+    }
+
+    @Test
+    public void test4SimilarityMatrix() throws Exception {
+        conf.set("data.input.path", "test/datamodeltest/matrix4by4.txt");
+        conf.set("rec.recommender.similarity.key", "user");
+        conf.set("rec.similarity.minhash.bands", "100");
+        conf.set("rec.similarity.minhash.rows", "1");
+        assertSmallMatrixIsExact(new MinHashJaccardSimilarity(), new JaccardSimilarity());
+        assertSmallMatrixIsExact(new MinHashBinaryCosineSimilarity(), new BinaryCosineSimilarity());
+    }
+
+    /**
+     * every pair found by the banding has the exact similarity, the others have none
+     */
+    private void assertCandidatePairsAreExact(RecommenderSimilarity similarity,
+                                              RecommenderSimilarity exactSimilarity) {
+        similarity.buildSimilarityMatrix(dataModel);
+        exactSimilarity.buildSimilarityMatrix(dataModel);
+
+        SymmMatrix matrix = similarity.getSimilarityMatrix();
+        SymmMatrix exactMatrix = exactSimilarity.getSimilarityMatrix();
+        for (int i = 0; i < matrix.getDim(); i++) {
+            for (int j = i + 1; j < matrix.getDim(); j++) {
+                double value = matrix.get(i, j);
+                assertTrue(value == 0.0d || Math.abs(value - exactMatrix.get(i, j)) < 1e-6);
+            }
+        }
+    }
+
+    /**
+     * with enough bands of a single min-hash, every similar pair of a small matrix is found
+     */
+    private void assertSmallMatrixIsExact(RecommenderSimilarity similarity,
+                                          RecommenderSimilarity exactSimilarity) throws Exception {
+        Randoms.seed(conf.getInt("rec.random.seed"));
+        TextDataModel textDataModel = new TextDataModel(conf);
+        textDataModel.buildDataModel();
+        similarity.buildSimilarityMatrix(textDataModel);
+        exactSimilarity.buildSimilarityMatrix(textDataModel);
+
+        assertEquals(4, similarity.getSimilarityMatrix().getDim());
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (i != j) {
+                    assertEquals(exactSimilarity.getSimilarityMatrix().get(i, j),
+                            similarity.getSimilarityMatrix().get(i, j), 0.001);
+                }
+            }
+        }
+    }
+}